@@ -1,3 +1,41 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
 /**
  *
  * AVLTree
@@ -6,11 +44,19 @@
  * distinct integer keys and info
  *
  */
-public class AVLTree {	
+public class AVLTree implements Iterable<AVLTree.IAVLNode> {	
 	private int size; //no need (size==root.size)
 	public IAVLNode root; // pointer for the tree's root 
 	public IAVLNode min; // pointer for the tree's min node 
 	public IAVLNode max; // pointer for the tree's max node
+	private IAVLNode finger; // node of the last search or insert, where the next one starts (null if none)
+	private TreeMetrics metrics; // collects operation metrics if set, null (the default) costs one check per operation
+	private LinkedHashSet<IAVLNode> pending; // the nodes relaxed balance left at a balance of 2, null (the default) balances eagerly
+	private Aggregator aggregator; // keeps an aggregate in every node if set, null (the default) keeps plain AVLNodes
+	private TraceRecorder recorder; // logs every operation if set, null (the default) costs one check per operation
+	
+	//the external leaf shared by every node of every tree - a real entry costs one object
+	static final IAVLNode EXTERNAL_LEAF = new VirtualNode();
 	
 	public AVLTree() { //constructor
 		this.size = 0;
@@ -19,11 +65,109 @@ public class AVLTree {
 		this.max = null;
 	}
 	
-	//we'll use it in split
+	/**
+	 * public AVLTree(Aggregator aggregator)
+	 *
+	 * Creates an empty augmented tree: every node keeps the aggregate of its
+	 * subtree under aggregator, which aggregate(lo, hi) combines in O(log(n)).
+	 */
+	public AVLTree(Aggregator aggregator) {
+		this();
+		this.aggregator = aggregator;
+	}
+	
+	//we'll use it in split - the subtree of node becomes a tree of its own
 	public AVLTree(IAVLNode node) {
-		this.size = 1;
+		this.adopt(node);
+		if(!this.empty()) {
+			this.min = leftmost(this.root);
+			this.max = rightmost(this.root);
+		}
+	}
+	
+	/**
+	 * public static AVLTree fromSorted(int[] keys, String[] values)
+	 *
+	 * Returns a perfectly balanced tree holding the items (keys[i], values[i]).
+	 * Heights, sizes, parents, min and max are set while the nodes are built,
+	 * without any insert or rebalancing.
+	 * Throws IllegalArgumentException, before building anything, if keys is not
+	 * strictly increasing or values.length != keys.length.
+	 * complexity O(n)
+	 */
+	public static AVLTree fromSorted(int[] keys, String[] values) {
+		return fromSorted(keys, values, null);
+	}
+	
+	/**
+	 * public static AVLTree fromSorted(int[] keys, String[] values, Aggregator aggregator)
+	 *
+	 * fromSorted for an augmented tree (see AVLTree(Aggregator)), or a plain one if aggregator is null.
+	 * complexity O(n)
+	 */
+	public static AVLTree fromSorted(int[] keys, String[] values, Aggregator aggregator) {
+		if(keys.length != values.length) {
+			throw new IllegalArgumentException("keys and values differ in length");
+		}
+		for(int i = 1; i < keys.length; i++) {
+			if(keys[i - 1] >= keys[i]) {
+				throw new IllegalArgumentException("keys are not strictly increasing at index " + i);
+			}
+		}
+		AVLTree tree = new AVLTree(aggregator);
+		if(keys.length == 0) {
+			return tree;
+		}
+		tree.root = tree.buildBalanced(keys, values, 0, keys.length - 1);
+		tree.size = keys.length;
+		tree.min = leftmost(tree.root);
+		tree.max = rightmost(tree.root);
+		return tree;
+	}
+
+	//builds the subtree of keys[lo..hi] around the middle key - O(hi-lo)
+	private IAVLNode buildBalanced(int[] keys, String[] values, int lo, int hi) {
+		if(lo > hi) {
+			return EXTERNAL_LEAF;
+		}
+		int mid = (lo + hi) >>> 1;
+		IAVLNode node = newNode(keys[mid], values[mid]);
+		IAVLNode left = buildBalanced(keys, values, lo, mid - 1);
+		IAVLNode right = buildBalanced(keys, values, mid + 1, hi);
+		node.setLeft(left);
+		node.setRight(right);
+		left.setParent(node);
+		right.setParent(node);
+		node.setHeight(1 + Math.max(left.getHeight(), right.getHeight()));
+		node.setSize(hi - lo + 1);
+		return node;
+	}
+
+	//a new node for this tree, augmented if the tree has an aggregator - O(1)
+	private IAVLNode newNode(int k, String i) {
+		return (this.aggregator == null) ? new AVLNode(k, i) : new AugmentedNode(k, i, this.aggregator);
+	}
+	
+	//makes node's subtree the whole tree, without fixing min and max - O(1)
+	private void adopt(IAVLNode node) {
+		if(node == null || !node.isRealNode()) {
+			this.size = 0;
+			this.root = null;
+			this.finger = null;
+			this.min = null;
+			this.max = null;
+			if(this.pending != null) {
+				this.pending.clear();
+			}
+			return;
+		}
+		this.size = node.getSize();
 		this.root = node;
+		this.finger = null;
 		root.setParent(null);
+		if(this.pending != null) {
+			this.pending.clear();
+		}
 	}
 	
   /**
@@ -43,14 +187,132 @@ public class AVLTree {
    * otherwise, returns null
    */
   public String search(int k){
-	IAVLNode node = treePosition(k);
-	if(node.getKey() == k) {
+	return search(k, true);
+  }
+  
+  //search for readers sharing the tree under a read lock: the finger is used but not moved, so readers write nothing - O(log(n))
+  String sharedSearch(int k) {
+	return search(k, false);
+  }
+  
+  //search, moving the finger to the node found if moveFinger - O(log(d)) from the finger
+  private String search(int k, boolean moveFinger) {
+	if(this.recorder != null) {
+		this.recorder.record(TraceRecorder.SEARCH, k, null);
+	}
+	long start = (this.metrics == null) ? 0 : System.nanoTime();
+	IAVLNode node = null;
+	if(!this.empty()) {
+		node = fingerPosition(k);
+		if(moveFinger) {
+			this.finger = node;
+		}
+	}
+	if(this.metrics != null) {
+		this.metrics.record(TreeMetrics.SEARCH, start, this, node, 0);
+	}
+	if(node != null && node.getKey() == k) {
 		return node.getValue();
 	}else{
 		return null;
 	}
   }
   
+  /**
+   * public void setMetrics(TreeMetrics metrics)
+   *
+   * Starts collecting operation metrics into metrics, or stops if it is null.
+   * One TreeMetrics may serve several trees; split passes it on to both halves.
+   */
+  public void setMetrics(TreeMetrics metrics) {
+	  this.metrics = metrics;
+  }
+  
+  /**
+   * public TreeMetrics getMetrics()
+   *
+   * Returns the metrics being collected, or null.
+   */
+  public TreeMetrics getMetrics() {
+	  return this.metrics;
+  }
+  
+  /**
+   * public void setRecorder(TraceRecorder recorder)
+   *
+   * Starts logging search, insert, delete, split, join and the batch, range and
+   * set operations into recorder, or stops if it is null. The current items are logged first (as LOAD records),
+   * so a replay starts from this tree. The recorder follows one tree: split passes it on
+   * to the larger half only, and join keeps it for the joined tree (taking t's if this
+   * tree has none), logging the items it joins in.
+   * complexity O(n) to start, then O(1) per operation
+   */
+  public void setRecorder(TraceRecorder recorder) {
+	  this.recorder = recorder;
+	  if(recorder != null) {
+		  for(IAVLNode node = this.min; node != null; node = successor(node)) {
+			  recorder.record(TraceRecorder.LOAD, node.getKey(), node.getValue());
+		  }
+	  }
+  }
+  
+  /**
+   * public TraceRecorder getRecorder()
+   *
+   * Returns the recorder logging this tree, or null.
+   */
+  public TraceRecorder getRecorder() {
+	  return this.recorder;
+  }
+  
+  /**
+   * public void setRelaxed(boolean relaxed)
+   *
+   * Switches relaxed balance on or off. In relaxed balance insert and delete rotate
+   * only where the heights of two siblings differ by 3, and leave the nodes whose
+   * siblings differ by 2 to rebalance(maxSteps). Heights and sizes stay exact, so do
+   * searches, rank and select, and the height stays below about 1.81*log2(n+2)
+   * (the bound for a balance of at most 2, against 1.44*log2(n+2) for an AVL tree)
+   * however many nodes are left for later.
+   * split, join, the batch and the set operations rebalance everything first, and
+   * so does setRelaxed(false).
+   */
+  public void setRelaxed(boolean relaxed) {
+	  if(!relaxed) {
+		  settleAll();
+		  this.pending = null;
+	  }else if(this.pending == null) {
+		  this.pending = new LinkedHashSet<>();
+	  }
+  }
+  
+  /**
+   * public boolean isRelaxed()
+   *
+   * Returns true if the tree is in relaxed balance (see setRelaxed).
+   */
+  public boolean isRelaxed() {
+	  return this.pending != null;
+  }
+  
+  /**
+   * public int rebalance(int maxSteps)
+   *
+   * Rebalances up to maxSteps of the nodes left by relaxed balance, and returns the
+   * number still left (0 once the tree is a valid AVL tree again), so an idle writer
+   * can loop on rebalance(n) > 0 between bursts.
+   * complexity O(log(n)) per rebalanced node, usually O(1)
+   */
+  public int rebalance(int maxSteps) {
+	  if(this.pending == null) {
+		  return 0;
+	  }
+	  for(int steps = 0; steps < maxSteps && !this.pending.isEmpty(); steps++) {
+		  settleNext();
+	  }
+	  return this.pending.size();
+  }
+  
   /**
    * public int insert(int k, String i)
    *
@@ -61,18 +323,45 @@ public class AVLTree {
    * returns -1 if an item with key k already exists in the tree.
    */
    public int insert(int k, String i) {
-	   IAVLNode node = new AVLNode(k,i);
-	   node = binaryTreeInsertion(node);
-	   if(node == null) {
-		   return -1;
+	   if(this.recorder != null) {
+		   this.recorder.record(TraceRecorder.INSERT, k, i);
+	   }
+	   if(this.metrics == null) {
+		   return insertItem(k, i);
 	   }
-	   if(this.size==1) {
-		   //insert to an empty tree
+	   long start = System.nanoTime();
+	   int steps = insertItem(k, i);
+	   this.metrics.record(TreeMetrics.INSERT, start, this, (steps == -1) ? null : this.finger, 0);
+	   return steps;
+   }
+   
+   //insert without metrics
+   private int insertItem(int k, String i) {
+	   if(this.empty()) {
+		   IAVLNode node = newNode(k,i);
+		   this.root = node;
+		   this.min = node;
+		   this.max = node;
+		   this.finger = node;
+		   this.size = 1;
 		   return 0;
-	   }	   
-	  fixExtremumInsert(node);
-	  int rebalance_steps = insert_rebalance(node);
-	  return rebalance_steps;
+	   }
+	   //one descent finds the parent, one pass up fixes heights, sizes and balance
+	   IAVLNode parent = fingerPosition(k);
+	   if(parent.getKey() == k) {
+		   return -1;
+	   }
+	   IAVLNode node = newNode(k,i);
+	   node.setParent(parent);
+	   if(k < parent.getKey()) {
+		   parent.setLeft(node);
+	   }else {
+		   parent.setRight(node);
+	   }
+	   this.size++;
+	   this.finger = node;
+	   fixExtremumInsert(node);
+	   return retrace(parent, 1, 1);
    }
    
    //updates tree.min and tree.max
@@ -98,15 +387,15 @@ public class AVLTree {
    IAVLNode treePosition(int k) {
 	   IAVLNode current = this.root;
 	   IAVLNode prev = this.root;
-	   while(current.getKey() != -1){
+	   while(current.isRealNode()){
 		   //not an external leaf
 		   if(current.getKey() == k) {
 			   //node found
 			   return current;
-		   }if(current.getKey() < k) {
+		   }else if(current.getKey() < k) {
 			   prev = current;
 			   current = current.getRight();
-		   }if(current.getKey() > k) {
+		   }else {
 			   prev = current;
 			   current = current.getLeft();
 		   }
@@ -114,117 +403,53 @@ public class AVLTree {
 	   return prev;
    }
    
-   //inserts a node as without
-   // if the tree is empty, insert the node as the root and update is to be the max and min node as well.
-   // this function calls to "position tree" which runs in O(logn) as we mentioned above' here the insertion itself runs in O(1). 
-   private IAVLNode binaryTreeInsertion(IAVLNode node) {
-	   if(this.empty()) { 
-		  this.root = node;
-		  this.min = node;
-		  this.max = node;
-		  this.size++;
-		  root.setLeft(new AVLNode());
-		  root.setRight(new AVLNode());
-		  return node;
-	  }
-	  IAVLNode newParent = treePosition(node.getKey());
-	  if(newParent == null || newParent.getKey() == node.getKey()){
-		  return null;
-	  }
-	  else{ 
-		  node.setParent(newParent);
-		  if(node.getKey()<newParent.getKey()) {
-			  newParent.setLeft(node);
-		  }else{
-			  newParent.setRight(node);
-		  }
-		  size++;
-		  return node;
-	  }
-   }
-   
-  /**
-   *  
-   * @param inserted node
-   * @return total rebalance steps
-   */	
-   public int insert_rebalance(IAVLNode node) {
-	   if(node==this.root) {return 0;}
-	   if(node.getParent().hasTwoChildren()) {
-		   incrementAllSizes(node);
-		   return 0;} //inserting to an unary node
-	   int rebalanceSteps = 0;
-	   IAVLNode parent;
-	   while (node != this.getRoot()) {
-		   parent = node.getParent();
-		   if(rank_sum(parent) == 1){
-			   //case (1,0), (0,1) result of inserting to a leaf or promotion
-			   rebalanceSteps++;
-			   parent.incrementHeight(+1);
-			   parent.updateSize(+1);
-		   }
-		   else if(rank_diff(parent)==-2 && leftDiff(node)==1){ 
-			   //case parent(0,2) node (1,x)
-			   rotateRight(parent);
-			   incrementAllSizes(node);
-			   return rebalanceSteps+1;  //check if it needs to be +2!
-		   }
-		   else if(rank_diff(parent)==-2 && rightDiff(node)==1){
-			   //case parent (0,2) node (x,1)
-			   rotateLeft(node);
-			   rotateRight(parent);
-			   incrementAllSizes(node.getParent());
-			   return rebalanceSteps+2;
-		   }
-		   else if(rank_diff(parent)==2 && rightDiff(node)==1) {
-			   //parent (2,0) node (x,1)
-			   rotateLeft(parent);
-			   incrementAllSizes(node);
-			   return rebalanceSteps+1;
-		   }
-		   else if((rank_diff(parent)==2) && leftDiff(node)==1){
-			   //parent (1,3) (2,1)
-			   rotateRight(node);
-			   rotateLeft(parent);
-			   incrementAllSizes(node.getParent());
-			   return rebalanceSteps+2;
-			   }
-		   else {
-			   parent.updateSize(+1);
-		   }
-		   node = parent;
-		   }
-	   return rebalanceSteps;
-   }
- 
    /**
-    * @param node
-    * @return height differene between the node and its rightChild - O(1)
+    * @param k - the key to look for
+    * @return node with key k if found, else its tree position (as treePosition)
+    * 
+    * finger search: a key beyond max or min is placed at once (appends take O(1)
+    * here), otherwise the search climbs from the finger only until the subtree
+    * spans k and descends from there, instead of from the root.
+    * complexity - O(log(d)) for keys d positions away from the finger, O(log(n)) at worst
     */
-   private int rightDiff(IAVLNode node) {
-	   int rightDiff = node.getHeight() - node.getRight().getHeight();
-	   return rightDiff;
+   IAVLNode fingerPosition(int k) {
+	   if(k >= this.max.getKey()) {
+		   return this.max;
 	   }
-   
-   /**
-    * @param node
-    * @return height differene between the node and its leftChild - O(1)
-    */
-   private int leftDiff(IAVLNode node) {
-	   int leftDiff = node.getHeight() - node.getLeft().getHeight(); 
-	   return leftDiff;
+	   if(k <= this.min.getKey()) {
+		   return this.min;
 	   }
-
-   private int rank_diff(IAVLNode node) {
-	   return leftDiff(node) - rightDiff(node);
+	   IAVLNode current = (this.finger != null) ? this.finger : this.root;
+	   //climb while the parent lies between the finger and k (or is k)
+	   if(current.getKey() < k) {
+		   while(current.getParent() != null && current.getParent().getKey() <= k) {
+			   current = current.getParent();
+		   }
+	   }else {
+		   while(current.getParent() != null && current.getParent().getKey() >= k) {
+			   current = current.getParent();
+		   }
 	   }
-   
-   private int rank_sum(IAVLNode node) {
-	   return leftDiff(node) + rightDiff(node);
+	   IAVLNode prev = current;
+	   while(current.isRealNode()){
+		   if(current.getKey() == k) {
+			   return current;
+		   }else if(current.getKey() < k) {
+			   prev = current;
+			   current = current.getRight();
+		   }else {
+			   prev = current;
+			   current = current.getLeft();
+		   }
 	   }
+	   return prev;
+   }
    
    // right rotation of oldroot node with his left child called newRoot - O(1)
    private void rotateRight(IAVLNode oldRoot) {
+		if(this.metrics != null) {
+			this.metrics.rotation();
+		}
 		IAVLNode newRoot = oldRoot.getLeft();
 		if(oldRoot != this.getRoot()) {
 			if(oldRoot.isRightChild()) {
@@ -235,20 +460,22 @@ public class AVLTree {
 			newRoot.setParent(oldRoot.getParent());
 		}else {
 			this.root = newRoot;
+			newRoot.setParent(null);
 		}
 		oldRoot.setLeft(newRoot.getRight());
 		newRoot.getRight().setParent(oldRoot);
 		oldRoot.setParent(newRoot);
 		newRoot.setRight(oldRoot);
 		
-		oldRoot.setHeight(1 + Math.max(oldRoot.getRight().getHeight(), oldRoot.getLeft().getHeight()));
-        newRoot.setHeight(1 + Math.max(newRoot.getRight().getHeight(), newRoot.getLeft().getHeight()));
-        oldRoot.setSize(oldRoot.getLeft().getSize() + oldRoot.getRight().getSize() + 1);
-        newRoot.setSize(newRoot.getLeft().getSize() + newRoot.getRight().getSize() + 1);   
+		recompute(oldRoot);
+		recompute(newRoot);   
 	}
    
     // left rotation of oldRoot node with his right child called newRoot - O(1)
 	private void rotateLeft(IAVLNode oldRoot){
+		if(this.metrics != null) {
+			this.metrics.rotation();
+		}
 		IAVLNode newRoot = oldRoot.getRight();
 		if(oldRoot != this.getRoot()) {
 			if(oldRoot.isRightChild()) {
@@ -265,20 +492,10 @@ public class AVLTree {
 		newRoot.getLeft().setParent(oldRoot);
 		oldRoot.setParent(newRoot);
 		newRoot.setLeft(oldRoot);
-		oldRoot.setHeight(1 + Math.max(oldRoot.getRight().getHeight(), oldRoot.getLeft().getHeight()));
-        newRoot.setHeight(1 + Math.max(newRoot.getRight().getHeight(), newRoot.getLeft().getHeight()));
-        oldRoot.setSize(oldRoot.getLeft().getSize() + oldRoot.getRight().getSize() + 1);
-        newRoot.setSize(newRoot.getLeft().getSize() + newRoot.getRight().getSize() + 1);
+		recompute(oldRoot);
+		recompute(newRoot);
 	}
 	
-	//increments ancestor's sizes after insertion - O(log(n))
-	void incrementAllSizes(IAVLNode node) {
-		while(node != this.root) {
-			node = node.getParent();
-			node.updateSize(+1);
-		}
-	}
-  
 	  /**
 	   * public int delete(int k)
 	   *
@@ -290,184 +507,215 @@ public class AVLTree {
 	   */
 	//O(log(n))
 	public int delete(int k) {
-		//checks if the tree is empty or the node doesnt exist in tree
-		if ((this.root == null) || (this.search(k)== null) ) {
+		if (this.recorder != null) {
+			this.recorder.record(TraceRecorder.DELETE, k, null);
+		}
+		if (this.metrics == null) {
+			return deleteItem(k);
+		}
+		long start = System.nanoTime();
+		int steps = deleteItem(k);
+		this.metrics.record(TreeMetrics.DELETE, start, this, null, 0);
+		return steps;
+	}
+	
+	//delete without metrics
+	private int deleteItem(int k) {
+		if (this.empty()) {
 			return -1;
 		}
-	    if (this.size() == 1) {
-	    	//node is the only node in tree
-	    	this.min = null;
-	        this.max = null;   
-	        this.root=null;
-	        this.size=0;
-	        return 0;
-	    } 
-	    else {
-		    //node exist
-	    	if (k == this.min.getKey()) {
-	    		this.min = (AVLNode) successor(min);
-	        }
-	        if (k == this.max.getKey()) {
-	        	this.max = (AVLNode) predecessor(max);
-	        }
-	    }
-	    IAVLNode position = treePosition(k);
-	    if (position==this.root && this.size<=3) {
-	    	//tree size is 3 or less and we need to delete the root
-	    	if (position.hasTwoChildren()) {
-	    		this.root= position.getRight();
-	    		root.setLeft(position.getLeft());
-	    		this.root.updateSize(-1);
-	    		this.root.incrementHeight(1);	
-	    	}
-	    	else if (!position.getLeft().isRealNode()) {
-	    		this.root= position.getRight();
-	    		this.root.updateSize(-1);
-	    	}
-	    	else {
-	    		this.root= position.getLeft();
-	    		this.root.updateSize(-1);
-	    	}
-	    	this.size--;
-	    	return 0;
-	    }
-	    this.size --;
-	    IAVLNode parent = position.getParent();
-	    if (position.isLeaf()) {
-	    	//node is a leaf
-	    	deleteLeaf(position);
-	    	decrementSize(parent);
-	        return (rebalanceDelete(parent));
-	    }if (position.isUnaryNode()) {
-	    	//node is an unary node
-	    	deleteUnaryNode(position);
-	    	decrementSize(parent);
-	        return (rebalanceDelete(parent));
-	    }
-	    //deletes if node has two sons
-	    IAVLNode nodeToDelete = swap(position);
-	    parent = nodeToDelete.getParent();
-	    deleteRegularNode(nodeToDelete);
-	    decrementSize(parent);
+		//one descent finds the node, one pass up fixes heights, sizes and balance
+		IAVLNode node = fingerPosition(k);
+		this.finger = null;
+		if (node.getKey() != k) {
+			return -1;
+		}
+		this.size--;
+		if (node == this.min) {
+			//the min has no left child, its successor is in its right subtree (a leaf, unless relaxed) or its parent
+			this.min = node.getRight().isRealNode() ? leftmost(node.getRight()) : node.getParent();
+		}
+		if (node == this.max) {
+			this.max = node.getLeft().isRealNode() ? rightmost(node.getLeft()) : node.getParent();
+		}
+		IAVLNode parent = node.getParent();
+		if (!node.getLeft().isRealNode() || !node.getRight().isRealNode()) {
+			//at most one child, which takes the place of node
+			IAVLNode child = node.getLeft().isRealNode() ? node.getLeft() : node.getRight();
+			replaceChild(parent, node, child);
+			if (this.pending != null) {
+				this.pending.remove(node);
+			}
+			return retrace(parent, 3, -1);
+		}
+		//two children - the successor is unlinked and takes the place of node
+		IAVLNode successor = leftmost(node.getRight());
+		IAVLNode lowest = successor.getParent();
+		if (lowest == node) {
+			lowest = successor;
+		} else {
+			replaceChild(lowest, successor, successor.getRight());
+			successor.setRight(node.getRight());
+			node.getRight().setParent(successor);
+		}
+		successor.setLeft(node.getLeft());
+		node.getLeft().setParent(successor);
+		successor.setHeight(node.getHeight());
+		successor.setSize(node.getSize());
+		replaceChild(parent, node, successor);
+		if (this.pending != null) {
+			//the successor inherits the balance of node, retrace may stop below it
+			this.pending.remove(successor);
+			if (this.pending.remove(node)) {
+				this.pending.add(successor);
+			}
+		}
+		return retrace(lowest, 3, -1);
+	}
+	
+	//puts child in the place of oldChild under parent (or as the root if parent is null) - O(1)
+	private void replaceChild(IAVLNode parent, IAVLNode oldChild, IAVLNode child) {
+		if (parent == null) {
+			this.root = child.isRealNode() ? child : null;
+		} else if (parent.getLeft() == oldChild) {
+			parent.setLeft(child);
+		} else {
+			parent.setRight(child);
+		}
+		child.setParent(parent);
+	}
+	
+	/**
+	 * @param node - the lowest node whose subtree has changed
+	 * @param rotationSteps - rebalancing operations counted per rotation
+	 * @param sizeChange - the number of nodes added to (or removed from) the subtree of node
+	 * @return number of rebalancing operations: height changes, and rotationSteps per rotation
+	 * 
+	 * the single bottom-up pass of insert, delete and join: fixes heights and sizes
+	 * from node up, rotating where the heights of two siblings differ by 2 (by 3 in
+	 * relaxed balance, which keeps track of the nodes it leaves at 2). Once a
+	 * subtree keeps its height the ancestors only add sizeChange to their sizes.
+	 * complexity - O(log(n))
+	 */
+	private int retrace(IAVLNode node, int rotationSteps, int sizeChange) {
+		int slack = (this.pending == null) ? 1 : 2;
+		int steps = 0;
+		while (node != null) {
+			IAVLNode parent = node.getParent();
+			int height = node.getHeight();
+			int balance = node.getLeft().getHeight() - node.getRight().getHeight();
+			if (balance > slack || balance < -slack) {
+				steps += rotationSteps * rotateOut(node, balance);
+				node = node.getParent();
+			} else {
+				recompute(node);
+				if (node.getHeight() != height) {
+					steps++;
+					if (this.metrics != null) {
+						this.metrics.heightChange();
+					}
+				}
+				if (this.pending != null) {
+					markBalance(node);
+				}
+			}
+			if (node.getHeight() == height) {
+				for (; parent != null && sizeChange != 0; parent = parent.getParent()) {
+					parent.updateSize(sizeChange);
+				}
+				return steps;
+			}
+			node = parent;
+		}
+		return steps;
+	}
+	
+	//sets height and size of node from its children - O(1)
+	private static void recompute(IAVLNode node) {
+		node.setHeight(1 + Math.max(node.getLeft().getHeight(), node.getRight().getHeight()));
+		node.setSize(node.getLeft().getSize() + node.getRight().getSize() + 1);
+	}
 	
-		return (rebalanceDelete(parent));
+	/**
+	 * @param node - a node whose children's heights differ by more than 1
+	 * @param balance - the height of node's left subtree minus that of its right one
+	 * @return the number of rotations, 1 or 2
+	 * 
+	 * rotates node down to the side of its lower child (double rotation if the
+	 * inner grandchild is the higher one), node's parent is the new top. As long as
+	 * node's children are balanced within 2 so are the rotated nodes, and node's
+	 * balance of 2 (not 3) leaves all three within 1, as in an AVL tree.
+	 * complexity - O(1)
+	 */
+	private int rotateOut(IAVLNode node, int balance) {
+		int rotations = 1;
+		if (balance > 0) {
+			IAVLNode left = node.getLeft();
+			if (left.getLeft().getHeight() < left.getRight().getHeight()) {
+				rotateLeft(left);
+				rotations++;
+			}
+			rotateRight(node);
+		} else {
+			IAVLNode right = node.getRight();
+			if (right.getRight().getHeight() < right.getLeft().getHeight()) {
+				rotateRight(right);
+				rotations++;
+			}
+			rotateLeft(node);
+		}
+		if (this.pending != null) {
+			IAVLNode top = node.getParent();
+			markBalance(top.getLeft());
+			markBalance(top.getRight());
+			markBalance(top);
+		}
+		return rotations;
 	}
 	
-	//swaps between node and his successor and update min and max nodes - O(log(n))	
-	private IAVLNode swap(IAVLNode node) {
-		IAVLNode successor = successor(node);
-	    int nodekey = node.getKey();
-	    String nodevalue = node.getValue();
-	    int nodeSize = node.getSize();
-	    node.setKey(successor.getKey());
-	    node.setValue(successor.getValue());
-	    node.setSize(nodeSize);
-	    successor.setKey(nodekey);
-	    successor.setValue(nodevalue);
-	    successor.setSize(nodeSize);
-	    if (node == min) {
-	    	min = successor;
-	    }
-	    if (successor == max) {
-	    	max = node;
-	    }
-	    return successor;
+	//keeps node in pending exactly while its children's heights differ by 2 - O(1)
+	private void markBalance(IAVLNode node) {
+		int balance = node.getLeft().getHeight() - node.getRight().getHeight();
+		if (balance > 1 || balance < -1) {
+			this.pending.add(node);
+		} else if (!this.pending.isEmpty()) {
+			this.pending.remove(node);
+		}
 	}
-	 
-	//deleting node with two children - O(1)
-	private void deleteRegularNode(IAVLNode node) {
-		if (node.isLeaf()) {
-			deleteLeaf(node);
-		} 
-		else {
-			deleteUnaryNode(node);
+	
+	/**
+	 * rebalances the oldest node relaxed balance left at a balance of 2 by the
+	 * rotation an AVL tree would have made, then retraces from its parent, whose
+	 * subtree may have lost a level.
+	 * complexity - O(log(n)), O(1) unless the height changes
+	 */
+	private void settleNext() {
+		Iterator<IAVLNode> oldest = this.pending.iterator();
+		IAVLNode node = oldest.next();
+		oldest.remove();
+		int height = node.getHeight();
+		rotateOut(node, node.getLeft().getHeight() - node.getRight().getHeight());
+		IAVLNode top = node.getParent();
+		if (top.getHeight() != height && top.getParent() != null) {
+			retrace(top.getParent(), 1, 0);
 		}
 	}
 	
-	//delete a leaf - O(1)
-	private void deleteLeaf(IAVLNode node) {
-		if (node == this.root) {
-			this.root = null;
-		} 
-		else {
-			IAVLNode parent = (AVLNode) node.getParent();
-			if (parent.getRight() == node) {
-				node.getParent().setRight(new AVLNode());
-				node.getRight().setParent(parent);
-			} 
-			else {
-				node.getParent().setLeft(new AVLNode());
-				
+	//rebalances every node left by relaxed balance, the tree is a valid AVL tree afterwards - O(k*log(n)) for k nodes
+	private void settleAll() {
+		if (this.pending != null) {
+			while (!this.pending.isEmpty()) {
+				settleNext();
 			}
 		}
 	}
-	 
-	//delete a unary node - O(1) 
-	private void deleteUnaryNode(IAVLNode node) {
-		if (node == this.root) {
-    		if (node.getRight().isRealNode()) {
-    			this.root = node.getRight();
-    			this.root.setParent(null);
-    		} 
-    		else {
-    			this.root = node.getLeft();
-    			this.root.setParent(null);
-    		}
-    	} 
-    	else {
-    		IAVLNode parent =(AVLNode) node.getParent();
-    		{
-    			if (parent.getRight() == node) {
-    				if (node.getRight().isRealNode()) {
-    					parent.setRight(node.getRight());
-                        node.getRight().setParent(parent);
-    				} 
-    				else {
-    					parent.setRight(node.getLeft());
-    					node.getLeft().setParent(parent);
-    				}
-    			} 
-    			else {
-    				if (node.getLeft().isRealNode()) {
-    					parent.setLeft(node.getLeft());
-    					node.getLeft().setParent(parent);
-    				} 
-    				else {
-    					parent.setLeft(node.getRight());
-    					node.getRight().setParent(parent);
-    				}
-    			}
-    		}
-    	}
-    }
-	 
-	//increaseSize of the node's ancestors - O(log(n))
-    private int increaseSize(IAVLNode node, int increase) {
-        if (node == this.root && this.size==1) {
-        	return 0;
-        }
-        if (node == this.root) {
-        	node.setSize(node.getSize() + increase);
-        	return (node.getSize());
-        }
-        node.setSize(node.getSize() + increase);
-        return 1 + increaseSize(node.getParent(), increase);
-    }
-    //return decreseSize on node and 1, which calls to increaseSize that runs in O(log(n))
-    private int decrementSize(IAVLNode node) {
-        return decreaseSize(node, 1);
-    }
-    //increaseSize that runs in O(log(n))
-    private int decreaseSize(IAVLNode node, int decrease) {
-        return increaseSize(node, -decrease);
-    }
     
     /**
      * @param node
-     * @return node's successor
-     * complexity - O(log(n))
+     * @return node's successor, or null if node is the max
+     * complexity - O(log(n)), amortized O(1) along an in-order walk
      */
-    private IAVLNode successor(IAVLNode node) {
+    private static IAVLNode successor(IAVLNode node) {
         IAVLNode current = node;
         if (node.getRight().isRealNode()) {
             current = node.getRight();
@@ -477,90 +725,31 @@ public class AVLTree {
             return current;
         } 
         else {
-            while (current.getParent().getRight() == current) {
-                current = current.getParent();
-            }
-            if (current.getParent() == null) {
-            	return current;
-            }
-            else {
-            	return current.getParent();
+            IAVLNode parent = current.getParent();
+            while (parent != null && parent.getRight() == current) {
+                current = parent;
+                parent = current.getParent();
             }
+            return parent;
         }
     }
     
-	/**
-	 * @param node
-	 * @return node's predecessor
-	 * complexity - O(log(n))
-	 */
-	private IAVLNode predecessor(IAVLNode node) {
-        IAVLNode current = node;
-        if (node.getLeft().isRealNode()) {
-        	current = node.getLeft();
-            while (current.getRight().isRealNode()) {
-            	current = current.getRight();
-            }return current;
-        }else{
-            while (current.getParent().getLeft() == current) {
-            	current = current.getParent();
-            }if (current.getParent() == null) {
-            	return current;
-            }else{
-            	return current.getParent();
-            }
+    //returns the node with the smallest key in node's subtree - O(log(n))
+    private static IAVLNode leftmost(IAVLNode node) {
+        while (node.getLeft().isRealNode()) {
+            node = node.getLeft();
         }
+        return node;
     }
-	
-	//rebalancing of a tree after deletion - O(log(n))
-	private int rebalanceDelete(IAVLNode node) {
-		int cnt =0;
-		while (node != null && !rankDiffLegal(node)) {
-			IAVLNode parent = node.getParent();
-			if (rightDiff(node) == 2 && leftDiff(node) == 2) {
-				node.setHeight(node.getHeight() - 1);
-				cnt+=1;
-			}
-			if (leftDiff(node) == 3 && rightDiff(node) == 1 && leftDiff(node.getRight())==1 && rightDiff(node.getRight())==1 ) {
-				rotateLeft(node);
-	            cnt += 3;	   
-		    }
-			if (leftDiff(node) == 1 && rightDiff(node) == 3 && leftDiff(node.getLeft())==1 && rightDiff(node.getLeft())==1) {
-				rotateRight(node);
-				cnt +=3;
-			}
-			if (leftDiff(node) == 3 && rightDiff(node) == 1 && leftDiff(node.getRight())==2 && rightDiff(node.getRight())==1 ) {
-				rotateLeft(node);
-				cnt +=3;
-			}
-			if (leftDiff(node) == 1 && rightDiff(node) == 3 && leftDiff(node.getLeft())==1 && rightDiff(node.getLeft())==2) {
-				rotateRight(node);
-				cnt +=3;
-			}
-			if (leftDiff(node) == 3 && rightDiff(node) == 1 && leftDiff(node.getRight())==1 && rightDiff(node.getRight())==2 ) {
-				rotateRight(node.getRight());
-                rotateLeft(node);
-                cnt += 6;
-			}
-			if (leftDiff(node) == 1 && rightDiff(node) == 3 && leftDiff(node.getLeft())== 2 && rightDiff(node.getLeft())==1) {
-				rotateLeft(node.getLeft());
-                rotateRight(node);
-                cnt += 6;
-			}
-			
-			node= parent;	
-		}
-		return cnt;
-	}
-	
-	/**
-	 * @param node
-	 * @return True if rankDiff is legal, otherwise False
-	 */
-    private boolean rankDiffLegal(IAVLNode node) {
-        return (leftDiff(node) == 1 && rightDiff(node) == 1) || (leftDiff(node) == 2 && rightDiff(node) == 1) || (leftDiff(node) == 1 && rightDiff(node) == 2);
-    }	
-			
+    
+    //returns the node with the biggest key in node's subtree - O(log(n))
+    private static IAVLNode rightmost(IAVLNode node) {
+        while (node.getRight().isRealNode()) {
+            node = node.getRight();
+        }
+        return node;
+    }
+    
     /**
      * public String min()
      *
@@ -587,82 +776,578 @@ public class AVLTree {
     	return max.getValue();
     }
 
-	  /**
-	   * public int[] keysToArray()
-	   *
-	   * Returns a sorted array which contains all keys in the tree,
-	   * or an empty array if the tree is empty.
-	   * complexity O(n)
-	   */
-	  public int[] keysToArray(){
-	        int[] keys = new int[this.size];
-	        IAVLNode[] nodes = inOrder(this.root);
-	        for(int i=0; i<this.size; i++) {
-	        	keys[i] = nodes[i].getKey();
-	        }
-	        return keys;
-	  }
-	  
-	  /**
-	   * public String[] infoToArray()
-	   *
-	   * Returns an array which contains all info in the tree,
-	   * sorted by their respective keys,
-	   * or an empty array if the tree is empty.
-	   * complexity O(n)
-	   */
-	  public String[] infoToArray(){
-		  String[] info = new String[this.size];
-		  IAVLNode[] nodes = inOrder(this.root);
-		  for(int i=0; i<this.size; i++) {
-			  info[i] = nodes[i].getValue();
-			  }
-		  return info;                   
-	  }
-	  
-	  /**
-	   * 
-	   * @param root
-	   * @return array of tree nodes in order
-	   * complexity O(n)
-	   */	  
-	  private IAVLNode[] inOrder(IAVLNode root) {
-		if(this.empty()) {
-			return new IAVLNode[0];
-		}else {
-			IAVLNode[] arr = new IAVLNode[this.size];
-			arr = inOrderRec(arr, root, 0);
-			return arr;
-		}
-		  
-	  }
-	  
-	  //O(n)
-	  private IAVLNode[] inOrderRec(IAVLNode[] arr, IAVLNode node, int i) {
-		  if(node.getLeft().isRealNode()) {
-			  inOrderRec(arr, node.getLeft(), i);
-		  }int leftSubtree = node.getLeft().getSize();
-		  arr[i + leftSubtree] = node;
-		  if(node.getRight().isRealNode()) {
-			  inOrderRec(arr, node.getRight(), i+leftSubtree+1);
-		  }return arr;
-	  } 
+    /**
+     * public IAVLNode select(int i)
+     *
+     * Returns the node with the i-th smallest key in the tree (i counts from 0,
+     * like keysToArray()[i]), or null if i < 0 or i >= size().
+     * complexity O(log(n)) - one descent guided by the subtree sizes
+     */
+    public IAVLNode select(int i) {
+    	if (i < 0 || i >= this.size) {
+    		return null;
+    	}
+    	IAVLNode node = this.root;
+    	while (true) {
+    		int leftSize = node.getLeft().getSize();
+    		if (i < leftSize) {
+    			node = node.getLeft();
+    		} else if (i == leftSize) {
+    			return node;
+    		} else {
+    			i -= leftSize + 1;
+    			node = node.getRight();
+    		}
+    	}
+    }
 
-	   /**
-	    * public int size()
-	    *
-	    * Returns the number of nodes in the tree.
-	    *
-	    * precondition: none
-	    * postcondition: none
-	    */
-	   public int size(){
-		   return(this.size);
-	   }
-	   
-	     /**
-	    * public int getRoot()
-	    *
+    /**
+     * public int rank(int k)
+     *
+     * Returns the number of keys in the tree that are smaller than k,
+     * so select(rank(k)) is the node with key k if k is in the tree.
+     * complexity O(log(n)) - one descent guided by the subtree sizes
+     */
+    public int rank(int k) {
+    	return countBelow(k, false);
+    }
+    
+    //number of keys < k, or <= k if inclusive - O(log(n))
+    private int countBelow(int k, boolean inclusive) {
+    	int count = 0;
+    	IAVLNode node = this.root;
+    	while (node != null && node.isRealNode()) {
+    		if (node.getKey() < k || (inclusive && node.getKey() == k)) {
+    			count += node.getLeft().getSize() + 1;
+    			node = node.getRight();
+    		} else {
+    			node = node.getLeft();
+    		}
+    	}
+    	return count;
+    }
+    
+    /**
+     * public int rangeCount(int lo, int hi)
+     *
+     * Returns the number of keys k in the tree with lo <= k <= hi.
+     * complexity O(log(n)) - two descents guided by the subtree sizes
+     */
+    public int rangeCount(int lo, int hi) {
+    	if (lo > hi) {
+    		return 0;
+    	}
+    	return countBelow(hi, true) - countBelow(lo, false);
+    }
+    
+    /**
+     * public void rangeForEach(int lo, int hi, KeyInfoConsumer consumer)
+     *
+     * Passes every item with lo <= key <= hi to consumer, in key order.
+     * Nothing is allocated - the walk follows parent pointers.
+     * The tree must not be modified by consumer.
+     * complexity O(log(n) + k) for k items in the range
+     */
+    public void rangeForEach(int lo, int hi, KeyInfoConsumer consumer) {
+    	for (IAVLNode node = ceilingNode(lo); node != null && node.getKey() <= hi; node = successor(node)) {
+    		consumer.accept(node.getKey(), node.getValue());
+    	}
+    }
+    
+    /**
+     * public Aggregator getAggregator()
+     *
+     * Returns the aggregator of an augmented tree, or null.
+     */
+    public Aggregator getAggregator() {
+    	return this.aggregator;
+    }
+    
+    /**
+     * public long aggregate()
+     *
+     * Returns the aggregate of all items of an augmented tree
+     * (aggregator.identity() if it is empty).
+     * complexity O(1)
+     */
+    public long aggregate() {
+    	return aggregateOf(requireAggregator(), this.root);
+    }
+    
+    /**
+     * public long aggregate(int lo, int hi)
+     *
+     * Returns the aggregate of the items with lo <= key <= hi of an augmented tree,
+     * combined in key order (aggregator.identity() if there are none).
+     * complexity O(log(n)) - one descent to the highest node in the range, then one
+     * down each side of it, taking whole subtrees that lie inside the range
+     */
+    public long aggregate(int lo, int hi) {
+    	Aggregator aggregator = requireAggregator();
+    	IAVLNode split = this.root;
+    	while (split != null && split.isRealNode() && (split.getKey() < lo || split.getKey() > hi)) {
+    		split = (split.getKey() < lo) ? split.getRight() : split.getLeft();
+    	}
+    	if (split == null || !split.isRealNode()) {
+    		return aggregator.identity();
+    	}
+    	//left of split: the nodes >= lo with their right subtrees, met from the right
+    	long left = aggregator.identity();
+    	for (IAVLNode node = split.getLeft(); node.isRealNode(); ) {
+    		if (node.getKey() >= lo) {
+    			long part = aggregator.combine(((AugmentedNode) node).value, aggregateOf(aggregator, node.getRight()));
+    			left = aggregator.combine(part, left);
+    			node = node.getLeft();
+    		} else {
+    			node = node.getRight();
+    		}
+    	}
+    	//right of split: the nodes <= hi with their left subtrees, met from the left
+    	long right = aggregator.identity();
+    	for (IAVLNode node = split.getRight(); node.isRealNode(); ) {
+    		if (node.getKey() <= hi) {
+    			long part = aggregator.combine(aggregateOf(aggregator, node.getLeft()), ((AugmentedNode) node).value);
+    			right = aggregator.combine(right, part);
+    			node = node.getRight();
+    		} else {
+    			node = node.getLeft();
+    		}
+    	}
+    	return aggregator.combine(aggregator.combine(left, ((AugmentedNode) split).value), right);
+    }
+    
+    //the aggregator, or IllegalStateException if the tree is not augmented
+    private Aggregator requireAggregator() {
+    	if (this.aggregator == null) {
+    		throw new IllegalStateException("the tree has no aggregator");
+    	}
+    	return this.aggregator;
+    }
+    
+    //the aggregate of node's subtree, identity for an external leaf (or no node) - O(1)
+    static long aggregateOf(Aggregator aggregator, IAVLNode node) {
+    	return (node instanceof AugmentedNode) ? ((AugmentedNode) node).aggregate : aggregator.identity();
+    }
+    
+    //the aggregator of an augmented node, null for a plain one - O(1)
+    static Aggregator aggregatorOf(IAVLNode node) {
+    	return (node instanceof AugmentedNode) ? ((AugmentedNode) node).aggregator : null;
+    }
+    
+    /**
+     * public Iterator<IAVLNode> rangeIterator(int lo, int hi)
+     *
+     * Returns a lazy iterator over the nodes with lo <= key <= hi, in key order.
+     * The tree must not be modified while the iterator is in use.
+     * complexity O(log(n)) to create, amortized O(1) per node
+     */
+    public Iterator<IAVLNode> rangeIterator(int lo, int hi) {
+    	return new RangeIterator(ceilingNode(lo), hi);
+    }
+    
+    //the node with the smallest key >= k, or null if there is none - O(log(n))
+    IAVLNode ceilingNode(int k) {
+    	IAVLNode ceiling = null;
+    	IAVLNode node = this.root;
+    	while (node != null && node.isRealNode()) {
+    		if (node.getKey() == k) {
+    			return node;
+    		} else if (node.getKey() > k) {
+    			ceiling = node;
+    			node = node.getLeft();
+    		} else {
+    			node = node.getRight();
+    		}
+    	}
+    	return ceiling;
+    }
+
+	  /**
+	   * public int[] keysToArray()
+	   *
+	   * Returns a sorted array which contains all keys in the tree,
+	   * or an empty array if the tree is empty.
+	   * complexity O(n)
+	   */
+	  public int[] keysToArray(){
+	        int[] keys = new int[this.size];
+	        int i = 0;
+	        for(IAVLNode node = this.min; node != null; node = successor(node)) {
+	        	keys[i++] = node.getKey();
+	        }
+	        return keys;
+	  }
+	  
+	  /**
+	   * public String[] infoToArray()
+	   *
+	   * Returns an array which contains all info in the tree,
+	   * sorted by their respective keys,
+	   * or an empty array if the tree is empty.
+	   * complexity O(n)
+	   */
+	  public String[] infoToArray(){
+		  String[] info = new String[this.size];
+		  int i = 0;
+		  for(IAVLNode node = this.min; node != null; node = successor(node)) {
+			  info[i++] = node.getValue();
+		  }
+		  return info;                   
+	  }
+	  
+	  /**
+	   * public int export(int lo, int hi, int[] keys, String[] info, int offset)
+	   *
+	   * Copies the items with lo <= key <= hi, in key order, into keys[offset...]
+	   * and info[offset...] (either may be null to skip it), until the range or the
+	   * room in the given arrays runs out. Returns the number of items copied;
+	   * a full buffer is resumed from the last copied key + 1. For a rank range
+	   * [r, r + m) pass select(r).getKey() as lo and room for m items.
+	   * Allocates nothing - the walk follows parent pointers.
+	   * complexity O(log(n) + m) for m copied items
+	   */
+	  public int export(int lo, int hi, int[] keys, String[] info, int offset) {
+		  int end = Integer.MAX_VALUE;
+		  if(keys != null) {
+			  end = keys.length;
+		  }
+		  if(info != null) {
+			  end = Math.min(end, info.length);
+		  }
+		  int i = offset;
+		  for(IAVLNode node = ceilingNode(lo); node != null && node.getKey() <= hi && i < end; node = successor(node)) {
+			  if(keys != null) {
+				  keys[i] = node.getKey();
+			  }
+			  if(info != null) {
+				  info[i] = node.getValue();
+			  }
+			  i++;
+		  }
+		  return i - offset;
+	  }
+	  
+	  /**
+	   * public int export(int lo, int hi, IntBuffer keys)
+	   *
+	   * Puts the keys k with lo <= k <= hi, in order, into keys until the range or
+	   * the buffer's remaining room runs out. Returns the number of keys put.
+	   * Allocates nothing.
+	   * complexity O(log(n) + m) for m keys put
+	   */
+	  public int export(int lo, int hi, IntBuffer keys) {
+		  int count = 0;
+		  for(IAVLNode node = ceilingNode(lo); node != null && node.getKey() <= hi && keys.hasRemaining(); node = successor(node)) {
+			  keys.put(node.getKey());
+			  count++;
+		  }
+		  return count;
+	  }
+	  
+	  /**
+	   * public int export(int lo, int hi, ByteBuffer items)
+	   *
+	   * Puts the items with lo <= key <= hi, in key order, into items as
+	   *   key (int), UTF-8 info length (int, -1 for null info), the UTF-8 bytes
+	   * (an unpaired surrogate encoded like any other char, see putUtf8)
+	   * in the buffer's byte order, until the range runs out or the next item
+	   * doesn't fit whole. Returns the number of items put.
+	   * Allocates nothing - info is encoded straight into the buffer.
+	   * complexity O(log(n) + m + info length) for m items put
+	   */
+	  public int export(int lo, int hi, ByteBuffer items) {
+		  int count = 0;
+		  for(IAVLNode node = ceilingNode(lo); node != null && node.getKey() <= hi; node = successor(node)) {
+			  String info = node.getValue();
+			  int length = (info == null) ? -1 : utf8Length(info);
+			  if(items.remaining() < 8 + Math.max(length, 0)) {
+				  break;
+			  }
+			  items.putInt(node.getKey()).putInt(length);
+			  if(info != null) {
+				  putUtf8(items, info);
+			  }
+			  count++;
+		  }
+		  return count;
+	  }
+	  
+	  //the length of s in UTF-8, an unpaired surrogate taking 3 bytes like any other char - O(length)
+	  static int utf8Length(String s) {
+		  int length = 0;
+		  for(int i = 0; i < s.length(); i++) {
+			  char c = s.charAt(i);
+			  if(c < 0x80) {
+				  length++;
+			  }else if(c < 0x800) {
+				  length += 2;
+			  }else if(Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+				  length += 4;
+				  i++;
+			  }else {
+				  length += 3;
+			  }
+		  }
+		  return length;
+	  }
+	  
+	  /*
+	   * puts s into buffer as UTF-8 - O(length)
+	   * A surrogate pair becomes one 4-byte code point as usual, but an unpaired
+	   * surrogate is encoded as a 3-byte sequence instead of '?' (String.getBytes
+	   * would lose it), so getUtf8 gives back exactly s. For any valid string
+	   * the bytes are those of String.getBytes(UTF_8).
+	   */
+	  static void putUtf8(ByteBuffer buffer, String s) {
+		  for(int i = 0; i < s.length(); i++) {
+			  char c = s.charAt(i);
+			  if(c < 0x80) {
+				  buffer.put((byte) c);
+			  }else if(c < 0x800) {
+				  buffer.put((byte) (0xC0 | (c >> 6)));
+				  buffer.put((byte) (0x80 | (c & 0x3F)));
+			  }else if(Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+				  int cp = Character.toCodePoint(c, s.charAt(++i));
+				  buffer.put((byte) (0xF0 | (cp >> 18)));
+				  buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+				  buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+				  buffer.put((byte) (0x80 | (cp & 0x3F)));
+			  }else {
+				  buffer.put((byte) (0xE0 | (c >> 12)));
+				  buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				  buffer.put((byte) (0x80 | (c & 0x3F)));
+			  }
+		  }
+	  }
+	  
+	  //s encoded by putUtf8 - O(length)
+	  static byte[] utf8Bytes(String s) {
+		  byte[] bytes = new byte[utf8Length(s)];
+		  putUtf8(ByteBuffer.wrap(bytes), s);
+		  return bytes;
+	  }
+	  
+	  //decodes the length bytes at position of buffer written by putUtf8, a malformed byte as U+FFFD - O(length)
+	  static String getUtf8(ByteBuffer buffer, int position, int length) {
+		  char[] chars = new char[length];
+		  int count = 0;
+		  int end = position + length;
+		  for(int i = position; i < end; ) {
+			  int b = buffer.get(i) & 0xFF;
+			  if(b < 0x80) {
+				  chars[count++] = (char) b;
+				  i++;
+			  }else if((b >> 5) == 0x6 && i + 1 < end) {
+				  chars[count++] = (char) (((b & 0x1F) << 6) | (buffer.get(i + 1) & 0x3F));
+				  i += 2;
+			  }else if((b >> 4) == 0xE && i + 2 < end) {
+				  chars[count++] = (char) (((b & 0x0F) << 12) | ((buffer.get(i + 1) & 0x3F) << 6) | (buffer.get(i + 2) & 0x3F));
+				  i += 3;
+			  }else if((b >> 3) == 0x1E && i + 3 < end) {
+				  int cp = ((b & 0x07) << 18) | ((buffer.get(i + 1) & 0x3F) << 12) | ((buffer.get(i + 2) & 0x3F) << 6) | (buffer.get(i + 3) & 0x3F);
+				  if(Character.isSupplementaryCodePoint(cp)) {
+					  chars[count++] = Character.highSurrogate(cp);
+					  chars[count++] = Character.lowSurrogate(cp);
+				  }else {
+					  chars[count++] = '\uFFFD';
+				  }
+				  i += 4;
+			  }else {
+				  chars[count++] = '\uFFFD';
+				  i++;
+			  }
+		  }
+		  return new String(chars, 0, count);
+	  }
+	  
+	  /**
+	   * public void writeTo(OutputStream out)
+	   *
+	   * Writes the tree to out in the binary format below, straight from an
+	   * in-order walk (no intermediate arrays). out is flushed, not closed.
+	   *   header:  "AVLT", version byte, size (varint)
+	   *   items:   first key zigzag-varint, then each key as its varint delta
+	   *            from the previous one; each info as varint (UTF-8 length + 1)
+	   *            and its UTF-8 bytes (unpaired surrogates included, see
+	   *            putUtf8), 0 for null info
+	   *   trailer: CRC32 of all the bytes above, 4 bytes big-endian
+	   * The checksum is a trailer rather than in the header so the write can stream.
+	   * complexity O(n + total info length)
+	   */
+	  public void writeTo(OutputStream out) throws IOException {
+		  BinaryOutput output = new BinaryOutput(out);
+		  output.writeHeader(this.size);
+		  int previous = 0;
+		  for(IAVLNode node = this.min; node != null; node = successor(node)) {
+			  if(node == this.min) {
+				  output.writeVarint(((node.getKey() << 1) ^ (node.getKey() >> 31)) & 0xFFFFFFFFL);
+			  }else {
+				  output.writeVarint((long) node.getKey() - previous);
+			  }
+			  previous = node.getKey();
+			  output.writeInfo(node.getValue());
+		  }
+		  output.finish();
+	  }
+	  
+	  /**
+	   * public void writeTo(WritableByteChannel channel)
+	   *
+	   * writeTo(OutputStream) on a channel, which is not closed.
+	   */
+	  public void writeTo(WritableByteChannel channel) throws IOException {
+		  writeTo(Channels.newOutputStream(channel));
+	  }
+	  
+	  /**
+	   * public static AVLTree readFrom(InputStream in)
+	   *
+	   * Reads a tree written by writeTo. The items are read in key order and linked
+	   * into a perfectly balanced tree as they arrive, the same shape fromSorted
+	   * builds, without insert calls or intermediate arrays.
+	   * Throws IOException if the data is truncated, malformed or fails the checksum.
+	   * The input is read in blocks, so it may be consumed past the end of the tree.
+	   * complexity O(n + total info length)
+	   */
+	  public static AVLTree readFrom(InputStream in) throws IOException {
+		  BinaryInput input = new BinaryInput(in);
+		  int size = input.readHeader();
+		  AVLTree tree = new AVLTree();
+		  if(size > 0) {
+			  tree.root = tree.buildFrom(input, size);
+			  tree.size = size;
+			  tree.min = leftmost(tree.root);
+			  tree.max = rightmost(tree.root);
+		  }
+		  input.finish();
+		  return tree;
+	  }
+	  
+	  /**
+	   * public static AVLTree readFrom(ReadableByteChannel channel)
+	   *
+	   * readFrom(InputStream) on a channel, which is not closed.
+	   */
+	  public static AVLTree readFrom(ReadableByteChannel channel) throws IOException {
+		  return readFrom(Channels.newInputStream(channel));
+	  }
+	  
+	  //builds the subtree of the next count items of input, split like buildBalanced - O(count)
+	  private IAVLNode buildFrom(BinaryInput input, int count) throws IOException {
+		  if(count == 0) {
+			  return EXTERNAL_LEAF;
+		  }
+		  int leftCount = (count - 1) >>> 1;
+		  IAVLNode left = buildFrom(input, leftCount);
+		  IAVLNode node = newNode(input.readKey(), input.readInfo());
+		  IAVLNode right = buildFrom(input, count - 1 - leftCount);
+		  linkJoinNode(left, node, right, null);
+		  return node;
+	  }	  
+	  /**
+	   * public void freeze(Path path)
+	   *
+	   * Writes the tree to path as a read-only snapshot for MappedSnapshot.open:
+	   *   header:  "AVLM", version, size, 0 (four little-endian ints)
+	   *   records: size records of 16 bytes in key order - key, UTF-8 info length
+	   *            (-1 for null info) and the info's offset in the value region
+	   *   values:  the UTF-8 bytes of all info (see putUtf8), in key order
+	   * Records and values are written in one in-order walk. An existing file is replaced.
+	   * complexity O(n + total info length)
+	   */
+	  public void freeze(Path path) throws IOException {
+		  try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			  ByteBuffer records = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			  ByteBuffer values = ByteBuffer.allocate(1 << 16);
+			  records.putInt(MappedSnapshot.MAGIC).putInt(MappedSnapshot.VERSION).putInt(this.size).putInt(0);
+			  long recordPosition = 0;
+			  long valueStart = MappedSnapshot.HEADER_BYTES + (long) this.size * MappedSnapshot.RECORD_BYTES;
+			  long valuePosition = valueStart;
+			  long valueOffset = 0;
+			  for(IAVLNode node = this.min; node != null; node = successor(node)) {
+				  byte[] bytes = (node.getValue() == null) ? null : utf8Bytes(node.getValue());
+				  if(!records.hasRemaining()) {
+					  recordPosition = writeFully(channel, records, recordPosition);
+				  }
+				  records.putInt(node.getKey()).putInt((bytes == null) ? -1 : bytes.length).putLong(valueOffset);
+				  if(bytes != null) {
+					  for(int offset = 0; offset < bytes.length; ) {
+						  if(!values.hasRemaining()) {
+							  valuePosition = writeFully(channel, values, valuePosition);
+						  }
+						  int count = Math.min(bytes.length - offset, values.remaining());
+						  values.put(bytes, offset, count);
+						  offset += count;
+					  }
+					  valueOffset += bytes.length;
+				  }
+			  }
+			  writeFully(channel, records, recordPosition);
+			  writeFully(channel, values, valuePosition);
+		  }
+	  }
+	  
+	  //writes what buffer holds at position of channel and clears it, returns the position after it
+	  private static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		  buffer.flip();
+		  while(buffer.hasRemaining()) {
+			  position += channel.write(buffer, position);
+		  }
+		  buffer.clear();
+		  return position;
+	  }
+	  
+	  /**
+	   * public FrozenAVLTree freeze()
+	   *
+	   * Returns a read-only copy of the tree in a pointer-free array layout that
+	   * searches with fewer cache misses; see FrozenAVLTree. The tree is unchanged.
+	   * precondition: size() < 2^30
+	   * complexity O(n)
+	   */
+	  public FrozenAVLTree freeze() {
+		  return new FrozenAVLTree(this);
+	  }
+
+	  
+	  /**
+	   * public Iterator<IAVLNode> iterator()
+	   *
+	   * Returns a lazy iterator over the nodes of the tree in key order.
+	   * The tree must not be modified while the iterator is in use.
+	   * complexity O(1) to create, amortized O(1) per node
+	   */
+	  public Iterator<IAVLNode> iterator(){
+		  return new RangeIterator(this.min, Integer.MAX_VALUE);
+	  }
+	  
+	  /**
+	   * public Spliterator<IAVLNode> spliterator()
+	   *
+	   * Returns a SIZED and SUBSIZED spliterator over the nodes of the tree in key order,
+	   * so StreamSupport.stream(tree.spliterator(), true) can work on subtrees in parallel.
+	   * It splits at subtree boundaries using getSize(), so every part knows its exact size.
+	   * The tree must not be modified while the spliterator is in use.
+	   */
+	  public Spliterator<IAVLNode> spliterator(){
+		  return new SubtreeSpliterator(null, this.empty() ? EXTERNAL_LEAF : this.root);
+	  }
+
+	   /**
+	    * public int size()
+	    *
+	    * Returns the number of nodes in the tree.
+	    *
+	    * precondition: none
+	    * postcondition: none
+	    */
+	   public int size(){
+		   return(this.size);
+	   }
+	   
+	     /**
+	    * public int getRoot()
+	    *
 	    * Returns the root AVL node, or null if the tree is empty
 	    *
 	    * precondition: none
@@ -678,40 +1363,87 @@ public class AVLTree {
 	    *
 	    * splits the tree into 2 trees according to the key x. 
 	    * Returns an array [t1, t2] with two AVL trees. keys(t1) < x < keys(t2).
-		  * precondition: search(x) != null (i.e. you can also assume that the tree is not empty)
-	    * postcondition: none
+	    * If x is not in the tree the split happens between its neighbours.
+	    * postcondition: this tree is consumed by the split
 	    */   
 	   public AVLTree[] split(int x){
-		   IAVLNode node = treePosition(x);
+		   settleAll();
+		   long start = (this.metrics == null) ? 0 : System.nanoTime();
+		   //the cost of a split is the number of joins, one per node on the search path
+		   int joins = (this.metrics == null || this.empty()) ? 0 : TreeMetrics.depth(treePosition(x)) + 1;
 		   AVLTree t1 = new AVLTree(); //keys(t1) < x
 		   AVLTree t2 = new AVLTree(); //keys(t2) > x
-		   t1.root = node.getLeft();
-		   t1.min = this.min;
-		   t1.max = predecessor(node);
-		   t1.size = node.getLeft().getSize();
-		   t2.root = node.getRight();
-		   t2.max = this.max;
-		   t2.min = successor(node);
-		   t2.size = node.getRight().getSize();
-		   IAVLNode parent;
-		   AVLTree otherTree = new AVLTree();
-		   while(node!=this.root) {
+		   splitInto(x, t1, t2);
+		   t1.aggregator = this.aggregator;
+		   t2.aggregator = this.aggregator;
+		   if(this.recorder != null) {
+			   //one stream per recorder: the larger half goes on logging, the trace tells which
+			   AVLTree kept = (t2.size() > t1.size()) ? t2 : t1;
+			   kept.recorder = this.recorder;
+			   this.recorder.recordSplit(x, kept == t2);
+		   }
+		   if(this.metrics != null) {
+			   t1.metrics = this.metrics;
+			   t2.metrics = this.metrics;
+			   this.metrics.record(TreeMetrics.SPLIT, start, t1, null, joins);
+		   }
+		   AVLTree[] resultTrees = {t1, t2};
+		   return resultTrees; 
+	   }
+	   
+	   /**
+	    * @param x - the key to split by
+	    * @param t1 - receives the nodes with keys < x
+	    * @param t2 - receives the nodes with keys > x
+	    * @return the node with key x, detached from both trees, or null if x is not in the tree
+	    * 
+	    * joins the subtrees hanging off the search path of x into t1 and t2
+	    * complexity - O(log(n))
+	    */
+	   private IAVLNode splitInto(int x, AVLTree t1, AVLTree t2) {
+		   t1.adopt(null);
+		   t2.adopt(null);
+		   if(this.empty()) {
+			   return null;
+		   }
+		   IAVLNode node = treePosition(x);
+		   IAVLNode found = null;
+		   IAVLNode parent = node;
+		   if(node.getKey() == x) {
+			   found = node;
+			   t1.adopt(node.getLeft());
+			   t2.adopt(node.getRight());
 			   parent = node.getParent();
-			   if(node.isRightChild()) {
-				   otherTree.root = parent.getLeft();
-				   otherTree.size = parent.getLeft().getSize();
-				   otherTree.min = t1.min;
-				   otherTree.max = t1.max;
+		   }
+		   AVLTree otherTree = new AVLTree();
+		   while(parent != null) {
+			   //parent is reused by join, so remember the way up before joining it
+			   IAVLNode grandParent = parent.getParent();
+			   if(parent.getKey() < x) {
+				   otherTree.adopt(parent.getLeft());
 				   t1.join(parent, otherTree);
 			   }else{
-				   otherTree.root = parent.getRight();
-				   otherTree.size = parent.getRight().getSize();
-				   otherTree.min = t2.min;
-				   otherTree.max = t2.max;
+				   otherTree.adopt(parent.getRight());
 				   t2.join(parent, otherTree);
-			   }node = parent;
-		   }AVLTree[] resultTrees = {t1, t2};
-		   return resultTrees; 
+			   }
+			   parent = grandParent;
+		   }
+		   t1.fixExtremum();
+		   t2.fixExtremum();
+		   if(found != null) {
+			   found.setLeft(EXTERNAL_LEAF);
+			   found.setRight(EXTERNAL_LEAF);
+			   found.setParent(null);
+			   found.setHeight(0);
+			   found.setSize(1);
+		   }
+		   return found;
+	   }
+	   
+	   //recomputes min and max from the root - O(log(n))
+	   private void fixExtremum() {
+		   this.min = this.empty() ? null : leftmost(this.root);
+		   this.max = this.empty() ? null : rightmost(this.root);
 	   }
 	   
 	   /**
@@ -719,425 +1451,4779 @@ public class AVLTree {
 	    *
 	    * joins t and x with the tree. 	
 	    * Returns the complexity of the operation (|tree.rank - t.rank| + 1).
+	    * In an augmented tree a plain x is replaced by an AugmentedNode with its key and info.
 		  * precondition: keys(x,t) < keys() or keys(x,t) > keys(). t/tree might be empty (rank = -1).
+		  * precondition: t and the tree have the same aggregator, or one of them is empty
 	    * postcondition: none
 	    */   
 	   public int join(IAVLNode x, AVLTree t){
-		   if(t.empty() && this.empty()) {
-			   x.setHeight(0);
-			   x.setSize(1);
-			   this.root = x;
-			   this.min = x;
-			   this.max = x;
-			   this.size++;
-			   return (1);
-		   }else if(t.empty() && !this.empty()) {
-			   this.insert(x.getKey(), x.getValue());
-			   return (this.getRoot().getHeight() + 1);
-		   }else if(!t.empty() && this.empty()) {
-			   t.insert(x.getKey(), x.getValue());
-			   this.max = t.max;
-			   this.min = t.min;
-			   this.size = t.size;
-			   this.root = t.root;
-			   return (t.getRoot().getHeight() + 1);
-		   }//both trees aren't empty
-		   int thisHeight = this.getRoot().getHeight();
-		   int otherHeight = t.getRoot().getHeight();
-		   if(thisHeight == otherHeight) {
-			   joinEqualHeight(x, t);
-		   }else if(x.getKey() > this.getRoot().getKey()) {
-			   //this tree is leftSubtree of x
-			   joinBiggerKeyTree(x, t);
-			   this.root.incrementHeight(+1);
+		   TraceRecorder recorder = (this.recorder != null) ? this.recorder : t.recorder;
+		   if(recorder != null) {
+			   recorder.recordJoin(x, (recorder == this.recorder) ? t : this);
+		   }
+		   this.recorder = recorder;
+		   Aggregator aggregator = checkAggregators(t);
+		   if(aggregator != null && !(x instanceof AugmentedNode && ((AugmentedNode) x).aggregator == aggregator)) {
+			   x = new AugmentedNode(x.getKey(), x.getValue(), aggregator);
+		   }
+		   settleAll();
+		   t.settleAll();
+		   long start = (this.metrics == null) ? 0 : System.nanoTime();
+		   int thisHeight = this.empty() ? -1 : this.getRoot().getHeight();
+		   int otherHeight = t.empty() ? -1 : t.getRoot().getHeight();
+		   boolean thisIsSmaller;
+		   if(!this.empty()) {
+			   thisIsSmaller = this.getRoot().getKey() < x.getKey();
 		   }else {
-			   //this tree is rightSubtree of x
-			    joinSmallerKeyTree(x, t);
-			    this.root.incrementHeight(+1);
-		   }return (Math.abs(thisHeight + otherHeight) + 1);
+			   thisIsSmaller = t.empty() || t.getRoot().getKey() > x.getKey();
+		   }
+		   AVLTree smaller = thisIsSmaller ? this : t;
+		   AVLTree bigger = thisIsSmaller ? t : this;
+		   IAVLNode newMin = smaller.empty() ? x : smaller.min;
+		   IAVLNode newMax = bigger.empty() ? x : bigger.max;
+		   int newSize = this.size + t.size + 1;
+		   this.finger = null;
+		   joinNodes(rootOrLeaf(smaller), x, rootOrLeaf(bigger));
+		   this.size = newSize;
+		   this.min = newMin;
+		   this.max = newMax;
+		   int cost = Math.abs(thisHeight - otherHeight) + 1;
+		   if(this.metrics != null) {
+			   this.metrics.record(TreeMetrics.JOIN, start, this, null, cost);
+		   }
+		   return cost;
 	   }
+	   
+	   /**
+	    * public AVLTree extractRange(int lo, int hi)
+	    *
+	    * removes the items with lo <= key <= hi from the tree and returns them
+	    * as a tree of their own, by two splits and two joins - however many there are.
+	    * The returned tree has the aggregator and collects into the metrics of this one.
+	    * complexity O(log(n))
+	    */
+	   public AVLTree extractRange(int lo, int hi) {
+		   if(this.recorder != null) {
+			   this.recorder.recordRange(TraceRecorder.EXTRACT_RANGE, lo, hi);
+		   }
+		   return extract(lo, hi);
+	   }
+	   
+	   //extractRange without recording
+	   private AVLTree extract(int lo, int hi) {
+		   AVLTree range = new AVLTree(this.aggregator);
+		   if(lo > hi || this.empty()) {
+			   range.metrics = this.metrics;
+			   return range;
+		   }
+		   settleAll();
+		   AVLTree below = new AVLTree(); //keys < lo
+		   AVLTree rest = new AVLTree(); //keys > lo
+		   IAVLNode first = splitInto(lo, below, rest);
+		   AVLTree above = new AVLTree(); //keys > hi
+		   IAVLNode last = rest.splitInto(hi, range, above);
+		   //split leaves out the nodes with keys lo and hi, they go back in as min and max
+		   if(first != null) {
+			   range.join(first, new AVLTree());
+		   }
+		   if(last != null) {
+			   range.join(last, new AVLTree());
+		   }
+		   this.replaceWith(concat(below, above));
+		   //only now, the two joins above are part of the extraction, not operations of their own
+		   range.metrics = this.metrics;
+		   return range;
+	   }
+	   
+	   /**
+	    * public int deleteRange(int lo, int hi)
+	    *
+	    * deletes the items with lo <= key <= hi and returns how many there were.
+	    * complexity O(log(n)), independent of the number of deleted items
+	    */
+	   public int deleteRange(int lo, int hi) {
+		   if(this.recorder != null) {
+			   this.recorder.recordRange(TraceRecorder.DELETE_RANGE, lo, hi);
+		   }
+		   return extract(lo, hi).size();
+	   }
+	   
+	   /**
+	    * public int insertAll(int[] keys, String[] values)
+	    *
+	    * inserts the items (keys[i], values[i]) that are not in the tree yet.
+	    * A key repeated in the batch keeps its first value, like repeated insert calls.
+	    * The batch is sorted, built into a tree and merged by split and join,
+	    * recursing in parallel on the common ForkJoinPool for large batches.
+	    * Returns the number of inserted items.
+	    * complexity O(m*log(m) + m*log(n/m + 1)) for a batch of m items
+	    */
+	   public int insertAll(int[] keys, String[] values) {
+		   if(keys.length != values.length) {
+			   throw new IllegalArgumentException("keys and values differ in length");
+		   }
+		   if(this.recorder != null) {
+			   this.recorder.recordBatch(TraceRecorder.INSERT_ALL, keys, values);
+		   }
+		   int[] order = sortedDistinct(keys);
+		   int[] batchKeys = new int[order.length];
+		   String[] batchValues = new String[order.length];
+		   for(int i = 0; i < order.length; i++) {
+			   batchKeys[i] = keys[order[i]];
+			   batchValues[i] = values[order[i]];
+		   }
+		   int oldSize = this.size;
+		   AVLTree batch = fromSorted(batchKeys, batchValues, this.aggregator);
+		   this.replaceWith(SetOperation.run(SetOperation.UNION, this.detach(), batch, null));
+		   return this.size - oldSize;
+	   }
+	   
+	   /**
+	    * public int deleteAll(int[] keys)
+	    *
+	    * deletes the items with the given keys that are in the tree.
+	    * The batch is sorted, built into a tree and subtracted by split and join,
+	    * recursing in parallel on the common ForkJoinPool for large batches.
+	    * Returns the number of deleted items.
+	    * complexity O(m*log(m) + m*log(n/m + 1)) for a batch of m keys
+	    */
+	   public int deleteAll(int[] keys) {
+		   if(this.recorder != null) {
+			   this.recorder.recordBatch(TraceRecorder.DELETE_ALL, keys, null);
+		   }
+		   int[] order = sortedDistinct(keys);
+		   int[] batchKeys = new int[order.length];
+		   for(int i = 0; i < order.length; i++) {
+			   batchKeys[i] = keys[order[i]];
+		   }
+		   int oldSize = this.size;
+		   AVLTree batch = fromSorted(batchKeys, new String[order.length]);
+		   this.replaceWith(SetOperation.run(SetOperation.DIFFERENCE, this.detach(), batch, null));
+		   return oldSize - this.size;
+	   }
+	   
+	   /**
+	    * public void union(AVLTree t, InfoMerger merger)
+	    *
+	    * makes this tree the union of this tree and t, and empties t.
+	    * A key in both trees gets merger.merge(key, info here, info in t),
+	    * or keeps the info of this tree if merger is null.
+	    * Runs split and join recursively, in parallel on the common ForkJoinPool
+	    * for large trees. t must have the same aggregator as this tree, unless one is empty.
+	    * complexity O(m*log(n/m + 1)) work and O(log(n)^2) span for m <= n the tree sizes
+	    */
+	   public void union(AVLTree t, InfoMerger merger) {
+		   checkAggregators(t);
+		   if(this.recorder != null) {
+			   this.recorder.recordTree(TraceRecorder.UNION, t);
+		   }
+		   this.replaceWith(SetOperation.run(SetOperation.UNION, this.detach(), t.detach(), merger));
+	   }
+	   
+	   /**
+	    * public void intersection(AVLTree t, InfoMerger merger)
+	    *
+	    * keeps only the items of this tree whose keys are also in t, and empties t.
+	    * A kept key gets merger.merge(key, info here, info in t),
+	    * or keeps the info of this tree if merger is null.
+	    * complexity O(m*log(n/m + 1)) work and O(log(n)^2) span for m <= n the tree sizes
+	    */
+	   public void intersection(AVLTree t, InfoMerger merger) {
+		   if(this.recorder != null) {
+			   this.recorder.recordTree(TraceRecorder.INTERSECTION, t);
+		   }
+		   this.replaceWith(SetOperation.run(SetOperation.INTERSECTION, this.detach(), t.detach(), merger));
+	   }
+	   
+	   /**
+	    * public void difference(AVLTree t)
+	    *
+	    * removes the items whose keys are in t from this tree, and empties t.
+	    * complexity O(m*log(n/m + 1)) work and O(log(n)^2) span for m <= n the tree sizes
+	    */
+	   public void difference(AVLTree t) {
+		   if(this.recorder != null) {
+			   this.recorder.recordTree(TraceRecorder.DIFFERENCE, t);
+		   }
+		   this.replaceWith(SetOperation.run(SetOperation.DIFFERENCE, this.detach(), t.detach(), null));
+	   }
+	   
+	   //indexes of keys sorted by key, keeping the first index of a repeated key - O(m*log(m))
+	   private static int[] sortedDistinct(int[] keys) {
+		   long[] packed = new long[keys.length];
+		   for(int i = 0; i < keys.length; i++) {
+			   packed[i] = ((long) keys[i] << 32) | i;
+		   }
+		   Arrays.sort(packed);
+		   int[] order = new int[keys.length];
+		   int count = 0;
+		   for(int i = 0; i < packed.length; i++) {
+			   if(i == 0 || (int) (packed[i] >> 32) != (int) (packed[i - 1] >> 32)) {
+				   order[count++] = (int) packed[i];
+			   }
+		   }
+		   return Arrays.copyOf(order, count);
+	   }
+	   
+	   //the aggregator of the nodes of this tree and t (null for plain nodes), or
+	   //IllegalArgumentException if they differ - O(1)
+	   private Aggregator checkAggregators(AVLTree t) {
+		   Aggregator mine = this.empty() ? this.aggregator : aggregatorOf(this.root);
+		   Aggregator theirs = t.empty() ? t.aggregator : aggregatorOf(t.root);
+		   if(this.empty() || t.empty()) {
+			   return (mine != null) ? mine : theirs;
+		   }
+		   if(mine != theirs) {
+			   throw new IllegalArgumentException("the trees have different aggregators");
+		   }
+		   return mine;
+	   }
+	   
+	   //moves the content of this tree into a new tree and empties this one - O(1)
+	   private AVLTree detach() {
+		   settleAll();
+		   AVLTree tree = new AVLTree();
+		   tree.replaceWith(this);
+		   this.adopt(null);
+		   return tree;
+	   }
+	   
+	   //takes over root, size, min and max of tree - O(1)
+	   private void replaceWith(AVLTree tree) {
+		   this.finger = null;
+		   if(this.pending != null) {
+			   this.pending.clear();
+		   }
+		   this.root = tree.root;
+		   this.size = tree.size;
+		   this.min = tree.min;
+		   this.max = tree.max;
+	   }
+	   
+	   //joins left and right, all keys of left < all keys of right, into one tree - O(log(n))
+	   private static AVLTree concat(AVLTree left, AVLTree right) {
+		   if(right.empty()) {
+			   return left;
+		   }
+		   if(left.empty()) {
+			   return right;
+		   }
+		   //the min of right is split off to serve as the middle node of the join
+		   AVLTree rest = new AVLTree();
+		   IAVLNode middle = right.splitInto(leftmost(right.root).getKey(), new AVLTree(), rest);
+		   left.join(middle, rest);
+		   return left;
+	   }
+	   
+	   //the root of tree, or the external leaf if tree is empty - O(1)
+	   private static IAVLNode rootOrLeaf(AVLTree tree) {
+		   return tree.empty() ? EXTERNAL_LEAF : tree.getRoot();
+	   }
+
+	    /**
+	     * @param1 left is a subtree with keys smaller than x.getKey
+	     * @param2 right is a subtree with keys bigger than x.getKey
+	     * @param3 x a node for joining the two subtrees
+	     * 
+	     * hangs x on the spine of the higher subtree at the height of the lower one
+	     * and rebalances up to the root, which becomes this.root
+	     * complexity - O(|left.height - right.height| + 1)
+	     */
+		private void joinNodes(IAVLNode left, IAVLNode x, IAVLNode right) {
+			int leftHeight = left.getHeight();
+			int rightHeight = right.getHeight();
+			left.setParent(null);
+			right.setParent(null);
+			if(leftHeight > rightHeight + 1) {
+				//left is higher - walk down its right spine
+				this.root = left;
+				IAVLNode parent = null;
+				IAVLNode node = left;
+				while(node.getHeight() > rightHeight + 1) {
+					parent = node;
+					node = node.getRight();
+				}
+				linkJoinNode(node, x, right, parent);
+				parent.setRight(x);
+				retrace(parent, 1, right.getSize() + 1);
+			}else if(rightHeight > leftHeight + 1) {
+				//right is higher - walk down its left spine
+				this.root = right;
+				IAVLNode parent = null;
+				IAVLNode node = right;
+				while(node.getHeight() > leftHeight + 1) {
+					parent = node;
+					node = node.getLeft();
+				}
+				linkJoinNode(left, x, node, parent);
+				parent.setLeft(x);
+				retrace(parent, 1, left.getSize() + 1);
+			}else {
+				//heights differ by at most one, x becomes the root
+				linkJoinNode(left, x, right, null);
+				this.root = x;
+			}
+		}
+		
+		//makes x the parent of left and right and the child of parent - O(1)
+		private void linkJoinNode(IAVLNode left, IAVLNode x, IAVLNode right, IAVLNode parent) {
+			x.setLeft(left);
+			x.setRight(right);
+			left.setParent(x);
+			right.setParent(x);
+			x.setParent(parent);
+			recompute(x);
+		}
+		
+		/**
+		 * static class SetOperation
+		 *
+		 * The join-based set algorithms on two trees a and b: split a by the key
+		 * of b's root, recurse on both sides (in parallel above PARALLEL_GRAIN
+		 * items of b) and join the results. Both trees are consumed.
+		 * A key in both trees keeps a's node, with the info chosen by the merger
+		 * (a's info if there is no merger).
+		 * work O(m*log(n/m + 1)) for m = min(|a|, |b|), n = max(|a|, |b|), span O(log(n)^2)
+		 */
+		static final class SetOperation extends RecursiveTask<AVLTree> {
+			private static final long serialVersionUID = 1L;
+			static final int UNION = 0; // keys of a or b
+			static final int DIFFERENCE = 1; // keys of a that are not in b
+			static final int INTERSECTION = 2; // keys of both a and b
+			static final int PARALLEL_GRAIN = 1 << 11;
+			
+			private final int operation;
+			private final AVLTree a;
+			private final AVLTree b;
+			private final InfoMerger merger; // null keeps a's info
+			
+			SetOperation(int operation, AVLTree a, AVLTree b, InfoMerger merger) {
+				this.operation = operation;
+				this.a = a;
+				this.b = b;
+				this.merger = merger;
+			}
+			
+			//runs the operation, on the common pool if b is large, and fixes min and max
+			static AVLTree run(int operation, AVLTree a, AVLTree b, InfoMerger merger) {
+				SetOperation task = new SetOperation(operation, a, b, merger);
+				AVLTree result = (b.size() >= PARALLEL_GRAIN) ? ForkJoinPool.commonPool().invoke(task) : task.compute();
+				result.fixExtremum();
+				return result;
+			}
+			
+			protected AVLTree compute() {
+				if(a.empty()) {
+					return (operation == UNION) ? b : a;
+				}
+				if(b.empty()) {
+					return (operation == INTERSECTION) ? b : a;
+				}
+				IAVLNode pivot = b.getRoot();
+				AVLTree bLeft = new AVLTree();
+				AVLTree bRight = new AVLTree();
+				bLeft.adopt(pivot.getLeft());
+				bRight.adopt(pivot.getRight());
+				AVLTree aLeft = new AVLTree();
+				AVLTree aRight = new AVLTree();
+				IAVLNode found = a.splitInto(pivot.getKey(), aLeft, aRight);
+				SetOperation leftTask = new SetOperation(operation, aLeft, bLeft, merger);
+				SetOperation rightTask = new SetOperation(operation, aRight, bRight, merger);
+				AVLTree left;
+				AVLTree right;
+				if(b.size() >= PARALLEL_GRAIN) {
+					leftTask.fork();
+					right = rightTask.compute();
+					left = leftTask.join();
+				}else {
+					left = leftTask.compute();
+					right = rightTask.compute();
+				}
+				if(found != null && merger != null && operation != DIFFERENCE) {
+					found.setValue(merger.merge(found.getKey(), found.getValue(), pivot.getValue()));
+				}
+				if(operation == UNION) {
+					left.join((found != null) ? found : pivot, right);
+					return left;
+				}
+				if(operation == INTERSECTION && found != null) {
+					left.join(found, right);
+					return left;
+				}
+				return concat(left, right);
+			}
+		}
+
+		/**
+		 * public interface InfoMerger
+		 *
+		 * Chooses the info of a key that is in both trees of a set operation.
+		 */
+		public interface InfoMerger {
+			public String merge(int key, String thisInfo, String otherInfo);
+		}
+
+		/**
+		 * public interface Aggregator
+		 *
+		 * The augmentation of an augmented AVLTree: lift maps an item to a long,
+		 * combine must be associative with identity() as its neutral element.
+		 * e.g. sum of a numeric info: lift = Long.parseLong(info), combine = a + b, identity = 0;
+		 * max: combine = Math.max, identity = Long.MIN_VALUE;
+		 * count by predicate: lift = (predicate ? 1 : 0), combine = a + b, identity = 0.
+		 */
+		public interface Aggregator {
+			public long identity();
+			public long lift(int key, String info);
+			public long combine(long left, long right);
+		}
+
+		/**
+		 * static class BinaryOutput
+		 *
+		 * The buffered writer of writeTo, keeping the CRC32 of what it wrote.
+		 */
+		static final class BinaryOutput {
+			static final int MAGIC = 0x41564C54; // "AVLT"
+			static final int VERSION = 1;
+			
+			private final OutputStream out;
+			private final byte[] buffer = new byte[1 << 16];
+			private final CRC32 crc = new CRC32();
+			private int position = 0;
+			
+			BinaryOutput(OutputStream out) {
+				this.out = out;
+			}
+			
+			void writeHeader(int size) throws IOException {
+				writeInt(MAGIC);
+				writeByte(VERSION);
+				writeVarint(size);
+			}
+			
+			//7 bits per byte, low bits first, high bit set on all bytes but the last
+			void writeVarint(long value) throws IOException {
+				while((value & ~0x7FL) != 0) {
+					writeByte((int) (value & 0x7F) | 0x80);
+					value >>>= 7;
+				}
+				writeByte((int) value);
+			}
+			
+			void writeInfo(String info) throws IOException {
+				if(info == null) {
+					writeVarint(0);
+					return;
+				}
+				byte[] bytes = utf8Bytes(info);
+				writeVarint(bytes.length + 1L);
+				for(int offset = 0; offset < bytes.length; ) {
+					if(position == buffer.length) {
+						flush();
+					}
+					int count = Math.min(bytes.length - offset, buffer.length - position);
+					System.arraycopy(bytes, offset, buffer, position, count);
+					position += count;
+					offset += count;
+				}
+			}
+			
+			//writes the checksum trailer and flushes out
+			void finish() throws IOException {
+				flush();
+				int checksum = (int) crc.getValue();
+				writeInt(checksum);
+				out.write(buffer, 0, position);
+				position = 0;
+				out.flush();
+			}
+			
+			private void writeInt(int value) throws IOException {
+				writeByte(value >>> 24);
+				writeByte(value >>> 16);
+				writeByte(value >>> 8);
+				writeByte(value);
+			}
+			
+			private void writeByte(int value) throws IOException {
+				if(position == buffer.length) {
+					flush();
+				}
+				buffer[position++] = (byte) value;
+			}
+			
+			private void flush() throws IOException {
+				crc.update(buffer, 0, position);
+				out.write(buffer, 0, position);
+				position = 0;
+			}
+		}
+		
+		/**
+		 * static class BinaryInput
+		 *
+		 * The buffered reader of readFrom, checking the format written by BinaryOutput.
+		 */
+		static final class BinaryInput {
+			private final InputStream in;
+			private final byte[] buffer = new byte[1 << 16];
+			private final CRC32 crc = new CRC32();
+			private int position = 0;
+			private int limit = 0;
+			private boolean firstKey = true;
+			private int key;
+			
+			BinaryInput(InputStream in) {
+				this.in = in;
+			}
+			
+			//checks magic and version, returns the size
+			int readHeader() throws IOException {
+				if(readInt() != BinaryOutput.MAGIC) {
+					throw new IOException("not an AVLTree stream");
+				}
+				int version = readByte();
+				if(version != BinaryOutput.VERSION) {
+					throw new IOException("unsupported version " + version);
+				}
+				long size = readVarint();
+				if(size > Integer.MAX_VALUE) {
+					throw new IOException("corrupt size " + size);
+				}
+				return (int) size;
+			}
+			
+			int readKey() throws IOException {
+				long value = readVarint();
+				if(firstKey) {
+					firstKey = false;
+					int zigzag = (int) value;
+					key = (zigzag >>> 1) ^ -(zigzag & 1);
+					return key;
+				}
+				if(value <= 0 || key + value > Integer.MAX_VALUE) {
+					throw new IOException("keys not strictly increasing after " + key);
+				}
+				key += (int) value;
+				return key;
+			}
+			
+			String readInfo() throws IOException {
+				long length = readVarint() - 1;
+				if(length < 0) {
+					return null;
+				}
+				if(length > Integer.MAX_VALUE - 8) {
+					throw new IOException("corrupt info length " + length);
+				}
+				byte[] bytes = new byte[(int) length];
+				for(int offset = 0; offset < bytes.length; ) {
+					if(position == limit) {
+						fill();
+					}
+					int count = Math.min(bytes.length - offset, limit - position);
+					System.arraycopy(buffer, position, bytes, offset, count);
+					position += count;
+					offset += count;
+				}
+				return getUtf8(ByteBuffer.wrap(bytes), 0, bytes.length);
+			}
+			
+			//reads the trailer and compares it with the checksum of everything before it
+			void finish() throws IOException {
+				crc.update(buffer, 0, position);
+				long expected = crc.getValue();
+				if((readInt() & 0xFFFFFFFFL) != expected) {
+					throw new IOException("checksum mismatch");
+				}
+			}
+			
+			private long readVarint() throws IOException {
+				long value = 0;
+				for(int shift = 0; shift < 64; shift += 7) {
+					int b = readByte();
+					value |= (long) (b & 0x7F) << shift;
+					if((b & 0x80) == 0) {
+						return value;
+					}
+				}
+				throw new IOException("malformed varint");
+			}
+			
+			private int readInt() throws IOException {
+				return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+			}
+			
+			private int readByte() throws IOException {
+				if(position == limit) {
+					fill();
+				}
+				return buffer[position++] & 0xFF;
+			}
+			
+			//checksums the consumed buffer and refills it, failing at the end of the stream
+			private void fill() throws IOException {
+				crc.update(buffer, 0, position);
+				position = 0;
+				limit = in.read(buffer);
+				if(limit <= 0) {
+					limit = 0;
+					throw new IOException("unexpected end of stream");
+				}
+			}
+		}
+		
+		/**
+		 * public interface KeyInfoConsumer
+		 *
+		 * Receives the items of a range walk without boxing the keys.
+		 */
+		public interface KeyInfoConsumer {
+			public void accept(int key, String info);
+		}
+		
+		/**
+		 * static class RangeIterator
+		 *
+		 * Walks from a start node to its successors while their keys are <= hi.
+		 */
+		static final class RangeIterator implements Iterator<IAVLNode> {
+			private IAVLNode next;
+			private final int hi;
+			
+			RangeIterator(IAVLNode start, int hi) {
+				this.hi = hi;
+				this.next = (start != null && start.getKey() <= hi) ? start : null;
+			}
+			
+			public boolean hasNext() {
+				return next != null;
+			}
+			
+			public IAVLNode next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				IAVLNode node = next;
+				next = successor(node);
+				if (next != null && next.getKey() > hi) {
+					next = null;
+				}
+				return node;
+			}
+		}
+
+		/**
+		 * static class SubtreeSpliterator
+		 *
+		 * Covers an optional first node followed by a whole subtree. Splitting hands
+		 * out (first, left subtree) and keeps (subtree root, right subtree), until
+		 * traversal starts - from then on it walks successors, counting down the
+		 * remaining nodes so it never leaves the subtree.
+		 */
+		static final class SubtreeSpliterator implements Spliterator<IAVLNode> {
+			private IAVLNode first; // comes before every node of subtree, or null
+			private IAVLNode subtree; // the external leaf once traversal started
+			private IAVLNode cursor; // next node of the started traversal
+			private int remaining; // nodes left for the started traversal
+			
+			SubtreeSpliterator(IAVLNode first, IAVLNode subtree) {
+				this.first = first;
+				this.subtree = subtree;
+			}
+			
+			public Spliterator<IAVLNode> trySplit() {
+				if (cursor != null || subtree.getSize() <= 1) {
+					return null;
+				}
+				Spliterator<IAVLNode> prefix = new SubtreeSpliterator(first, subtree.getLeft());
+				first = subtree;
+				subtree = subtree.getRight();
+				return prefix;
+			}
+			
+			public boolean tryAdvance(Consumer<? super IAVLNode> action) {
+				if (first != null) {
+					IAVLNode node = first;
+					first = null;
+					action.accept(node);
+					return true;
+				}
+				if (cursor == null && subtree.isRealNode()) {
+					cursor = leftmost(subtree);
+					remaining = subtree.getSize();
+					subtree = EXTERNAL_LEAF;
+				}
+				if (remaining == 0) {
+					return false;
+				}
+				IAVLNode node = cursor;
+				remaining--;
+				cursor = (remaining == 0) ? null : successor(node);
+				action.accept(node);
+				return true;
+			}
+			
+			public long estimateSize() {
+				return (first != null ? 1 : 0) + subtree.getSize() + remaining;
+			}
+			
+			public int characteristics() {
+				return ORDERED | SORTED | DISTINCT | NONNULL | SIZED | SUBSIZED;
+			}
+			
+			public Comparator<? super IAVLNode> getComparator() {
+				return Comparator.comparingInt(IAVLNode::getKey);
+			}
+		}
+
+		public interface IAVLNode{	
+			public int getKey();
+			public void setKey(int k); 
+			public void setValue(String value);  
+			public boolean isRightChild(); 
+			public boolean hasTwoChildren(); 
+			public void decrementHeight(int i);
+			public void incrementHeight(int i);
+			public void updateSize(int i);
+			public int getSize();  
+			public void setSize(int i);
+			public String getValue();
+			public void setLeft(IAVLNode node); 
+			public IAVLNode getLeft();
+			public void setRight(IAVLNode node); 
+			public IAVLNode getRight(); 
+			public void setParent(IAVLNode node); 
+			public IAVLNode getParent(); 
+			public boolean isRealNode(); 
+	    	public void setHeight(int height);
+	    	public int getHeight(); 
+	    	public boolean isLeaf();
+	    	public boolean isUnaryNode();
+		}
+
+	   /**
+	   * public class AVLNode
+	   *
+	   * If you wish to implement classes other than AVLTree
+	   * (for example AVLNode), do it in this file, not in 
+	   * another file.
+	   * This class can and must be modified.
+	   * (It must implement IAVLNode)
+	   */
+		public class AVLNode implements IAVLNode{
+		  	private int key;
+		  	private String info;
+		  	private int height;
+		  	private int size;
+		  	private IAVLNode right;
+		  	private IAVLNode left;
+		  	private IAVLNode parent;
+		  	
+		  	
+		  	public AVLNode(int key, String info){ //regular node constructor
+		  		this.key = key;
+		  		this.info = info;
+		  		this.height = 0;
+		  		this.size = 1;
+		  		this.parent = null;
+		  		this.right = EXTERNAL_LEAF;
+		  		this.left = EXTERNAL_LEAF;
+		  	}
+		  
+		  	// returns node's key
+			public int getKey(){
+				return (this.key);
+			}
+			//return node's value
+			public String getValue(){
+				return(this.info);
+			}
+			//sets left child of node
+			public void setLeft(IAVLNode node){
+				this.left = node;
+				return;
+			}
+			//returns left child of node
+			public IAVLNode getLeft(){
+				return this.left;
+			}
+			//set right child of node
+			public void setRight(IAVLNode node){
+				this.right = node;
+				return;
+			}
+			//returns right child of node
+			public IAVLNode getRight(){
+				return this.right;
+			}
+			
+			//set parent of node
+			public void setParent(IAVLNode node){
+				this.parent = node;
+				return;
+			}
+			//return parent of node
+			public IAVLNode getParent(){
+				return this.parent;
+			}
+			
+			// Returns True if this is a non-virtual AVL node
+			public boolean isRealNode(){
+				return true;
+			}
+			//set height of node
+			public void setHeight(int height){
+				this.height = height;
+				return; 
+			}
+			//return height of node
+			public int getHeight(){
+				return this.height;
+			}
+			//set size of node
+			public void setSize(int i) {
+				this.size=i;
+				return;
+			}
+			//return size of node
+			public int getSize() {
+				return this.size;
+			}
+			//increment node's size by d
+			public void updateSize(int d) {
+				this.size += d;
+				return;
+			}
+			//return TRUE if node has two children
+			public boolean hasTwoChildren() {
+				if(this.getLeft().isRealNode() && this.getRight().isRealNode()) {
+					return true;
+				}
+				return false;
+			}
+			//decrement node's height by i
+			public void decrementHeight(int i) {
+				this.height-=i;	
+			}
+			//increment node's height by i
+			public void incrementHeight(int i) {
+				this.height+=i;	
+			}
+			
+			//return TRUE if node isRightChild
+			public boolean isRightChild() {
+				if(this.getParent().getRight() == this) {
+					return true;
+				}else{
+					return false;
+				}
+			}
+			//return TRUE if node is a leaf
+			public boolean isLeaf() {
+				return this.getLeft().getHeight() == -1 && this.getRight().getHeight() == -1;
+			}
+			//return TRUE if node is unary node--has one child
+	        public boolean isUnaryNode() {
+	            return (this.getRight().isRealNode() && !this.getLeft().isRealNode()) || ((!this.getRight().isRealNode() && this.getLeft().isRealNode()));
+	        }
+	        //sets key of node
+	        public void setKey(int k) {
+	            this.key = k;
+	        }
+	        //sets value of node
+	        public void setValue(String value) {
+	            this.info = value;
+	        }
+		}  
+
+		/**
+		 * public class AugmentedNode
+		 *
+		 * The node of an augmented tree: an AVLNode that also keeps its lifted item
+		 * and the aggregate of its subtree. Every fix-up (retrace, the rotations, join)
+		 * sets or updates sizes from the bottom up, so the aggregate is refreshed from
+		 * the children right there. A new key or info is propagated up to the root.
+		 */
+		public class AugmentedNode extends AVLNode {
+			private final Aggregator aggregator;
+			private long value;
+			private long aggregate;
+
+			public AugmentedNode(int key, String info, Aggregator aggregator) {
+				super(key, info);
+				this.aggregator = aggregator;
+				this.value = aggregator.lift(key, info);
+				this.aggregate = this.value;
+			}
+
+			//returns the aggregate of node's subtree
+			public long getAggregate() {
+				return this.aggregate;
+			}
+
+			public void setSize(int i) {
+				super.setSize(i);
+				refresh();
+			}
+
+			public void updateSize(int d) {
+				super.updateSize(d);
+				refresh();
+			}
+
+			public void setKey(int k) {
+				super.setKey(k);
+				relift();
+			}
+
+			public void setValue(String value) {
+				super.setValue(value);
+				relift();
+			}
+
+			//lifts the item again and refreshes the aggregates up to the root - O(log(n))
+			private void relift() {
+				this.value = aggregator.lift(getKey(), getValue());
+				for(IAVLNode node = this; node instanceof AugmentedNode; node = node.getParent()) {
+					((AugmentedNode) node).refresh();
+				}
+			}
+
+			//the aggregate from the children's - O(1)
+			private void refresh() {
+				long left = aggregateOf(aggregator, getLeft());
+				this.aggregate = aggregator.combine(aggregator.combine(left, this.value), aggregateOf(aggregator, getRight()));
+			}
+		}
+
+		/**
+		 * static class VirtualNode
+		 *
+		 * The external leaf. A single immutable instance (EXTERNAL_LEAF) stands
+		 * for every missing child, so setters are ignored and it has no parent.
+		 */
+		static final class VirtualNode implements IAVLNode{
+			public int getKey() {
+				return -1;
+			}
+			public void setKey(int k) {
+				return;
+			}
+			public void setValue(String value) {
+				return;
+			}
+			public boolean isRightChild() {
+				return false;
+			}
+			public boolean hasTwoChildren() {
+				return false;
+			}
+			public void decrementHeight(int i) {
+				return;
+			}
+			public void incrementHeight(int i) {
+				return;
+			}
+			public void updateSize(int i) {
+				return;
+			}
+			public int getSize() {
+				return 0;
+			}
+			public void setSize(int i) {
+				return;
+			}
+			public String getValue() {
+				return null;
+			}
+			public void setLeft(IAVLNode node) {
+				return;
+			}
+			public IAVLNode getLeft() {
+				return null;
+			}
+			public void setRight(IAVLNode node) {
+				return;
+			}
+			public IAVLNode getRight() {
+				return null;
+			}
+			public void setParent(IAVLNode node) {
+				return;
+			}
+			public IAVLNode getParent() {
+				return null;
+			}
+			public boolean isRealNode() {
+				return false;
+			}
+			public void setHeight(int height) {
+				return;
+			}
+			public int getHeight() {
+				return -1;
+			}
+			public boolean isLeaf() {
+				return false;
+			}
+			public boolean isUnaryNode() {
+				return false;
+			}
+		}
+
+		/**
+		 * public interface TreeMetricsMBean
+		 *
+		 * The JMX view of TreeMetrics. Per-operation arrays follow getOperations().
+		 */
+		public interface TreeMetricsMBean {
+			public String[] getOperations();
+			public long[] getCounts();
+			public long[] getMeanNanos();
+			public long[] getP99Nanos();
+			public double[] getMeanCosts();
+			public long getRotations();
+			public long getHeightChanges();
+			public double getMeanDepth();
+			public int getHeight();
+			public int getHeightBound();
+			public int getSize();
+			public void reset();
+		}
+
+		/**
+		 * public static class TreeMetrics
+		 *
+		 * Operation metrics of the AVLTrees it is set on (AVLTree.setMetrics): per
+		 * operation the count, total latency and a log2 latency histogram, plus the
+		 * join and split costs, rotations, height changes (promotions and demotions),
+		 * the depth histogram of searched and inserted nodes, and the height and size
+		 * of the tree after the last operation next to the AVL height bound.
+		 * Counters are atomic, so trees used from several threads may share it.
+		 * Read it through the pull API below or register it as a JMX MBean.
+		 */
+		public static class TreeMetrics implements TreeMetricsMBean {
+			public static final int SEARCH = 0;
+			public static final int INSERT = 1;
+			public static final int DELETE = 2;
+			public static final int SPLIT = 3; // cost: joins performed
+			public static final int JOIN = 4; // cost: the value join returns
+			static final String[] OPERATIONS = {"search", "insert", "delete", "split", "join"};
+			static final int BUCKETS = 64; // bucket b counts latencies in [2^(b-1), 2^b) ns
+			
+			private final AtomicLongArray counts = new AtomicLongArray(OPERATIONS.length);
+			private final AtomicLongArray nanos = new AtomicLongArray(OPERATIONS.length);
+			private final AtomicLongArray costs = new AtomicLongArray(OPERATIONS.length);
+			private final AtomicLongArray latencies = new AtomicLongArray(OPERATIONS.length * BUCKETS);
+			private final AtomicLongArray depths = new AtomicLongArray(BUCKETS);
+			private final AtomicLong rotations = new AtomicLong();
+			private final AtomicLong heightChanges = new AtomicLong();
+			private volatile int height = -1;
+			private volatile int size = 0;
+			
+			//counts one operation that started at start (System.nanoTime) - O(depth of node)
+			void record(int operation, long start, AVLTree tree, IAVLNode node, long cost) {
+				long elapsed = System.nanoTime() - start;
+				counts.incrementAndGet(operation);
+				nanos.addAndGet(operation, elapsed);
+				costs.addAndGet(operation, cost);
+				latencies.incrementAndGet(operation * BUCKETS + bucket(elapsed));
+				if(node != null) {
+					depths.incrementAndGet(Math.min(depth(node), BUCKETS - 1));
+				}
+				height = tree.empty() ? -1 : tree.getRoot().getHeight();
+				size = tree.size();
+			}
+			
+			void rotation() {
+				rotations.incrementAndGet();
+			}
+			
+			void heightChange() {
+				heightChanges.incrementAndGet();
+			}
+			
+			//the number of edges from node up to its root - O(depth)
+			static int depth(IAVLNode node) {
+				int depth = 0;
+				for(IAVLNode parent = node.getParent(); parent != null; parent = parent.getParent()) {
+					depth++;
+				}
+				return depth;
+			}
+			
+			//the histogram bucket of a latency
+			static int bucket(long nanos) {
+				return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0)));
+			}
+			
+			/**
+			 * public long count(int operation)
+			 *
+			 * Returns the number of recorded operations (SEARCH, INSERT, DELETE, SPLIT or JOIN).
+			 */
+			public long count(int operation) {
+				return counts.get(operation);
+			}
+			
+			/**
+			 * public long meanNanos(int operation)
+			 *
+			 * Returns the mean latency of an operation in ns, 0 if none was recorded.
+			 */
+			public long meanNanos(int operation) {
+				long count = counts.get(operation);
+				return (count == 0) ? 0 : nanos.get(operation) / count;
+			}
+			
+			/**
+			 * public long latencyPercentile(int operation, double p)
+			 *
+			 * Returns an upper bound in ns (the end of its log2 bucket) for the
+			 * p-quantile of the latency of an operation, 0 if none was recorded.
+			 */
+			public long latencyPercentile(int operation, double p) {
+				long[] histogram = latencyHistogram(operation);
+				long total = 0;
+				for(long count : histogram) {
+					total += count;
+				}
+				long rank = (long) Math.ceil(p * total);
+				long seen = 0;
+				for(int b = 0; b < BUCKETS; b++) {
+					seen += histogram[b];
+					if(seen >= rank && seen > 0) {
+						return (b == 0) ? 0 : (1L << b) - 1;
+					}
+				}
+				return 0;
+			}
+			
+			/**
+			 * public long[] latencyHistogram(int operation)
+			 *
+			 * Returns a copy of the latency histogram of an operation: element b counts
+			 * latencies in [2^(b-1), 2^b) ns, element 0 counts 0 ns.
+			 */
+			public long[] latencyHistogram(int operation) {
+				long[] histogram = new long[BUCKETS];
+				for(int b = 0; b < BUCKETS; b++) {
+					histogram[b] = latencies.get(operation * BUCKETS + b);
+				}
+				return histogram;
+			}
+			
+			/**
+			 * public double meanCost(int operation)
+			 *
+			 * Returns the mean cost of SPLIT (joins performed) or JOIN (as join returns).
+			 */
+			public double meanCost(int operation) {
+				long count = counts.get(operation);
+				return (count == 0) ? 0 : (double) costs.get(operation) / count;
+			}
+			
+			/**
+			 * public long[] depthHistogram()
+			 *
+			 * Returns a copy of the depth histogram of the nodes found (or reached) by
+			 * search and of newly inserted nodes: element d counts depth d, the root is 0.
+			 */
+			public long[] depthHistogram() {
+				long[] histogram = new long[BUCKETS];
+				for(int d = 0; d < BUCKETS; d++) {
+					histogram[d] = depths.get(d);
+				}
+				return histogram;
+			}
+			
+			public String[] getOperations() {
+				return OPERATIONS.clone();
+			}
+			
+			public long[] getCounts() {
+				long[] result = new long[OPERATIONS.length];
+				for(int op = 0; op < result.length; op++) {
+					result[op] = count(op);
+				}
+				return result;
+			}
+			
+			public long[] getMeanNanos() {
+				long[] result = new long[OPERATIONS.length];
+				for(int op = 0; op < result.length; op++) {
+					result[op] = meanNanos(op);
+				}
+				return result;
+			}
+			
+			public long[] getP99Nanos() {
+				long[] result = new long[OPERATIONS.length];
+				for(int op = 0; op < result.length; op++) {
+					result[op] = latencyPercentile(op, 0.99);
+				}
+				return result;
+			}
+			
+			public double[] getMeanCosts() {
+				double[] result = new double[OPERATIONS.length];
+				for(int op = 0; op < result.length; op++) {
+					result[op] = meanCost(op);
+				}
+				return result;
+			}
+			
+			public long getRotations() {
+				return rotations.get();
+			}
+			
+			public long getHeightChanges() {
+				return heightChanges.get();
+			}
+			
+			public double getMeanDepth() {
+				long count = 0;
+				long sum = 0;
+				for(int d = 0; d < BUCKETS; d++) {
+					long atDepth = depths.get(d);
+					count += atDepth;
+					sum += d * atDepth;
+				}
+				return (count == 0) ? 0 : (double) sum / count;
+			}
+			
+			//the height after the last recorded operation, -1 if the tree was empty
+			public int getHeight() {
+				return height;
+			}
+			
+			//the largest height an AVL tree of getSize() nodes can have: 1.4405*log2(n+2) - 1.3277
+			public int getHeightBound() {
+				return (int) Math.floor(1.4405 * (Math.log(size + 2) / Math.log(2)) - 1.3277);
+			}
+			
+			public int getSize() {
+				return size;
+			}
+			
+			//clears every counter and histogram
+			public void reset() {
+				for(int i = 0; i < latencies.length(); i++) {
+					latencies.set(i, 0);
+				}
+				for(int i = 0; i < OPERATIONS.length; i++) {
+					counts.set(i, 0);
+					nanos.set(i, 0);
+					costs.set(i, 0);
+				}
+				for(int d = 0; d < BUCKETS; d++) {
+					depths.set(d, 0);
+				}
+				rotations.set(0);
+				heightChanges.set(0);
+			}
+			
+			/**
+			 * public ObjectName registerMBean(String name)
+			 *
+			 * Registers these metrics with the platform MBean server under name
+			 * (e.g. "com.example:type=AVLTree,name=index") and returns the ObjectName.
+			 */
+			public ObjectName registerMBean(String name) throws JMException {
+				ObjectName objectName = new ObjectName(name);
+				ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(this, TreeMetricsMBean.class), objectName);
+				return objectName;
+			}
+		}
+
+		/**
+		 * public static class TraceRecorder
+		 *
+		 * Logs the operations of the AVLTrees it is set on (AVLTree.setRecorder) as a
+		 * compact binary trace for TraceReplay (in the jmh source set):
+		 *   header:  "AVLR", version byte
+		 *   records: op code byte, key as zigzag varint, UTF-8 length of the info + 1
+		 *            as varint (see utf8Length; 0 for null info or an op without one)
+		 *   end:     op code END, then the CRC32 trailer of BinaryOutput
+		 * The length, not the info, is kept - a replay only needs values of the same size.
+		 * An operation on many items is one record followed by ITEM records:
+		 *   INSERT_ALL, DELETE_ALL         key = batch length, then the batch as given
+		 *   UNION, INTERSECTION,           key = size of the other tree, then its items
+		 *   DIFFERENCE                     in key order (the merger is not recorded)
+		 *   DELETE_RANGE, EXTRACT_RANGE    key = lo, then one ITEM with key = hi
+		 *   SPLIT                          key = x, then one ITEM with key 0 if the recorder
+		 *                                  went on with the keys < x, 1 with the keys > x
+		 *   JOIN                           key = size of the tree joined in, then an ITEM
+		 *                                  with the joining node, then that tree's items
+		 * A trace follows one tree, as a replay has one: split passes the recorder on to
+		 * one half, and join logs the items of the tree that had none.
+		 * Records are appended under the recorder's monitor, so a tree read from several
+		 * threads may log. The first write error ends the recording and is thrown by
+		 * close(); the tree keeps working meanwhile.
+		 */
+		public static class TraceRecorder implements AutoCloseable {
+			public static final int LOAD = 0; // an item of the tree when the recorder was set
+			public static final int SEARCH = 1;
+			public static final int INSERT = 2;
+			public static final int DELETE = 3;
+			public static final int SPLIT = 4;
+			public static final int JOIN = 5;
+			public static final int INSERT_ALL = 6;
+			public static final int DELETE_ALL = 7;
+			public static final int DELETE_RANGE = 8;
+			public static final int EXTRACT_RANGE = 9;
+			public static final int UNION = 10;
+			public static final int INTERSECTION = 11;
+			public static final int DIFFERENCE = 12;
+			public static final int ITEM = 13; // an item of the record before it
+			static final int END = 0xFF;
+			static final String[] NAMES = {"load", "search", "insert", "delete", "split", "join",
+					"insertAll", "deleteAll", "deleteRange", "extractRange", "union", "intersection", "difference", "item"};
+			static final int MAGIC = 0x41564C52; // "AVLR"
+			static final int VERSION = 3;
+
+			private final OutputStream out;
+			private final BinaryOutput output;
+			private long records;
+			private IOException failure;
+			private boolean closed;
+
+			//takes over out, close() closes it
+			public TraceRecorder(OutputStream out) throws IOException {
+				this.out = out;
+				this.output = new BinaryOutput(out);
+				output.writeInt(MAGIC);
+				output.writeByte(VERSION);
+			}
+
+			/**
+			 * public static TraceRecorder create(Path path)
+			 *
+			 * Returns a recorder writing to path, which is replaced if it exists.
+			 */
+			public static TraceRecorder create(Path path) throws IOException {
+				return new TraceRecorder(Files.newOutputStream(path));
+			}
+
+			//appends one record - O(length of info), O(log(n)) flushes per n records
+			synchronized void record(int op, int key, String info) {
+				write(op, key, info);
+			}
+
+			//appends a batch record and an ITEM for each of keys, with the info in values (or none if null) - O(m)
+			synchronized void recordBatch(int op, int[] keys, String[] values) {
+				write(op, keys.length, null);
+				for(int i = 0; i < keys.length; i++) {
+					write(ITEM, keys[i], (values == null) ? null : values[i]);
+				}
+			}
+
+			//appends a range record for lo..hi - O(1)
+			synchronized void recordRange(int op, int lo, int hi) {
+				write(op, lo, null);
+				write(ITEM, hi, null);
+			}
+
+			//appends a set operation record and an ITEM for each item of t - O(size of t)
+			synchronized void recordTree(int op, AVLTree t) {
+				write(op, t.size(), null);
+				writeItems(t);
+			}
+
+			//appends a split record at x and the half that goes on logging - O(1)
+			synchronized void recordSplit(int x, boolean keepAbove) {
+				write(SPLIT, x, null);
+				write(ITEM, keepAbove ? 1 : 0, null);
+			}
+
+			//appends a join record, an ITEM for x and one for each item of t - O(size of t)
+			synchronized void recordJoin(IAVLNode x, AVLTree t) {
+				write(JOIN, t.size(), null);
+				write(ITEM, x.getKey(), x.getValue());
+				writeItems(t);
+			}
+
+			private void writeItems(AVLTree t) {
+				for(IAVLNode node = t.min; node != null; node = successor(node)) {
+					write(ITEM, node.getKey(), node.getValue());
+				}
+			}
+
+			private void write(int op, int key, String info) {
+				if(closed || failure != null) {
+					return;
+				}
+				try {
+					output.writeByte(op);
+					output.writeVarint(((key << 1) ^ (key >> 31)) & 0xFFFFFFFFL);
+					output.writeVarint((info == null) ? 0 : utf8Length(info) + 1L);
+					records++;
+				}catch(IOException e) {
+					failure = e;
+				}
+			}
+
+			/**
+			 * public long records()
+			 *
+			 * Returns the number of records written so far.
+			 */
+			public synchronized long records() {
+				return records;
+			}
+
+			/**
+			 * public void close()
+			 *
+			 * Ends the trace and closes the stream; throws the first write error, if any.
+			 */
+			public synchronized void close() throws IOException {
+				if(closed) {
+					return;
+				}
+				closed = true;
+				try {
+					if(failure == null) {
+						output.writeByte(END);
+						output.finish();
+					}
+				}finally {
+					out.close();
+				}
+				if(failure != null) {
+					throw failure;
+				}
+			}
+		}
+
+		/**
+		 * static class Trace
+		 *
+		 * A TraceRecorder trace decoded for TraceReplay: op codes, keys and a value
+		 * of the recorded length for every record (one shared String per length),
+		 * plus the count per op code. ITEM records are folded into the record they
+		 * belong to: its batch (items, itemValues), the hi of its range (highs), the
+		 * half a split keeps (highs, 1 for the keys > x) or the node and tree of a join
+		 * (keys and values, items and itemValues).
+		 * The keys are followed through the trace the way a replay changes them, so a
+		 * range delete, an intersection or a split comes with the keys it removes as
+		 * its items, for engines that can only delete them one by one.
+		 */
+		static final class Trace {
+			int length;
+			byte[] ops = new byte[1 << 10];
+			int[] keys = new int[1 << 10];
+			String[] values = new String[1 << 10];
+			int[] highs = new int[1 << 10]; // the hi of a range, the half a split keeps
+			int[][] items = new int[1 << 10][]; // the batch, the other tree's keys or the removed keys, null for one key
+			String[][] itemValues = new String[1 << 10][]; // the info of an INSERT_ALL, UNION or JOIN batch
+			final int[] counts = new int[TraceRecorder.NAMES.length];
+			private final HashMap<Long, String> valueOfLength = new HashMap<>();
+			private AVLTree keySet = new AVLTree(); // the keys a replay has at this point, while decoding
+
+			//decodes the trace at path, checking its header and checksum - O(records + log(n) per changed key)
+			static Trace read(Path path) throws IOException {
+				Trace trace = new Trace();
+				try(InputStream in = Files.newInputStream(path)) {
+					BinaryInput input = new BinaryInput(in);
+					if(input.readInt() != TraceRecorder.MAGIC) {
+						throw new IOException("not an AVLTree trace");
+					}
+					int version = input.readByte();
+					if(version != TraceRecorder.VERSION) {
+						throw new IOException("unsupported version " + version);
+					}
+					for(int op = input.readByte(); op != TraceRecorder.END; op = input.readByte()) {
+						trace.read(op, input);
+					}
+					input.finish();
+				}
+				trace.keySet = null;
+				return trace;
+			}
+
+			//decodes the record of op and its ITEM records, following the keys - O(items)
+			private void read(int op, BinaryInput input) throws IOException {
+				if(op == TraceRecorder.ITEM) {
+					throw new IOException("item without an operation");
+				}
+				if(op > TraceRecorder.ITEM) {
+					throw new IOException("unknown op code " + op);
+				}
+				int key = readKey(input);
+				String value = readValue(input);
+				int high = 0;
+				int[] batch = null;
+				String[] batchValues = null;
+				switch(op) {
+				case TraceRecorder.LOAD:
+				case TraceRecorder.INSERT:
+					keySet.insert(key, null);
+					break;
+				case TraceRecorder.DELETE:
+					keySet.delete(key);
+					break;
+				case TraceRecorder.INSERT_ALL:
+				case TraceRecorder.UNION:
+				case TraceRecorder.DELETE_ALL:
+				case TraceRecorder.DIFFERENCE:
+				case TraceRecorder.INTERSECTION:
+					if(key < 0) {
+						throw new IOException("corrupt batch length " + key);
+					}
+					batch = new int[key];
+					batchValues = new String[key];
+					for(int i = 0; i < key; i++) {
+						readItem(input);
+						batch[i] = readKey(input);
+						batchValues[i] = readValue(input);
+					}
+					break;
+				case TraceRecorder.DELETE_RANGE:
+				case TraceRecorder.EXTRACT_RANGE:
+				case TraceRecorder.SPLIT:
+					readItem(input);
+					high = readKey(input);
+					readValue(input);
+					break;
+				case TraceRecorder.JOIN:
+					if(key < 0) {
+						throw new IOException("corrupt join size " + key);
+					}
+					batch = new int[key];
+					batchValues = new String[key];
+					readItem(input);
+					key = readKey(input);
+					value = readValue(input);
+					for(int i = 0; i < batch.length; i++) {
+						readItem(input);
+						batch[i] = readKey(input);
+						batchValues[i] = readValue(input);
+					}
+					keySet.insert(key, null);
+					break;
+				default:
+					break; //a search leaves the keys of a replay as they are
+				}
+				if(op == TraceRecorder.INSERT_ALL || op == TraceRecorder.UNION || op == TraceRecorder.JOIN) {
+					keySet.insertAll(batch, new String[batch.length]);
+				}else if(op == TraceRecorder.DELETE_ALL || op == TraceRecorder.DIFFERENCE) {
+					keySet.deleteAll(batch);
+					batchValues = null;
+				}else if(op == TraceRecorder.INTERSECTION) {
+					//the keys that are not in the other tree go
+					int[] other = batch.clone();
+					Arrays.sort(other);
+					int[] removed = new int[keySet.size()];
+					int count = 0;
+					for(IAVLNode node = keySet.min; node != null; node = successor(node)) {
+						if(Arrays.binarySearch(other, node.getKey()) < 0) {
+							removed[count++] = node.getKey();
+						}
+					}
+					batch = Arrays.copyOf(removed, count);
+					batchValues = null;
+					keySet.deleteAll(batch);
+				}else if(op == TraceRecorder.DELETE_RANGE || op == TraceRecorder.EXTRACT_RANGE) {
+					batch = keySet.extractRange(key, high).keysToArray();
+				}else if(op == TraceRecorder.SPLIT) {
+					//x goes with the half the recorder left
+					batch = ((high == 1) ? keySet.extractRange(Integer.MIN_VALUE, key) : keySet.extractRange(key, Integer.MAX_VALUE)).keysToArray();
+				}
+				add(op, key, value, high, batch, batchValues);
+			}
+
+			//reads the op code of an ITEM record - O(1)
+			private void readItem(BinaryInput input) throws IOException {
+				int op = input.readByte();
+				if(op != TraceRecorder.ITEM) {
+					throw new IOException("missing item, found op code " + op);
+				}
+				counts[TraceRecorder.ITEM]++;
+			}
+
+			private static int readKey(BinaryInput input) throws IOException {
+				int zigzag = (int) input.readVarint();
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+			}
+
+			//a value of the recorded length, null for length 0 - O(1) once per length
+			private String readValue(BinaryInput input) throws IOException {
+				long length = input.readVarint();
+				if(length > Integer.MAX_VALUE) {
+					throw new IOException("corrupt info length " + length);
+				}
+				String value = valueOfLength.get(length);
+				if(value == null && length != 0) {
+					value = "x".repeat((int) length - 1);
+					valueOfLength.put(length, value);
+				}
+				return value;
+			}
+
+			private void add(int op, int key, String value, int high, int[] batch, String[] batchValues) {
+				if(length == ops.length) {
+					ops = Arrays.copyOf(ops, length * 2);
+					keys = Arrays.copyOf(keys, length * 2);
+					values = Arrays.copyOf(values, length * 2);
+					highs = Arrays.copyOf(highs, length * 2);
+					items = Arrays.copyOf(items, length * 2);
+					itemValues = Arrays.copyOf(itemValues, length * 2);
+				}
+				ops[length] = (byte) op;
+				keys[length] = key;
+				values[length] = value;
+				highs[length] = high;
+				items[length] = batch;
+				itemValues[length] = batchValues;
+				length++;
+				counts[op]++;
+			}
+		}
+
+		/**
+		 * public static class ArrayAVLTree
+		 *
+		 * The same AVL tree as AVLTree, without node objects. Keys, heights, sizes
+		 * and links of every node are records of an ArrayAVLTree.Store, addressed
+		 * by index - parallel int arrays on the heap (HeapStore, the default) or
+		 * fixed-width records in direct buffers (OffHeapStore, see offHeap()).
+		 * Index 0 (NIL) is the external leaf: height -1 and size 0.
+		 * Trees returned by split share the store of the split tree.
+		 */
+		public static class ArrayAVLTree {
+			static final int NIL = 0;
+
+			Store store;
+			private int root; // index of the tree's root
+			private int min; // index of the tree's min node
+			private int max; // index of the tree's max node
+			private int size;
+
+			public ArrayAVLTree() { //constructor
+				this(new HeapStore(16));
+			}
+			
+			/**
+			 * public static ArrayAVLTree offHeap()
+			 *
+			 * Returns an empty tree whose nodes and info are kept outside the java heap,
+			 * so a large tree adds no objects for the garbage collector to trace.
+			 */
+			public static ArrayAVLTree offHeap() {
+				return new ArrayAVLTree(new OffHeapStore());
+			}
+
+			ArrayAVLTree(Store store) {
+				this.store = store;
+				this.root = NIL;
+				this.min = NIL;
+				this.max = NIL;
+				this.size = 0;
+			}
+
+			/**
+			 * public boolean empty()
+			 *
+			 * returns true if and only if the tree is empty
+			 */
+			public boolean empty() {
+				return this.root == NIL;
+			}
+
+			/**
+			 * public int size()
+			 *
+			 * Returns the number of nodes in the tree.
+			 */
+			public int size() {
+				return this.size;
+			}
+
+			//index of the root in the store, NIL if the tree is empty - O(1)
+			int getRoot() {
+				return this.root;
+			}
+
+			/**
+			 * public String search(int k)
+			 *
+			 * returns the info of an item with key k if it exists in the tree
+			 * otherwise, returns null
+			 * complexity O(log(n))
+			 */
+			public String search(int k) {
+				Store s = this.store;
+				int current = this.root;
+				while(current != NIL) {
+					int key = s.getKey(current);
+					if(key == k) {
+						return s.getInfo(current);
+					}
+					current = (k < key) ? s.getLeft(current) : s.getRight(current);
+				}
+				return null;
+			}
+
+			/**
+			 * public int insert(int k, String i)
+			 *
+			 * inserts an item with key k and info i to the tree.
+			 * returns the number of rebalancing operations (promotions and rotations),
+			 * or -1 if an item with key k already exists in the tree.
+			 * complexity O(log(n))
+			 */
+			public int insert(int k, String i) {
+				Store s = this.store;
+				int parent = NIL;
+				int current = this.root;
+				while(current != NIL) {
+					if(s.getKey(current) == k) {
+						return -1;
+					}
+					parent = current;
+					current = (k < s.getKey(current)) ? s.getLeft(current) : s.getRight(current);
+				}
+				int node = s.allocate(k, i);
+				s.setParent(node, parent);
+				this.size++;
+				if(parent == NIL) {
+					this.root = node;
+					this.min = node;
+					this.max = node;
+					return 0;
+				}
+				if(k < s.getKey(parent)) {
+					s.setLeft(parent, node);
+				}else {
+					s.setRight(parent, node);
+				}
+				if(k < s.getKey(this.min)) {
+					this.min = node;
+				}
+				if(k > s.getKey(this.max)) {
+					this.max = node;
+				}
+				return rebalanceUp(parent);
+			}
+
+			/**
+			 * public int delete(int k)
+			 *
+			 * deletes an item with key k from the tree, if it is there.
+			 * returns the number of rebalancing operations (demotions and rotations),
+			 * or -1 if an item with key k was not found in the tree.
+			 * complexity O(log(n))
+			 */
+			public int delete(int k) {
+				Store s = this.store;
+				int node = this.root;
+				while(node != NIL && s.getKey(node) != k) {
+					node = (k < s.getKey(node)) ? s.getLeft(node) : s.getRight(node);
+				}
+				if(node == NIL) {
+					return -1;
+				}
+				if(s.getLeft(node) != NIL && s.getRight(node) != NIL) {
+					//two children - the successor's item moves here and the successor is removed
+					int successor = leftmost(s, s.getRight(node));
+					s.moveItem(successor, node);
+					if(this.max == successor) {
+						this.max = node;
+					}
+					node = successor;
+				}
+				int child = (s.getLeft(node) != NIL) ? s.getLeft(node) : s.getRight(node);
+				int parent = s.getParent(node);
+				replaceChild(parent, node, child);
+				if(this.min == node) {
+					this.min = (child != NIL) ? leftmost(s, child) : parent;
+				}
+				if(this.max == node) {
+					this.max = (child != NIL) ? rightmost(s, child) : parent;
+				}
+				s.release(node);
+				this.size--;
+				return rebalanceUp(parent);
+			}
+
+			/**
+			 * public String min()
+			 *
+			 * Returns the info of the item with the smallest key in the tree,
+			 * or null if the tree is empty
+			 */
+			public String min() {
+				return (this.min == NIL) ? null : store.getInfo(this.min);
+			}
+
+			/**
+			 * public String max()
+			 *
+			 * Returns the info of the item with the largest key in the tree,
+			 * or null if the tree is empty
+			 */
+			public String max() {
+				return (this.max == NIL) ? null : store.getInfo(this.max);
+			}
+
+			/**
+			 * public int[] keysToArray()
+			 *
+			 * Returns a sorted array which contains all keys in the tree,
+			 * or an empty array if the tree is empty.
+			 * complexity O(n)
+			 */
+			public int[] keysToArray() {
+				int[] keys = new int[this.size];
+				int i = 0;
+				for(int node = this.min; node != NIL; node = successor(store, node)) {
+					keys[i++] = store.getKey(node);
+				}
+				return keys;
+			}
+
+			/**
+			 * public String[] infoToArray()
+			 *
+			 * Returns an array which contains all info in the tree,
+			 * sorted by their respective keys,
+			 * or an empty array if the tree is empty.
+			 * complexity O(n)
+			 */
+			public String[] infoToArray() {
+				String[] info = new String[this.size];
+				int i = 0;
+				for(int node = this.min; node != NIL; node = successor(store, node)) {
+					info[i++] = store.getInfo(node);
+				}
+				return info;
+			}
+
+			/**
+			 * public ArrayAVLTree[] split(int x)
+			 *
+			 * splits the tree into 2 trees according to the key x.
+			 * Returns an array [t1, t2] with two trees. keys(t1) < x < keys(t2).
+			 * If x is not in the tree the split happens between its neighbours.
+			 * Both trees share this tree's store, which should not be used afterwards.
+			 * complexity O(log(n))
+			 */
+			public ArrayAVLTree[] split(int x) {
+				Store s = this.store;
+				int node = this.root;
+				int parent = NIL;
+				while(node != NIL && s.getKey(node) != x) {
+					parent = node;
+					node = (x < s.getKey(node)) ? s.getLeft(node) : s.getRight(node);
+				}
+				ArrayAVLTree t1 = new ArrayAVLTree(s); //keys(t1) < x
+				ArrayAVLTree t2 = new ArrayAVLTree(s); //keys(t2) > x
+				ArrayAVLTree otherTree = new ArrayAVLTree(s);
+				if(node != NIL) {
+					t1.adopt(s.getLeft(node));
+					t2.adopt(s.getRight(node));
+					parent = s.getParent(node);
+				}
+				while(parent != NIL) {
+					//parent is reused by join, so remember the way up before joining it
+					int grandParent = s.getParent(parent);
+					if(s.getKey(parent) < x) {
+						otherTree.adopt(s.getLeft(parent));
+						t1.joinNode(parent, otherTree);
+					}else {
+						otherTree.adopt(s.getRight(parent));
+						t2.joinNode(parent, otherTree);
+					}
+					parent = grandParent;
+				}
+				if(node != NIL) {
+					s.release(node); //never NIL, which is the external leaf every node shares
+				}
+				t1.fixExtremum();
+				t2.fixExtremum();
+				ArrayAVLTree[] resultTrees = {t1, t2};
+				return resultTrees;
+			}
+
+			/**
+			 * public int join(int k, String i, ArrayAVLTree t)
+			 *
+			 * joins t and a new item (k, i) with the tree.
+			 * Returns the complexity of the operation (|tree.rank - t.rank| + 1).
+			 * If t lives in another store its nodes are first copied into this one - O(|t|).
+			 * precondition: keys(k,t) < keys() or keys(k,t) > keys(). t/tree might be empty.
+			 */
+			public int join(int k, String i, ArrayAVLTree t) {
+				if(t.store != this.store) {
+					t = t.copyInto(this.store);
+				}
+				return joinNode(this.store.allocate(k, i), t);
+			}
+
+			//joins the tree with x and t, which share this tree's store
+			private int joinNode(int x, ArrayAVLTree t) {
+				Store s = this.store;
+				int thisHeight = s.getHeight(this.root);
+				int otherHeight = s.getHeight(t.root);
+				boolean thisIsSmaller;
+				if(!this.empty()) {
+					thisIsSmaller = s.getKey(this.root) < s.getKey(x);
+				}else {
+					thisIsSmaller = t.empty() || s.getKey(t.root) > s.getKey(x);
+				}
+				ArrayAVLTree smaller = thisIsSmaller ? this : t;
+				ArrayAVLTree bigger = thisIsSmaller ? t : this;
+				int newMin = smaller.empty() ? x : smaller.min;
+				int newMax = bigger.empty() ? x : bigger.max;
+				int newSize = this.size + t.size + 1;
+				joinNodes(smaller.root, x, bigger.root);
+				this.size = newSize;
+				this.min = newMin;
+				this.max = newMax;
+				return (Math.abs(thisHeight - otherHeight) + 1);
+			}
+
+			//hangs x on the spine of the higher subtree and rebalances up to the root
+			private void joinNodes(int left, int x, int right) {
+				Store s = this.store;
+				int leftHeight = s.getHeight(left);
+				int rightHeight = s.getHeight(right);
+				s.setParent(left, NIL);
+				s.setParent(right, NIL);
+				if(leftHeight > rightHeight + 1) {
+					this.root = left;
+					int parent = NIL;
+					int node = left;
+					while(s.getHeight(node) > rightHeight + 1) {
+						parent = node;
+						node = s.getRight(node);
+					}
+					link(node, x, right, parent);
+					s.setRight(parent, x);
+					rebalanceUp(parent);
+				}else if(rightHeight > leftHeight + 1) {
+					this.root = right;
+					int parent = NIL;
+					int node = right;
+					while(s.getHeight(node) > leftHeight + 1) {
+						parent = node;
+						node = s.getLeft(node);
+					}
+					link(left, x, node, parent);
+					s.setLeft(parent, x);
+					rebalanceUp(parent);
+				}else {
+					link(left, x, right, NIL);
+					this.root = x;
+				}
+			}
+
+			//makes x the parent of left and right and the child of parent - O(1)
+			private void link(int left, int x, int right, int parent) {
+				Store s = this.store;
+				s.setLeft(x, left);
+				s.setRight(x, right);
+				s.setParent(left, x);
+				s.setParent(right, x);
+				s.setParent(x, parent);
+				update(s, x);
+			}
+
+			//makes node's subtree the whole tree, without fixing min and max - O(1)
+			private void adopt(int node) {
+				this.root = node;
+				this.size = store.getSize(node);
+				store.setParent(node, NIL);
+				this.min = NIL;
+				this.max = NIL;
+			}
+
+			//recomputes min and max from the root - O(log(n))
+			private void fixExtremum() {
+				this.min = (this.root == NIL) ? NIL : leftmost(store, this.root);
+				this.max = (this.root == NIL) ? NIL : rightmost(store, this.root);
+			}
+
+			//copies the tree into another store, built bottom-up from an in-order walk like AVLTree.fromSorted - O(n)
+			private ArrayAVLTree copyInto(Store target) {
+				int[] keys = new int[this.size];
+				String[] info = new String[this.size];
+				int i = 0;
+				for(int node = this.min; node != NIL; node = successor(store, node)) {
+					keys[i] = store.getKey(node);
+					info[i++] = store.getInfo(node);
+				}
+				ArrayAVLTree copy = new ArrayAVLTree(target);
+				target.ensureCapacity(target.used + this.size);
+				copy.root = copy.buildBalanced(keys, info, 0, this.size - 1);
+				copy.size = this.size;
+				copy.fixExtremum();
+				return copy;
+			}
+
+			//builds the subtree of keys[lo..hi] around the middle key, returns its root - O(hi-lo)
+			private int buildBalanced(int[] keys, String[] info, int lo, int hi) {
+				if(lo > hi) {
+					return NIL;
+				}
+				int mid = (lo + hi) >>> 1;
+				int node = store.allocate(keys[mid], info[mid]);
+				link(buildBalanced(keys, info, lo, mid - 1), node, buildBalanced(keys, info, mid + 1, hi), NIL);
+				return node;
+			}
+
+			/**
+			 * @param node - the lowest node whose subtree has changed
+			 * @return number of promotions/demotions and rotations
+			 *
+			 * fixes heights and sizes from node up to the root, rotating where the
+			 * heights of two siblings differ by 2
+			 * complexity - O(log(n))
+			 */
+			private int rebalanceUp(int node) {
+				Store s = this.store;
+				int steps = 0;
+				while(node != NIL) {
+					int oldHeight = s.getHeight(node);
+					update(s, node);
+					int balance = s.getHeight(s.getLeft(node)) - s.getHeight(s.getRight(node));
+					if(balance > 1) {
+						int left = s.getLeft(node);
+						if(s.getHeight(s.getLeft(left)) < s.getHeight(s.getRight(left))) {
+							rotateLeft(left);
+							steps++;
+						}
+						node = rotateRight(node);
+						steps++;
+					}else if(balance < -1) {
+						int right = s.getRight(node);
+						if(s.getHeight(s.getRight(right)) < s.getHeight(s.getLeft(right))) {
+							rotateRight(right);
+							steps++;
+						}
+						node = rotateLeft(node);
+						steps++;
+					}else if(s.getHeight(node) != oldHeight) {
+						steps++;
+					}
+					node = s.getParent(node);
+				}
+				return steps;
+			}
+
+			// right rotation of oldRoot with its left child, returns the new subtree root - O(1)
+			private int rotateRight(int oldRoot) {
+				Store s = this.store;
+				int newRoot = s.getLeft(oldRoot);
+				int parent = s.getParent(oldRoot);
+				replaceChild(parent, oldRoot, newRoot);
+				int middle = s.getRight(newRoot);
+				s.setLeft(oldRoot, middle);
+				s.setParent(middle, oldRoot);
+				s.setRight(newRoot, oldRoot);
+				s.setParent(oldRoot, newRoot);
+				update(s, oldRoot);
+				update(s, newRoot);
+				return newRoot;
+			}
+
+			// left rotation of oldRoot with its right child, returns the new subtree root - O(1)
+			private int rotateLeft(int oldRoot) {
+				Store s = this.store;
+				int newRoot = s.getRight(oldRoot);
+				int parent = s.getParent(oldRoot);
+				replaceChild(parent, oldRoot, newRoot);
+				int middle = s.getLeft(newRoot);
+				s.setRight(oldRoot, middle);
+				s.setParent(middle, oldRoot);
+				s.setLeft(newRoot, oldRoot);
+				s.setParent(oldRoot, newRoot);
+				update(s, oldRoot);
+				update(s, newRoot);
+				return newRoot;
+			}
+
+			//puts newChild where oldChild hangs under parent (or at the root) - O(1)
+			private void replaceChild(int parent, int oldChild, int newChild) {
+				Store s = this.store;
+				if(parent == NIL) {
+					this.root = newChild;
+				}else if(s.getLeft(parent) == oldChild) {
+					s.setLeft(parent, newChild);
+				}else {
+					s.setRight(parent, newChild);
+				}
+				s.setParent(newChild, parent);
+			}
+
+			//recomputes height and size of node from its children - O(1)
+			private static void update(Store s, int node) {
+				int left = s.getLeft(node);
+				int right = s.getRight(node);
+				s.setHeight(node, 1 + Math.max(s.getHeight(left), s.getHeight(right)));
+				s.setSize(node, s.getSize(left) + s.getSize(right) + 1);
+			}
+
+			//returns the index with the smallest key in node's subtree - O(log(n))
+			private static int leftmost(Store s, int node) {
+				while(s.getLeft(node) != NIL) {
+					node = s.getLeft(node);
+				}
+				return node;
+			}
+
+			//returns the index with the biggest key in node's subtree - O(log(n))
+			private static int rightmost(Store s, int node) {
+				while(s.getRight(node) != NIL) {
+					node = s.getRight(node);
+				}
+				return node;
+			}
+
+			//returns node's successor, or NIL for the max - amortized O(1) in a full walk
+			private static int successor(Store s, int node) {
+				if(s.getRight(node) != NIL) {
+					return leftmost(s, s.getRight(node));
+				}
+				int parent = s.getParent(node);
+				while(parent != NIL && s.getRight(parent) == node) {
+					node = parent;
+					parent = s.getParent(node);
+				}
+				return parent;
+			}
+
+			/**
+			 * abstract static class Store
+			 *
+			 * Fixed-width node records of one or more ArrayAVLTrees, addressed by index.
+			 * Released indexes are chained through the left link into a free list and
+			 * reused before the store grows.
+			 */
+			abstract static class Store {
+				int used = 1; // indexes below used were handed out at least once
+				private int free = NIL; // head of the free list, NIL if empty
+
+				abstract int getKey(int node);
+				abstract void setKey(int node, int k);
+				abstract int getHeight(int node);
+				abstract void setHeight(int node, int height);
+				abstract int getSize(int node);
+				abstract void setSize(int node, int size);
+				abstract int getLeft(int node);
+				abstract void setLeft(int node, int left);
+				abstract int getRight(int node);
+				abstract void setRight(int node, int right);
+				abstract int getParent(int node);
+				abstract void setParent(int node, int parent);
+				abstract String getInfo(int node);
+				abstract void setInfo(int node, String info);
+				//moves key and info of from into to, leaving from without info
+				abstract void moveItem(int from, int to);
+				//makes room for indexes below capacity
+				abstract void ensureCapacity(int capacity);
+
+				//returns the index of a new leaf with key k and info i - amortized O(1)
+				int allocate(int k, String i) {
+					int node;
+					if(free != NIL) {
+						node = free;
+						free = getLeft(node);
+					}else {
+						ensureCapacity(used + 1);
+						node = used++;
+					}
+					setKey(node, k);
+					setInfo(node, i);
+					setHeight(node, 0);
+					setSize(node, 1);
+					setLeft(node, NIL);
+					setRight(node, NIL);
+					setParent(node, NIL);
+					return node;
+				}
+
+				//puts node on the free list - O(1)
+				void release(int node) {
+					setInfo(node, null);
+					setLeft(node, free);
+					free = node;
+				}
+			}
+
+			/**
+			 * static class HeapStore
+			 *
+			 * Node records as parallel int arrays, info in a parallel String array.
+			 */
+			static final class HeapStore extends Store {
+				int[] key;
+				int[] height;
+				int[] size;
+				int[] left;
+				int[] right;
+				int[] parent;
+				String[] info;
+
+				HeapStore(int capacity) {
+					capacity = Math.max(capacity, 2);
+					this.key = new int[capacity];
+					this.height = new int[capacity];
+					this.size = new int[capacity];
+					this.left = new int[capacity];
+					this.right = new int[capacity];
+					this.parent = new int[capacity];
+					this.info = new String[capacity];
+					this.height[NIL] = -1;
+				}
+
+				int getKey(int node) { return key[node]; }
+				void setKey(int node, int k) { key[node] = k; }
+				int getHeight(int node) { return height[node]; }
+				void setHeight(int node, int h) { height[node] = h; }
+				int getSize(int node) { return size[node]; }
+				void setSize(int node, int s) { size[node] = s; }
+				int getLeft(int node) { return left[node]; }
+				void setLeft(int node, int l) { left[node] = l; }
+				int getRight(int node) { return right[node]; }
+				void setRight(int node, int r) { right[node] = r; }
+				int getParent(int node) { return parent[node]; }
+				void setParent(int node, int p) { parent[node] = p; }
+				String getInfo(int node) { return info[node]; }
+				void setInfo(int node, String i) { info[node] = i; }
+
+				void moveItem(int from, int to) {
+					key[to] = key[from];
+					info[to] = info[from];
+					info[from] = null;
+				}
+
+				void ensureCapacity(int capacity) {
+					if(capacity <= key.length) {
+						return;
+					}
+					capacity = Math.max(capacity, key.length + (key.length >> 1));
+					key = Arrays.copyOf(key, capacity);
+					height = Arrays.copyOf(height, capacity);
+					size = Arrays.copyOf(size, capacity);
+					left = Arrays.copyOf(left, capacity);
+					right = Arrays.copyOf(right, capacity);
+					parent = Arrays.copyOf(parent, capacity);
+					info = Arrays.copyOf(info, capacity);
+				}
+			}
+
+			/**
+			 * static class OffHeapStore
+			 *
+			 * Node records of 32 bytes (key, height, size, left, right, parent and a
+			 * reference to the info) in direct buffers of 2^16 records each.
+			 * Info is kept UTF-8 encoded (unpaired surrogates included, see putUtf8)
+			 * and length prefixed in direct pages of an append-only arena, referenced
+			 * by (page << 32 | position), or -1 for null.
+			 * Replaced info is garbage until it outweighs the live info, then the
+			 * arena is compacted in one pass.
+			 */
+			static final class OffHeapStore extends Store {
+				private static final int RECORD_BYTES = 32;
+				private static final int KEY = 0;
+				private static final int HEIGHT = 4;
+				private static final int SIZE = 8;
+				private static final int LEFT = 12;
+				private static final int RIGHT = 16;
+				private static final int PARENT = 20;
+				private static final int INFO = 24;
+				private static final int CHUNK_SHIFT = 16;
+				private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+				private static final int PAGE_BYTES = 1 << 22;
+				private static final long NO_INFO = -1L;
+
+				private ByteBuffer[] chunks = new ByteBuffer[0];
+				private ByteBuffer[] pages = new ByteBuffer[0];
+				private int pageCount = 0;
+				private long liveBytes = 0;
+				private long garbageBytes = 0;
+
+				OffHeapStore() {
+					ensureCapacity(1);
+					setHeight(NIL, -1);
+					setSize(NIL, 0);
+					setInfoRef(NIL, NO_INFO);
+				}
+
+				private ByteBuffer chunk(int node) {
+					return chunks[node >>> CHUNK_SHIFT];
+				}
+
+				private static int offset(int node) {
+					return (node & CHUNK_MASK) * RECORD_BYTES;
+				}
+
+				int getKey(int node) { return chunk(node).getInt(offset(node) + KEY); }
+				void setKey(int node, int k) { chunk(node).putInt(offset(node) + KEY, k); }
+				int getHeight(int node) { return chunk(node).getInt(offset(node) + HEIGHT); }
+				void setHeight(int node, int h) { chunk(node).putInt(offset(node) + HEIGHT, h); }
+				int getSize(int node) { return chunk(node).getInt(offset(node) + SIZE); }
+				void setSize(int node, int s) { chunk(node).putInt(offset(node) + SIZE, s); }
+				int getLeft(int node) { return chunk(node).getInt(offset(node) + LEFT); }
+				void setLeft(int node, int l) { chunk(node).putInt(offset(node) + LEFT, l); }
+				int getRight(int node) { return chunk(node).getInt(offset(node) + RIGHT); }
+				void setRight(int node, int r) { chunk(node).putInt(offset(node) + RIGHT, r); }
+				int getParent(int node) { return chunk(node).getInt(offset(node) + PARENT); }
+				void setParent(int node, int p) { chunk(node).putInt(offset(node) + PARENT, p); }
+				private long getInfoRef(int node) { return chunk(node).getLong(offset(node) + INFO); }
+				private void setInfoRef(int node, long ref) { chunk(node).putLong(offset(node) + INFO, ref); }
+
+				String getInfo(int node) {
+					long ref = getInfoRef(node);
+					if(ref == NO_INFO) {
+						return null;
+					}
+					ByteBuffer page = pages[(int) (ref >>> 32)];
+					int position = (int) ref;
+					return getUtf8(page, position + 4, page.getInt(position));
+				}
+
+				void setInfo(int node, String i) {
+					freeInfo(getInfoRef(node));
+					setInfoRef(node, NO_INFO);
+					if(i != null) {
+						setInfoRef(node, append(utf8Bytes(i)));
+					}
+					if(garbageBytes > liveBytes && garbageBytes > PAGE_BYTES) {
+						compact();
+					}
+				}
+
+				void moveItem(int from, int to) {
+					setKey(to, getKey(from));
+					freeInfo(getInfoRef(to));
+					setInfoRef(to, getInfoRef(from));
+					setInfoRef(from, NO_INFO);
+				}
+
+				void ensureCapacity(int capacity) {
+					int needed = (capacity + CHUNK_MASK) >>> CHUNK_SHIFT;
+					if(needed <= chunks.length) {
+						return;
+					}
+					int oldLength = chunks.length;
+					chunks = Arrays.copyOf(chunks, needed);
+					for(int i = oldLength; i < needed; i++) {
+						ByteBuffer chunk = ByteBuffer.allocateDirect(RECORD_BYTES << CHUNK_SHIFT).order(ByteOrder.nativeOrder());
+						for(int record = 0; record <= CHUNK_MASK; record++) {
+							chunk.putLong(record * RECORD_BYTES + INFO, NO_INFO);
+						}
+						chunks[i] = chunk;
+					}
+				}
+
+				//writes bytes at the end of the arena and returns their reference - amortized O(bytes)
+				private long append(byte[] bytes) {
+					int needed = 4 + bytes.length;
+					ByteBuffer page = (pageCount == 0) ? null : pages[pageCount - 1];
+					if(page == null || page.remaining() < needed) {
+						if(pageCount == pages.length) {
+							pages = Arrays.copyOf(pages, Math.max(4, pageCount * 2));
+						}
+						page = ByteBuffer.allocateDirect(Math.max(PAGE_BYTES, needed)).order(ByteOrder.nativeOrder());
+						pages[pageCount++] = page;
+					}
+					int position = page.position();
+					page.putInt(bytes.length);
+					page.put(bytes);
+					liveBytes += needed;
+					return ((long) (pageCount - 1) << 32) | position;
+				}
+
+				//bytes of live and replaced info in the arena, compaction keeps it within twice the live bytes plus a page - O(1)
+				long arenaBytes() {
+					return liveBytes + garbageBytes;
+				}
+
+				private void freeInfo(long ref) {
+					if(ref != NO_INFO) {
+						int bytes = 4 + pages[(int) (ref >>> 32)].getInt((int) ref);
+						liveBytes -= bytes;
+						garbageBytes += bytes;
+					}
+				}
+
+				//copies the live info of every record into fresh pages - O(used + live bytes)
+				private void compact() {
+					ByteBuffer[] oldPages = pages;
+					pages = new ByteBuffer[0];
+					pageCount = 0;
+					liveBytes = 0;
+					garbageBytes = 0;
+					for(int node = 1; node < used; node++) {
+						long ref = getInfoRef(node);
+						if(ref != NO_INFO) {
+							ByteBuffer page = oldPages[(int) (ref >>> 32)];
+							int position = (int) ref;
+							byte[] bytes = new byte[page.getInt(position)];
+							page.get(position + 4, bytes);
+							setInfoRef(node, append(bytes));
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * public static class ConcurrentAVLTree
+		 *
+		 * A thread-safe AVLTree. Reads (search, min, max, size, rangeCount) first run
+		 * without locking under an optimistic StampedLock stamp and are validated after
+		 * the descent; only if a writer got in between (or the torn read failed) they
+		 * retry under the read lock. insert, delete, split, join and the batch updates
+		 * take the write lock. Optimistic descents are cut off after MAX_DESCENT steps,
+		 * since a concurrent rotation may send them around in circles; a descent that
+		 * is cut off retries under the read lock too, as the wrapped tree may be deeper
+		 * than an AVL tree (AVLTree(IAVLNode) takes any subtree).
+		 */
+		public static class ConcurrentAVLTree {
+			//more than the height of any AVL tree with up to 2^31 nodes (1.44*log2(n+2))
+			static final int MAX_DESCENT = 64;
+
+			private final StampedLock lock = new StampedLock();
+			private AVLTree tree;
+
+			public ConcurrentAVLTree() { //constructor
+				this(new AVLTree());
+			}
+
+			//wraps tree, which must not be used directly afterwards
+			public ConcurrentAVLTree(AVLTree tree) {
+				this.tree = tree;
+			}
+
+			/**
+			 * public String search(int k)
+			 *
+			 * returns the info of an item with key k if it exists in the tree
+			 * otherwise, returns null
+			 */
+			public String search(int k) {
+				long stamp = lock.tryOptimisticRead();
+				if(stamp != 0) {
+					try {
+						String info = null;
+						boolean done = false; // found k or fell off the tree within MAX_DESCENT steps
+						IAVLNode node = tree.root;
+						for(int steps = 0; !done && steps <= MAX_DESCENT; steps++) {
+							if(node == null || !node.isRealNode()) {
+								done = true;
+							}else if(node.getKey() == k) {
+								info = node.getValue();
+								done = true;
+							}else {
+								node = (k < node.getKey()) ? node.getLeft() : node.getRight();
+							}
+						}
+						if(done && lock.validate(stamp)) {
+							return info;
+						}
+					}catch(RuntimeException torn) {
+						//a writer moved the nodes under us, retry under the read lock
+					}
+				}
+				stamp = lock.readLock();
+				try {
+					return tree.sharedSearch(k);
+				}finally {
+					lock.unlockRead(stamp);
+				}
+			}
+
+			/**
+			 * public String min()
+			 *
+			 * Returns the info of the item with the smallest key in the tree,
+			 * or null if the tree is empty
+			 */
+			public String min() {
+				long stamp = lock.tryOptimisticRead();
+				IAVLNode min = tree.min;
+				String info = (min == null) ? null : min.getValue();
+				if(stamp != 0 && lock.validate(stamp)) {
+					return info;
+				}
+				stamp = lock.readLock();
+				try {
+					return tree.min();
+				}finally {
+					lock.unlockRead(stamp);
+				}
+			}
+
+			/**
+			 * public String max()
+			 *
+			 * Returns the info of the item with the largest key in the tree,
+			 * or null if the tree is empty
+			 */
+			public String max() {
+				long stamp = lock.tryOptimisticRead();
+				IAVLNode max = tree.max;
+				String info = (max == null) ? null : max.getValue();
+				if(stamp != 0 && lock.validate(stamp)) {
+					return info;
+				}
+				stamp = lock.readLock();
+				try {
+					return tree.max();
+				}finally {
+					lock.unlockRead(stamp);
+				}
+			}
+
+			/**
+			 * public int size()
+			 *
+			 * Returns the number of nodes in the tree.
+			 */
+			public int size() {
+				long stamp = lock.tryOptimisticRead();
+				int size = tree.size;
+				if(stamp != 0 && lock.validate(stamp)) {
+					return size;
+				}
+				stamp = lock.readLock();
+				try {
+					return tree.size();
+				}finally {
+					lock.unlockRead(stamp);
+				}
+			}
+
+			/**
+			 * public int rangeCount(int lo, int hi)
+			 *
+			 * Returns the number of keys k in the tree with lo <= k <= hi.
+			 */
+			public int rangeCount(int lo, int hi) {
+				if(lo > hi) {
+					return 0;
+				}
+				long stamp = lock.tryOptimisticRead();
+				if(stamp != 0) {
+					try {
+						IAVLNode root = tree.root;
+						int upTo = countBelow(root, hi, true);
+						int below = countBelow(root, lo, false);
+						if(upTo != -1 && below != -1 && lock.validate(stamp)) {
+							return upTo - below;
+						}
+					}catch(RuntimeException torn) {
+						//a writer moved the nodes under us, retry under the read lock
+					}
+				}
+				stamp = lock.readLock();
+				try {
+					return tree.rangeCount(lo, hi);
+				}finally {
+					lock.unlockRead(stamp);
+				}
+			}
+
+			//AVLTree.countBelow with a bounded descent for optimistic reads, -1 if it is cut off
+			private static int countBelow(IAVLNode node, int k, boolean inclusive) {
+				int count = 0;
+				for(int steps = 0; node != null && node.isRealNode(); steps++) {
+					if(steps == MAX_DESCENT) {
+						return -1;
+					}
+					if(node.getKey() < k || (inclusive && node.getKey() == k)) {
+						count += node.getLeft().getSize() + 1;
+						node = node.getRight();
+					}else {
+						node = node.getLeft();
+					}
+				}
+				return count;
+			}
+
+			/**
+			 * public void rangeForEach(int lo, int hi, KeyInfoConsumer consumer)
+			 *
+			 * Passes every item with lo <= key <= hi to consumer, in key order,
+			 * under the read lock (a consumer's side effects can't be taken back,
+			 * so this read is never optimistic).
+			 */
+			public void rangeForEach(int lo, int hi, KeyInfoConsumer consumer) {
+				long stamp = lock.readLock();
+				try {
+					tree.rangeForEach(lo, hi, consumer);
+				}finally {
+					lock.unlockRead(stamp);
+				}
+			}
+
+			/**
+			 * public int[] keysToArray()
+			 *
+			 * Returns a sorted array of all keys, read under the read lock.
+			 */
+			public int[] keysToArray() {
+				long stamp = lock.readLock();
+				try {
+					return tree.keysToArray();
+				}finally {
+					lock.unlockRead(stamp);
+				}
+			}
+
+			/**
+			 * public String[] infoToArray()
+			 *
+			 * Returns all info sorted by key, read under the read lock.
+			 */
+			public String[] infoToArray() {
+				long stamp = lock.readLock();
+				try {
+					return tree.infoToArray();
+				}finally {
+					lock.unlockRead(stamp);
+				}
+			}
+
+			/**
+			 * public int insert(int k, String i)
+			 *
+			 * AVLTree.insert under the write lock.
+			 */
+			public int insert(int k, String i) {
+				long stamp = lock.writeLock();
+				try {
+					return tree.insert(k, i);
+				}finally {
+					lock.unlockWrite(stamp);
+				}
+			}
+
+			/**
+			 * public int delete(int k)
+			 *
+			 * AVLTree.delete under the write lock.
+			 */
+			public int delete(int k) {
+				long stamp = lock.writeLock();
+				try {
+					return tree.delete(k);
+				}finally {
+					lock.unlockWrite(stamp);
+				}
+			}
+
+			/**
+			 * public int insertAll(int[] keys, String[] values)
+			 *
+			 * AVLTree.insertAll under the write lock.
+			 */
+			public int insertAll(int[] keys, String[] values) {
+				long stamp = lock.writeLock();
+				try {
+					return tree.insertAll(keys, values);
+				}finally {
+					lock.unlockWrite(stamp);
+				}
+			}
+
+			/**
+			 * public int deleteAll(int[] keys)
+			 *
+			 * AVLTree.deleteAll under the write lock.
+			 */
+			public int deleteAll(int[] keys) {
+				long stamp = lock.writeLock();
+				try {
+					return tree.deleteAll(keys);
+				}finally {
+					lock.unlockWrite(stamp);
+				}
+			}
+
+			/**
+			 * public AVLTree split(int x)
+			 *
+			 * splits off the items with keys > x under the write lock and returns them
+			 * as a new (unsynchronized) AVLTree; this tree keeps the keys <= x, so an
+			 * item with key x stays here as the max (AVLTree.split would drop it).
+			 */
+			public AVLTree split(int x) {
+				long stamp = lock.writeLock();
+				try {
+					IAVLNode node = tree.empty() ? null : tree.treePosition(x);
+					AVLTree[] trees = tree.split(x);
+					tree = trees[0];
+					if(node != null && node.getKey() == x) {
+						tree.join(node, new AVLTree());
+					}
+					return trees[1];
+				}finally {
+					lock.unlockWrite(stamp);
+				}
+			}
+
+			/**
+			 * public int join(IAVLNode x, AVLTree t)
+			 *
+			 * AVLTree.join under the write lock; t must not be used afterwards.
+			 */
+			public int join(IAVLNode x, AVLTree t) {
+				long stamp = lock.writeLock();
+				try {
+					return tree.join(x, t);
+				}finally {
+					lock.unlockWrite(stamp);
+				}
+			}
+		}
+
+		/**
+		 * public static class ShardedAVLTree
+		 *
+		 * A thread-safe map partitioned into key range shards, each an AVLTree behind
+		 * its own StampedLock, so writers to different shards never wait for each other.
+		 * The shard layout is an immutable array published through a volatile field;
+		 * an operation routes by binary search, locks its shard and re-routes if the
+		 * shard was retired by a reshard in the meantime.
+		 * Shards are split and merged online with AVLTree.split and AVLTree.join,
+		 * which move half a shard in O(log(n)) while only that shard is locked.
+		 * Range scans visit the shards in key order; each shard is read consistently,
+		 * the scan as a whole is not a snapshot.
+		 */
+		public static class ShardedAVLTree {
+			private volatile Shard[] shards;
+
+			/**
+			 * public ShardedAVLTree(int... boundaries)
+			 *
+			 * Creates an empty map with one shard per range between consecutive boundaries:
+			 * [MIN_VALUE, b0-1], [b0, b1-1], ..., [bn, MAX_VALUE].
+			 * precondition: boundaries are strictly increasing and > Integer.MIN_VALUE
+			 */
+			public ShardedAVLTree(int... boundaries) {
+				Shard[] layout = new Shard[boundaries.length + 1];
+				int lo = Integer.MIN_VALUE;
+				for(int i = 0; i < boundaries.length; i++) {
+					if(boundaries[i] <= lo) {
+						throw new IllegalArgumentException("boundaries must be increasing: " + boundaries[i]);
+					}
+					layout[i] = new Shard(lo, boundaries[i] - 1, new AVLTree());
+					lo = boundaries[i];
+				}
+				layout[boundaries.length] = new Shard(lo, Integer.MAX_VALUE, new AVLTree());
+				this.shards = layout;
+			}
+
+			/**
+			 * public static ShardedAVLTree uniform(int count, int lo, int hi)
+			 *
+			 * Returns an empty map with count shards of equal width over [lo, hi];
+			 * keys outside [lo, hi] go to the first or last shard.
+			 */
+			public static ShardedAVLTree uniform(int count, int lo, int hi) {
+				long width = ((long) hi - lo + 1) / count;
+				if(count < 1 || width < 1) {
+					throw new IllegalArgumentException("can't cut [" + lo + ", " + hi + "] into " + count + " shards");
+				}
+				int[] boundaries = new int[count - 1];
+				for(int i = 1; i < count; i++) {
+					boundaries[i - 1] = (int) (lo + i * width);
+				}
+				return new ShardedAVLTree(boundaries);
+			}
+
+			/**
+			 * static class Shard
+			 *
+			 * One key range [lo, hi] and its tree. A reshard retires the shard
+			 * (under its write lock) after publishing the layout that replaces it.
+			 */
+			static final class Shard {
+				final int lo;
+				final int hi;
+				final StampedLock lock = new StampedLock();
+				final AVLTree tree;
+				boolean retired; //guarded by lock
+
+				Shard(int lo, int hi, AVLTree tree) {
+					this.lo = lo;
+					this.hi = hi;
+					this.tree = tree;
+				}
+			}
+
+			//the index of the shard whose range holds k - O(log(shards))
+			private static int route(Shard[] layout, int k) {
+				int low = 0;
+				int high = layout.length - 1;
+				while(low < high) {
+					int mid = (low + high + 1) >>> 1;
+					if(layout[mid].lo <= k) {
+						low = mid;
+					}else {
+						high = mid - 1;
+					}
+				}
+				return low;
+			}
+
+			/**
+			 * public String search(int k)
+			 *
+			 * returns the info of an item with key k if it exists in the map
+			 * otherwise, returns null
+			 */
+			public String search(int k) {
+				while(true) {
+					Shard[] layout = this.shards;
+					Shard shard = layout[route(layout, k)];
+					long stamp = shard.lock.readLock();
+					try {
+						if(!shard.retired) {
+							return shard.tree.sharedSearch(k);
+						}
+					}finally {
+						shard.lock.unlockRead(stamp);
+					}
+				}
+			}
+
+			/**
+			 * public int insert(int k, String i)
+			 *
+			 * AVLTree.insert on the shard of k, under that shard's write lock.
+			 */
+			public int insert(int k, String i) {
+				while(true) {
+					Shard[] layout = this.shards;
+					Shard shard = layout[route(layout, k)];
+					long stamp = shard.lock.writeLock();
+					try {
+						if(!shard.retired) {
+							return shard.tree.insert(k, i);
+						}
+					}finally {
+						shard.lock.unlockWrite(stamp);
+					}
+				}
+			}
+
+			/**
+			 * public int delete(int k)
+			 *
+			 * AVLTree.delete on the shard of k, under that shard's write lock.
+			 */
+			public int delete(int k) {
+				while(true) {
+					Shard[] layout = this.shards;
+					Shard shard = layout[route(layout, k)];
+					long stamp = shard.lock.writeLock();
+					try {
+						if(!shard.retired) {
+							return shard.tree.delete(k);
+						}
+					}finally {
+						shard.lock.unlockWrite(stamp);
+					}
+				}
+			}
+
+			/**
+			 * interface ShardVisitor
+			 *
+			 * Receives one shard's tree, read locked, and the part [lo, hi] of the
+			 * scanned range that falls into it.
+			 */
+			interface ShardVisitor {
+				void visit(AVLTree tree, int lo, int hi);
+			}
+
+			//passes the shards overlapping [lo, hi] to visitor in key order, each under its read lock
+			private void scan(int lo, int hi, ShardVisitor visitor) {
+				int from = lo;
+				while(from <= hi) {
+					Shard[] layout = this.shards;
+					Shard shard = layout[route(layout, from)];
+					long stamp = shard.lock.readLock();
+					try {
+						if(shard.retired) {
+							continue;
+						}
+						visitor.visit(shard.tree, from, Math.min(hi, shard.hi));
+					}finally {
+						shard.lock.unlockRead(stamp);
+					}
+					if(shard.hi >= hi) {
+						return;
+					}
+					from = shard.hi + 1;
+				}
+			}
+
+			/**
+			 * public int rangeCount(int lo, int hi)
+			 *
+			 * Returns the number of keys k in the map with lo <= k <= hi.
+			 * complexity O(s*log(n)) for the s shards overlapping the range
+			 */
+			public int rangeCount(int lo, int hi) {
+				int[] count = new int[1];
+				scan(lo, hi, (tree, from, to) -> count[0] += tree.rangeCount(from, to));
+				return count[0];
+			}
+
+			/**
+			 * public void rangeForEach(int lo, int hi, KeyInfoConsumer consumer)
+			 *
+			 * Passes every item with lo <= key <= hi to consumer, in key order.
+			 * consumer runs under the read lock of the current shard, so it must not
+			 * write to this map.
+			 * complexity O(s*log(n) + k) for k items in s shards
+			 */
+			public void rangeForEach(int lo, int hi, KeyInfoConsumer consumer) {
+				scan(lo, hi, (tree, from, to) -> tree.rangeForEach(from, to, consumer));
+			}
+
+			/**
+			 * public int size()
+			 *
+			 * Returns the number of items, summed shard by shard.
+			 */
+			public int size() {
+				int[] size = new int[1];
+				scan(Integer.MIN_VALUE, Integer.MAX_VALUE, (tree, from, to) -> size[0] += tree.size());
+				return size[0];
+			}
+
+			/**
+			 * public int[] keysToArray()
+			 *
+			 * Returns a sorted array of all keys, collected shard by shard.
+			 */
+			public int[] keysToArray() {
+				List<int[]> parts = new ArrayList<>();
+				scan(Integer.MIN_VALUE, Integer.MAX_VALUE, (tree, from, to) -> parts.add(tree.keysToArray()));
+				int length = 0;
+				for(int[] part : parts) {
+					length += part.length;
+				}
+				int[] keys = new int[length];
+				int index = 0;
+				for(int[] part : parts) {
+					System.arraycopy(part, 0, keys, index, part.length);
+					index += part.length;
+				}
+				return keys;
+			}
+
+			/**
+			 * public String[] infoToArray()
+			 *
+			 * Returns all info sorted by key, collected shard by shard.
+			 */
+			public String[] infoToArray() {
+				List<String[]> parts = new ArrayList<>();
+				scan(Integer.MIN_VALUE, Integer.MAX_VALUE, (tree, from, to) -> parts.add(tree.infoToArray()));
+				int length = 0;
+				for(String[] part : parts) {
+					length += part.length;
+				}
+				String[] info = new String[length];
+				int index = 0;
+				for(String[] part : parts) {
+					System.arraycopy(part, 0, info, index, part.length);
+					index += part.length;
+				}
+				return info;
+			}
+
+			/**
+			 * public int shardCount()
+			 *
+			 * Returns the current number of shards.
+			 */
+			public int shardCount() {
+				return this.shards.length;
+			}
+
+			/**
+			 * public int[] shardSizes()
+			 *
+			 * Returns the number of items in each shard, in key order.
+			 */
+			public int[] shardSizes() {
+				Shard[] layout = this.shards;
+				int[] sizes = new int[layout.length];
+				for(int i = 0; i < layout.length; i++) {
+					long stamp = layout[i].lock.readLock();
+					try {
+						sizes[i] = layout[i].tree.size();
+					}finally {
+						layout[i].lock.unlockRead(stamp);
+					}
+				}
+				return sizes;
+			}
+
+			/**
+			 * public synchronized boolean splitShard(int index)
+			 *
+			 * Splits the index'th shard at its median key into two shards.
+			 * Only that shard is locked meanwhile; reshards run one at a time.
+			 * Returns false if the shard has fewer than 2 items.
+			 * complexity O(log(n))
+			 */
+			public synchronized boolean splitShard(int index) {
+				Shard[] layout = this.shards;
+				Shard shard = layout[index];
+				long stamp = shard.lock.writeLock();
+				try {
+					if(shard.tree.size() < 2) {
+						return false;
+					}
+					IAVLNode median = shard.tree.select(shard.tree.size() / 2);
+					int key = median.getKey();
+					String info = median.getValue();
+					//split drops the median itself, it goes back in as the min of the upper half
+					AVLTree[] parts = shard.tree.split(key);
+					parts[1].insert(key, info);
+					Shard[] next = new Shard[layout.length + 1];
+					System.arraycopy(layout, 0, next, 0, index);
+					next[index] = new Shard(shard.lo, key - 1, parts[0]);
+					next[index + 1] = new Shard(key, shard.hi, parts[1]);
+					System.arraycopy(layout, index + 1, next, index + 2, layout.length - index - 1);
+					this.shards = next;
+					shard.retired = true;
+					return true;
+				}finally {
+					shard.lock.unlockWrite(stamp);
+				}
+			}
+
+			/**
+			 * public synchronized void mergeShards(int index)
+			 *
+			 * Merges the index'th shard with the one after it, joining their trees
+			 * around the smallest item of the second. Both shards are locked meanwhile.
+			 * complexity O(log(n))
+			 */
+			public synchronized void mergeShards(int index) {
+				Shard[] layout = this.shards;
+				Shard left = layout[index];
+				Shard right = layout[index + 1];
+				long leftStamp = left.lock.writeLock();
+				long rightStamp = right.lock.writeLock();
+				try {
+					AVLTree tree;
+					if(right.tree.empty()) {
+						tree = left.tree;
+					}else if(left.tree.empty()) {
+						tree = right.tree;
+					}else {
+						IAVLNode min = right.tree.min;
+						int key = min.getKey();
+						String info = min.getValue();
+						right.tree.delete(key);
+						tree = left.tree;
+						tree.join(tree.new AVLNode(key, info), right.tree);
+					}
+					Shard[] next = new Shard[layout.length - 1];
+					System.arraycopy(layout, 0, next, 0, index);
+					next[index] = new Shard(left.lo, right.hi, tree);
+					System.arraycopy(layout, index + 2, next, index + 1, layout.length - index - 2);
+					this.shards = next;
+					left.retired = true;
+					right.retired = true;
+				}finally {
+					right.lock.unlockWrite(rightStamp);
+					left.lock.unlockWrite(leftStamp);
+				}
+			}
+
+			/**
+			 * public synchronized int rebalance(int maxShardSize)
+			 *
+			 * Splits every shard with more than maxShardSize items and merges neighbours
+			 * holding at most maxShardSize/2 items together (the merged shard stays well
+			 * below the split threshold, so the two never undo each other).
+			 * Returns the number of splits and merges done.
+			 */
+			public synchronized int rebalance(int maxShardSize) {
+				int steps = 0;
+				int[] sizes = shardSizes();
+				for(int i = sizes.length - 1; i >= 0; i--) {
+					if(sizes[i] > maxShardSize && splitShard(i)) {
+						steps++;
+						i += 2; //look at both halves again
+						sizes = shardSizes();
+					}
+				}
+				for(int i = 0; i + 1 < sizes.length; ) {
+					if(sizes[i] + sizes[i + 1] <= maxShardSize / 2) {
+						mergeShards(i);
+						steps++;
+						sizes = shardSizes();
+					}else {
+						i++;
+					}
+				}
+				return steps;
+			}
+		}
+
+		/**
+		 * public static class PersistentAVLTree
+		 *
+		 * An immutable AVL tree. insert, delete, split and join return new versions
+		 * that copy only the O(log(n)) nodes on the changed path and share every
+		 * other subtree with the old version, which stays valid and unchanged.
+		 * Nodes have no parent pointers (a shared subtree has many parents), so
+		 * the algorithms recurse from the root. Any number of threads may read
+		 * any version without locking; see VersionedAVLTree for publishing them.
+		 */
+		public static class PersistentAVLTree {
+			private static final PersistentAVLTree EMPTY = new PersistentAVLTree(null);
+
+			private final Node root; // null for the empty tree
+
+			private PersistentAVLTree(Node root) {
+				this.root = root;
+			}
+
+			/**
+			 * public static PersistentAVLTree emptyTree()
+			 *
+			 * Returns the empty tree.
+			 */
+			public static PersistentAVLTree emptyTree() {
+				return EMPTY;
+			}
+
+			private static PersistentAVLTree of(Node root) {
+				return (root == null) ? EMPTY : new PersistentAVLTree(root);
+			}
+
+			/**
+			 * public boolean empty()
+			 *
+			 * returns true if and only if the tree is empty
+			 */
+			public boolean empty() {
+				return root == null;
+			}
+
+			/**
+			 * public int size()
+			 *
+			 * Returns the number of nodes in the tree.
+			 */
+			public int size() {
+				return size(root);
+			}
+
+			/**
+			 * public String search(int k)
+			 *
+			 * returns the info of an item with key k if it exists in the tree
+			 * otherwise, returns null
+			 * complexity O(log(n))
+			 */
+			public String search(int k) {
+				Node node = root;
+				while(node != null) {
+					if(node.key == k) {
+						return node.info;
+					}
+					node = (k < node.key) ? node.left : node.right;
+				}
+				return null;
+			}
+
+			/**
+			 * public String min()
+			 *
+			 * Returns the info of the item with the smallest key in the tree,
+			 * or null if the tree is empty
+			 * complexity O(log(n))
+			 */
+			public String min() {
+				Node node = root;
+				if(node == null) {
+					return null;
+				}
+				while(node.left != null) {
+					node = node.left;
+				}
+				return node.info;
+			}
+
+			/**
+			 * public String max()
+			 *
+			 * Returns the info of the item with the largest key in the tree,
+			 * or null if the tree is empty
+			 * complexity O(log(n))
+			 */
+			public String max() {
+				Node node = root;
+				if(node == null) {
+					return null;
+				}
+				while(node.right != null) {
+					node = node.right;
+				}
+				return node.info;
+			}
+
+			/**
+			 * public PersistentAVLTree insert(int k, String i)
+			 *
+			 * Returns a version that also holds the item (k, i),
+			 * or this version if it already has an item with key k.
+			 * complexity O(log(n)) time and new nodes
+			 */
+			public PersistentAVLTree insert(int k, String i) {
+				Node newRoot = insert(root, k, i);
+				return (newRoot == root) ? this : new PersistentAVLTree(newRoot);
+			}
+
+			/**
+			 * public PersistentAVLTree delete(int k)
+			 *
+			 * Returns a version without the item with key k,
+			 * or this version if it has no item with key k.
+			 * complexity O(log(n)) time and new nodes
+			 */
+			public PersistentAVLTree delete(int k) {
+				Node newRoot = delete(root, k);
+				return (newRoot == root) ? this : of(newRoot);
+			}
+
+			/**
+			 * public PersistentAVLTree[] split(int x)
+			 *
+			 * Returns [t1, t2] with keys(t1) < x < keys(t2). This version is unchanged.
+			 * complexity O(log(n)) time and new nodes
+			 */
+			public PersistentAVLTree[] split(int x) {
+				Node[] parts = split(root, x);
+				PersistentAVLTree[] trees = {of(parts[0]), of(parts[2])};
+				return trees;
+			}
+
+			/**
+			 * public PersistentAVLTree join(int k, String i, PersistentAVLTree t)
+			 *
+			 * Returns the version holding this tree, the item (k, i) and t.
+			 * Both input versions are unchanged.
+			 * precondition: keys(k,t) < keys() or keys(k,t) > keys()
+			 * complexity O(|height difference| + 1) time and new nodes
+			 */
+			public PersistentAVLTree join(int k, String i, PersistentAVLTree t) {
+				boolean thisIsSmaller;
+				if(root != null) {
+					thisIsSmaller = root.key < k;
+				}else {
+					thisIsSmaller = t.root == null || t.root.key > k;
+				}
+				Node joined = thisIsSmaller ? join(root, k, i, t.root) : join(t.root, k, i, root);
+				return new PersistentAVLTree(joined);
+			}
+
+			/**
+			 * public int[] keysToArray()
+			 *
+			 * Returns a sorted array which contains all keys in the tree.
+			 * complexity O(n)
+			 */
+			public int[] keysToArray() {
+				int[] keys = new int[size()];
+				int i = 0;
+				Node[] stack = new Node[height(root) + 1];
+				int depth = 0;
+				Node node = root;
+				while(node != null || depth > 0) {
+					while(node != null) {
+						stack[depth++] = node;
+						node = node.left;
+					}
+					node = stack[--depth];
+					keys[i++] = node.key;
+					node = node.right;
+				}
+				return keys;
+			}
+
+			/**
+			 * public String[] infoToArray()
+			 *
+			 * Returns all info in the tree, sorted by their respective keys.
+			 * complexity O(n)
+			 */
+			public String[] infoToArray() {
+				String[] info = new String[size()];
+				int i = 0;
+				Node[] stack = new Node[height(root) + 1];
+				int depth = 0;
+				Node node = root;
+				while(node != null || depth > 0) {
+					while(node != null) {
+						stack[depth++] = node;
+						node = node.left;
+					}
+					node = stack[--depth];
+					info[i++] = node.info;
+					node = node.right;
+				}
+				return info;
+			}
+
+			private static int height(Node node) {
+				return (node == null) ? -1 : node.height;
+			}
+
+			private static int size(Node node) {
+				return (node == null) ? 0 : node.size;
+			}
+
+			//the subtree of node with (k, i) added, node itself if k is there - O(log(n))
+			private static Node insert(Node node, int k, String i) {
+				if(node == null) {
+					return new Node(k, i, null, null);
+				}
+				if(k == node.key) {
+					return node;
+				}
+				if(k < node.key) {
+					Node left = insert(node.left, k, i);
+					return (left == node.left) ? node : balance(node.key, node.info, left, node.right);
+				}
+				Node right = insert(node.right, k, i);
+				return (right == node.right) ? node : balance(node.key, node.info, node.left, right);
+			}
+
+			//the subtree of node without k, node itself if k isn't there - O(log(n))
+			private static Node delete(Node node, int k) {
+				if(node == null) {
+					return null;
+				}
+				if(k < node.key) {
+					Node left = delete(node.left, k);
+					return (left == node.left) ? node : balance(node.key, node.info, left, node.right);
+				}
+				if(k > node.key) {
+					Node right = delete(node.right, k);
+					return (right == node.right) ? node : balance(node.key, node.info, node.left, right);
+				}
+				if(node.left == null) {
+					return node.right;
+				}
+				if(node.right == null) {
+					return node.left;
+				}
+				Node successor = node.right;
+				while(successor.left != null) {
+					successor = successor.left;
+				}
+				return balance(successor.key, successor.info, node.left, delete(node.right, successor.key));
+			}
+
+			//[keys < x, the node with key x or null, keys > x] - O(log(n))
+			private static Node[] split(Node node, int x) {
+				if(node == null) {
+					return new Node[3];
+				}
+				if(x == node.key) {
+					Node[] parts = {node.left, node, node.right};
+					return parts;
+				}
+				Node[] parts;
+				if(x < node.key) {
+					parts = split(node.left, x);
+					parts[2] = join(parts[2], node.key, node.info, node.right);
+				}else {
+					parts = split(node.right, x);
+					parts[0] = join(node.left, node.key, node.info, parts[0]);
+				}
+				return parts;
+			}
+
+			//left + (k, i) + right, keys(left) < k < keys(right) - O(|height difference| + 1)
+			private static Node join(Node left, int k, String i, Node right) {
+				if(height(left) > height(right) + 1) {
+					return joinRight(left, k, i, right);
+				}
+				if(height(right) > height(left) + 1) {
+					return joinLeft(left, k, i, right);
+				}
+				return new Node(k, i, left, right);
+			}
+
+			//join when left is higher - hangs (k, i, right) on the right spine of left
+			private static Node joinRight(Node left, int k, String i, Node right) {
+				if(height(left.right) <= height(right) + 1) {
+					Node joined = new Node(k, i, left.right, right);
+					if(joined.height <= height(left.left) + 1) {
+						return new Node(left.key, left.info, left.left, joined);
+					}
+					return rotateLeft(new Node(left.key, left.info, left.left, rotateRight(joined)));
+				}
+				Node joined = joinRight(left.right, k, i, right);
+				Node node = new Node(left.key, left.info, left.left, joined);
+				return (joined.height <= height(left.left) + 1) ? node : rotateLeft(node);
+			}
+
+			//join when right is higher - hangs (left, k, i) on the left spine of right
+			private static Node joinLeft(Node left, int k, String i, Node right) {
+				if(height(right.left) <= height(left) + 1) {
+					Node joined = new Node(k, i, left, right.left);
+					if(joined.height <= height(right.right) + 1) {
+						return new Node(right.key, right.info, joined, right.right);
+					}
+					return rotateRight(new Node(right.key, right.info, rotateLeft(joined), right.right));
+				}
+				Node joined = joinLeft(left, k, i, right.left);
+				Node node = new Node(right.key, right.info, joined, right.right);
+				return (joined.height <= height(right.right) + 1) ? node : rotateRight(node);
+			}
+
+			//a node for (k, i) over left and right, rotated if their heights differ by 2 - O(1)
+			private static Node balance(int k, String i, Node left, Node right) {
+				if(height(left) > height(right) + 1) {
+					if(height(left.left) >= height(left.right)) {
+						return rotateRight(new Node(k, i, left, right));
+					}
+					return rotateRight(new Node(k, i, rotateLeft(left), right));
+				}
+				if(height(right) > height(left) + 1) {
+					if(height(right.right) >= height(right.left)) {
+						return rotateLeft(new Node(k, i, left, right));
+					}
+					return rotateLeft(new Node(k, i, left, rotateRight(right)));
+				}
+				return new Node(k, i, left, right);
+			}
+
+			//copies of node and its left child after a right rotation - O(1)
+			private static Node rotateRight(Node node) {
+				Node left = node.left;
+				return new Node(left.key, left.info, left.left, new Node(node.key, node.info, left.right, node.right));
+			}
+
+			//copies of node and its right child after a left rotation - O(1)
+			private static Node rotateLeft(Node node) {
+				Node right = node.right;
+				return new Node(right.key, right.info, new Node(node.key, node.info, node.left, right.left), right.right);
+			}
+
+			/**
+			 * static class Node
+			 *
+			 * An immutable node; height and size are computed once from the children.
+			 */
+			static final class Node {
+				final int key;
+				final String info;
+				final int height;
+				final int size;
+				final Node left;
+				final Node right;
+
+				Node(int key, String info, Node left, Node right) {
+					this.key = key;
+					this.info = info;
+					this.left = left;
+					this.right = right;
+					this.height = 1 + Math.max(height(left), height(right));
+					this.size = size(left) + size(right) + 1;
+				}
+			}
+		}
+
+		/**
+		 * public static class VersionedAVLTree
+		 *
+		 * The current PersistentAVLTree behind an AtomicReference. Writers build the
+		 * next version from the current one and publish it with compare-and-set;
+		 * snapshot() hands out the current version in O(1), and readers traverse it
+		 * without locks while writers keep publishing newer versions.
+		 */
+		public static class VersionedAVLTree {
+			private final AtomicReference<PersistentAVLTree> current = new AtomicReference<>(PersistentAVLTree.emptyTree());
+
+			/**
+			 * public PersistentAVLTree snapshot()
+			 *
+			 * Returns the current version, which never changes afterwards - O(1).
+			 */
+			public PersistentAVLTree snapshot() {
+				return current.get();
+			}
+
+			/**
+			 * public String search(int k)
+			 *
+			 * search in the current version, without locking
+			 */
+			public String search(int k) {
+				return current.get().search(k);
+			}
+
+			/**
+			 * public boolean insert(int k, String i)
+			 *
+			 * publishes a version with the item (k, i).
+			 * returns false if an item with key k already exists.
+			 */
+			public boolean insert(int k, String i) {
+				while(true) {
+					PersistentAVLTree version = current.get();
+					PersistentAVLTree next = version.insert(k, i);
+					if(next == version) {
+						return false;
+					}
+					if(current.compareAndSet(version, next)) {
+						return true;
+					}
+				}
+			}
+
+			/**
+			 * public boolean delete(int k)
+			 *
+			 * publishes a version without the item with key k.
+			 * returns false if there is no item with key k.
+			 */
+			public boolean delete(int k) {
+				while(true) {
+					PersistentAVLTree version = current.get();
+					PersistentAVLTree next = version.delete(k);
+					if(next == version) {
+						return false;
+					}
+					if(current.compareAndSet(version, next)) {
+						return true;
+					}
+				}
+			}
+
+			/**
+			 * public PersistentAVLTree update(UnaryOperator<PersistentAVLTree> change)
+			 *
+			 * publishes change(current version), retrying if another writer published
+			 * first, and returns the published version. change may be called more than once.
+			 */
+			public PersistentAVLTree update(UnaryOperator<PersistentAVLTree> change) {
+				return current.updateAndGet(change);
+			}
+		}
+
+		/**
+		 * abstract static class KeyedAVLTree<T, N, V>
+		 *
+		 * The AVL tree behind LongAVLTree and ComparatorAVLTree. Nodes have parent
+		 * pointers and subtree sizes, and a missing child is null, so every key value
+		 * is usable. All the structural work is here and takes nodes, ordered by
+		 * compare(N, N): linking, retrace, rotations, join, split, select, rank and the
+		 * in-order walk. A subclass brings its key type, the descent to a key and the
+		 * public methods that take keys, so a long key is never boxed.
+		 * T is the subclass itself, N its node and V the type of the info.
+		 */
+		abstract static class KeyedAVLTree<T extends KeyedAVLTree<T, N, V>, N extends KeyedNode<N, V>, V> implements Iterable<N> {
+			N root; // null for the empty tree
+
+			//an empty tree of the same kind (and order)
+			abstract T newTree();
+
+			//<0, 0 or >0 as the key of a is below, equal to or above the key of b
+			abstract int compare(N a, N b);
+
+			/**
+			 * public boolean empty()
+			 *
+			 * returns true if and only if the tree is empty
+			 */
+			public boolean empty() {
+				return root == null;
+			}
+
+			/**
+			 * public int size()
+			 *
+			 * Returns the number of nodes in the tree.
+			 */
+			public int size() {
+				return size(root);
+			}
+
+			/**
+			 * public V min()
+			 *
+			 * Returns the info of the item with the smallest key in the tree,
+			 * or null if the tree is empty
+			 * complexity O(log(n))
+			 */
+			public V min() {
+				return (root == null) ? null : leftmost(root).value;
+			}
+
+			/**
+			 * public V max()
+			 *
+			 * Returns the info of the item with the largest key in the tree,
+			 * or null if the tree is empty
+			 * complexity O(log(n))
+			 */
+			public V max() {
+				return (root == null) ? null : rightmost(root).value;
+			}
+
+			/**
+			 * public N select(int i)
+			 *
+			 * Returns the node with the i-th smallest key in the tree (i counts from 0),
+			 * or null if i < 0 or i >= size().
+			 * complexity O(log(n))
+			 */
+			public N select(int i) {
+				if(i < 0 || i >= size()) {
+					return null;
+				}
+				N node = root;
+				while(true) {
+					int leftSize = size(node.left);
+					if(i < leftSize) {
+						node = node.left;
+					}else if(i == leftSize) {
+						return node;
+					}else {
+						i -= leftSize + 1;
+						node = node.right;
+					}
+				}
+			}
+
+			/**
+			 * public Iterator<N> iterator()
+			 *
+			 * Returns a lazy iterator over the nodes of the tree in key order.
+			 * The tree must not be modified while the iterator is in use.
+			 * complexity O(log(n)) to create, amortized O(1) per node
+			 */
+			public Iterator<N> iterator() {
+				return new Iterator<N>() {
+					private N next = (root == null) ? null : leftmost(root);
+
+					public boolean hasNext() {
+						return next != null;
+					}
+
+					public N next() {
+						if(next == null) {
+							throw new NoSuchElementException();
+						}
+						N node = next;
+						next = successor(node);
+						return node;
+					}
+				};
+			}
+
+			/**
+			 * @param node - the end of the search for a key, null in an empty tree
+			 * @param side - <0, 0 or >0 as the key is below, at or above the key of node
+			 * @return [t1, t2] with the keys below and above the key; node is dropped if side == 0
+			 *
+			 * joins the subtrees hanging off the path from node to the root into t1 and t2,
+			 * like AVLTree.split. This tree is consumed.
+			 * complexity - O(log(n))
+			 */
+			T[] splitAt(N node, int side) {
+				T low = newTree();
+				T high = newTree();
+				N current = node;
+				boolean below = side > 0; // the key of current is below the split key
+				if(node != null && side == 0) {
+					low.root = orphan(node.left);
+					high.root = orphan(node.right);
+					current = node.parent;
+					below = (current != null && current.right == node);
+					reset(node);
+				}
+				while(current != null) {
+					//current is reset by the join, so remember the way up first
+					N parent = current.parent;
+					boolean parentBelow = (parent != null && parent.right == current);
+					if(below) {
+						N left = orphan(current.left);
+						low.link(left, reset(current), low.root);
+					}else {
+						N right = orphan(current.right);
+						high.link(high.root, reset(current), right);
+					}
+					current = parent;
+					below = parentBelow;
+				}
+				root = null;
+				return pair(low, high);
+			}
+
+			/**
+			 * @param x - a node in no tree, with a key between the keys of t and this tree
+			 * @return |height of the tree - height of t| + 1, as AVLTree.join
+			 *
+			 * joins t and x into this tree and empties t.
+			 * complexity - O(|height of the tree - height of t| + 1)
+			 */
+			int join(N x, T t) {
+				boolean thisIsSmaller = (root != null) ? compare(root, x) < 0 : (t.root == null || compare(t.root, x) > 0);
+				int cost = Math.abs(height(root) - height(t.root)) + 1;
+				N other = t.root;
+				t.root = null;
+				if(thisIsSmaller) {
+					link(root, x, other);
+				}else {
+					link(other, x, root);
+				}
+				return cost;
+			}
+
+			//makes the roots left and right (either may be null) and x between them one tree,
+			//which becomes this one, by hanging x off the spine of the taller - O(|height difference| + 1)
+			void link(N left, N x, N right) {
+				if(height(left) > height(right) + 1) {
+					root = left;
+					N parent = left;
+					while(height(parent.right) > height(right) + 1) {
+						parent = parent.right;
+					}
+					attach(parent.right, x, right);
+					parent.right = x;
+					x.parent = parent;
+					retrace(parent);
+				}else if(height(right) > height(left) + 1) {
+					root = right;
+					N parent = right;
+					while(height(parent.left) > height(left) + 1) {
+						parent = parent.left;
+					}
+					attach(left, x, parent.left);
+					parent.left = x;
+					x.parent = parent;
+					retrace(parent);
+				}else {
+					attach(left, x, right);
+					x.parent = null;
+					root = x;
+				}
+			}
+
+			//makes left and right the children of x - O(1)
+			private static <N extends KeyedNode<N, V>, V> void attach(N left, N x, N right) {
+				x.left = left;
+				x.right = right;
+				if(left != null) {
+					left.parent = x;
+				}
+				if(right != null) {
+					right.parent = x;
+				}
+				x.update();
+			}
+
+			//links node in as the left or right child of parent (the end of the search for its key), or as the root
+			//returns the number of rebalancing operations - O(log(n))
+			int insertAt(N parent, N node, boolean right) {
+				node.parent = parent;
+				if(parent == null) {
+					root = node;
+					return 0;
+				}
+				if(right) {
+					parent.right = node;
+				}else {
+					parent.left = node;
+				}
+				return retrace(parent);
+			}
+
+			//unlinks node; a node with two children is replaced by its successor
+			//returns the number of rebalancing operations - O(log(n))
+			int deleteNode(N node) {
+				N lowest; // the lowest node whose subtree lost a node
+				if(node.left != null && node.right != null) {
+					N successor = leftmost(node.right);
+					lowest = successor;
+					if(successor.parent != node) {
+						lowest = successor.parent;
+						replaceChild(successor.parent, successor, successor.right);
+						successor.right = node.right;
+						node.right.parent = successor;
+					}
+					successor.left = node.left;
+					node.left.parent = successor;
+					successor.height = node.height;
+					replaceChild(node.parent, node, successor);
+				}else {
+					lowest = node.parent;
+					replaceChild(node.parent, node, (node.left != null) ? node.left : node.right);
+				}
+				reset(node);
+				return retrace(lowest);
+			}
+
+			//fixes sizes and heights from node up to the root, rotating where a node's children
+			//differ by 2 in height; returns the height changes and rotations - O(log(n))
+			int retrace(N node) {
+				int steps = 0;
+				while(node != null) {
+					//a rotation moves node down, its old parent is the next to fix
+					N parent = node.parent;
+					int balance = height(node.left) - height(node.right);
+					if(balance > 1) {
+						if(height(node.left.left) < height(node.left.right)) {
+							rotateLeft(node.left);
+							steps++;
+						}
+						rotateRight(node);
+						steps++;
+					}else if(balance < -1) {
+						if(height(node.right.right) < height(node.right.left)) {
+							rotateRight(node.right);
+							steps++;
+						}
+						rotateLeft(node);
+						steps++;
+					}else {
+						int oldHeight = node.height;
+						node.update();
+						if(node.height != oldHeight) {
+							steps++;
+						}
+					}
+					node = parent;
+				}
+				return steps;
+			}
+
+			private void rotateRight(N node) {
+				N top = node.left;
+				node.left = top.right;
+				if(top.right != null) {
+					top.right.parent = node;
+				}
+				replaceChild(node.parent, node, top);
+				top.right = node;
+				node.parent = top;
+				node.update();
+				top.update();
+			}
+
+			private void rotateLeft(N node) {
+				N top = node.right;
+				node.right = top.left;
+				if(top.left != null) {
+					top.left.parent = node;
+				}
+				replaceChild(node.parent, node, top);
+				top.left = node;
+				node.parent = top;
+				node.update();
+				top.update();
+			}
+
+			//puts child (may be null) in the place of old under parent, or at the root if parent is null - O(1)
+			private void replaceChild(N parent, N old, N child) {
+				if(parent == null) {
+					root = child;
+				}else if(parent.left == old) {
+					parent.left = child;
+				}else {
+					parent.right = child;
+				}
+				if(child != null) {
+					child.parent = parent;
+				}
+			}
+
+			//the number of nodes with keys below the key of node - O(log(n))
+			static <N extends KeyedNode<N, V>, V> int rankOf(N node) {
+				int rank = size(node.left);
+				for(N parent = node.parent; parent != null; node = parent, parent = parent.parent) {
+					if(parent.right == node) {
+						rank += size(parent.left) + 1;
+					}
+				}
+				return rank;
+			}
+
+			static <N extends KeyedNode<N, V>, V> N leftmost(N node) {
+				while(node.left != null) {
+					node = node.left;
+				}
+				return node;
+			}
+
+			static <N extends KeyedNode<N, V>, V> N rightmost(N node) {
+				while(node.right != null) {
+					node = node.right;
+				}
+				return node;
+			}
+
+			//the node with the next key, or null - amortized O(1)
+			static <N extends KeyedNode<N, V>, V> N successor(N node) {
+				if(node.right != null) {
+					return leftmost(node.right);
+				}
+				while(node.parent != null && node.parent.right == node) {
+					node = node.parent;
+				}
+				return node.parent;
+			}
+
+			//node as a tree of its own - O(1)
+			private static <N extends KeyedNode<N, V>, V> N orphan(N node) {
+				if(node != null) {
+					node.parent = null;
+				}
+				return node;
+			}
+
+			//node as a single-node tree, ready for link - O(1)
+			private static <N extends KeyedNode<N, V>, V> N reset(N node) {
+				node.left = null;
+				node.right = null;
+				node.parent = null;
+				node.height = 0;
+				node.size = 1;
+				return node;
+			}
+
+			//the array [low, high], of the runtime class of the trees newTree() makes - O(1)
+			private static <T> T[] pair(T low, T high) {
+				@SuppressWarnings("unchecked")
+				T[] trees = (T[]) Array.newInstance(low.getClass(), 2);
+				trees[0] = low;
+				trees[1] = high;
+				return trees;
+			}
+
+			static int height(KeyedNode<?, ?> node) {
+				return (node == null) ? -1 : node.height;
+			}
+
+			static int size(KeyedNode<?, ?> node) {
+				return (node == null) ? 0 : node.size;
+			}
+		}
+
+		/**
+		 * abstract static class KeyedNode<N, V>
+		 *
+		 * A node of a KeyedAVLTree; the subclass N adds the key.
+		 */
+		abstract static class KeyedNode<N extends KeyedNode<N, V>, V> {
+			V value;
+			N left;
+			N right;
+			N parent;
+			int height = 0;
+			int size = 1;
+
+			KeyedNode(V value) {
+				this.value = value;
+			}
+
+			//returns node's info
+			public V getValue() {
+				return value;
+			}
+
+			//recomputes height and size from the children - O(1)
+			void update() {
+				height = 1 + Math.max(KeyedAVLTree.height(left), KeyedAVLTree.height(right));
+				size = KeyedAVLTree.size(left) + KeyedAVLTree.size(right) + 1;
+			}
+		}
+
+		/**
+		 * public static class LongAVLTree
+		 *
+		 * An AVL tree over primitive long keys (e.g. epoch-nanosecond timestamps)
+		 * with String info. Keys are compared as longs and never boxed; every long,
+		 * -1 included, is a valid key, since a missing child is null.
+		 * The tree itself is a KeyedAVLTree, shared with ComparatorAVLTree.
+		 */
+		public static class LongAVLTree extends KeyedAVLTree<LongAVLTree, LongAVLTree.LongNode, String> {
+			LongAVLTree newTree() {
+				return new LongAVLTree();
+			}
+
+			int compare(LongNode a, LongNode b) {
+				return Long.compare(a.key, b.key);
+			}
+
+			//the node with key k, or the last node of the search for it (null if the tree is empty) - O(log(n))
+			private LongNode position(long k) {
+				LongNode node = root;
+				while(node != null) {
+					LongNode next = (k < node.key) ? node.left : (k > node.key) ? node.right : null;
+					if(next == null) {
+						return node;
+					}
+					node = next;
+				}
+				return null;
+			}
+
+			/**
+			 * public String search(long k)
+			 *
+			 * returns the info of an item with key k if it exists in the tree
+			 * otherwise, returns null
+			 * complexity O(log(n))
+			 */
+			public String search(long k) {
+				LongNode node = position(k);
+				return (node != null && node.key == k) ? node.value : null;
+			}
+
+			/**
+			 * public int insert(long k, String i)
+			 *
+			 * inserts an item with key k and info i.
+			 * returns the number of rebalancing operations (height changes and rotations),
+			 * or -1 if an item with key k already exists in the tree.
+			 * complexity O(log(n))
+			 */
+			public int insert(long k, String i) {
+				LongNode parent = position(k);
+				if(parent != null && parent.key == k) {
+					return -1;
+				}
+				return insertAt(parent, new LongNode(k, i), parent != null && k > parent.key);
+			}
+
+			/**
+			 * public int delete(long k)
+			 *
+			 * deletes the item with key k if it exists.
+			 * returns the number of rebalancing operations (height changes and rotations),
+			 * or -1 if there is no item with key k.
+			 * complexity O(log(n))
+			 */
+			public int delete(long k) {
+				LongNode node = position(k);
+				if(node == null || node.key != k) {
+					return -1;
+				}
+				return deleteNode(node);
+			}
+
+			/**
+			 * public int rank(long k)
+			 *
+			 * Returns the number of keys in the tree that are smaller than k.
+			 * complexity O(log(n))
+			 */
+			public int rank(long k) {
+				return countBelow(k, false);
+			}
+
+			/**
+			 * public int rangeCount(long lo, long hi)
+			 *
+			 * Returns the number of keys k in the tree with lo <= k <= hi.
+			 * complexity O(log(n))
+			 */
+			public int rangeCount(long lo, long hi) {
+				if(lo > hi) {
+					return 0;
+				}
+				return countBelow(hi, true) - countBelow(lo, false);
+			}
+
+			//the number of keys < k, or <= k if inclusive - O(log(n))
+			private int countBelow(long k, boolean inclusive) {
+				LongNode node = position(k);
+				if(node == null) {
+					return 0;
+				}
+				return rankOf(node) + ((node.key < k || (inclusive && node.key == k)) ? 1 : 0);
+			}
+
+			/**
+			 * public LongAVLTree[] split(long x)
+			 *
+			 * splits the tree into 2 trees according to the key x, like AVLTree.split.
+			 * Returns an array [t1, t2] with keys(t1) < x < keys(t2); the item with key x,
+			 * if there is one, is in neither.
+			 * postcondition: this tree is consumed by the split
+			 * complexity O(log(n))
+			 */
+			public LongAVLTree[] split(long x) {
+				LongNode node = position(x);
+				return splitAt(node, (node == null) ? 0 : Long.compare(x, node.key));
+			}
+
+			/**
+			 * public int join(long k, String i, LongAVLTree t)
+			 *
+			 * joins t and a new item (k, i) with the tree, and empties t.
+			 * Returns the complexity of the operation (|tree.rank - t.rank| + 1).
+			 * precondition: keys(t) < k < keys() or keys() < k < keys(t). t/tree might be empty.
+			 * complexity O(|tree.rank - t.rank| + 1)
+			 */
+			public int join(long k, String i, LongAVLTree t) {
+				return join(new LongNode(k, i), t);
+			}
+
+			/**
+			 * public long[] keysToArray()
+			 *
+			 * Returns a sorted array which contains all keys in the tree.
+			 * complexity O(n)
+			 */
+			public long[] keysToArray() {
+				long[] keys = new long[size()];
+				int i = 0;
+				for(LongNode node : this) {
+					keys[i++] = node.key;
+				}
+				return keys;
+			}
 
-	    /**
-	     * @param1 leftTree is a subtree with value smaller than x.getKey
-	     * @param2 rightTree is a subtere with values bigger than x.getKey
-	     * @param3 x a node for joining the two subtrees
-	     * 
-	     * the function joins leftTree and rightTree have equal heights
-	     * complexity - O(log(n))
-	     */
-		private void joinEqualHeight(IAVLNode x, AVLTree t) {
-			if(t.getRoot().getKey()<this.getRoot().getKey()) {
-				//t < x < this
-				x.setLeft(t.getRoot());
-				x.setRight(this.getRoot());
-				t.getRoot().setParent(x);
-				this.getRoot().setParent(x);
-				this.root =  x;
-				this.size = this.size + t.size + 1;
-				this.min = t.min;
-			}else if(t.getRoot().getKey()>this.getRoot().getKey()) {
-				//this < x < t
-				x.setLeft(this.getRoot());
-				x.setRight(t.getRoot());
-				this.getRoot().setParent(x);
-				t.getRoot().setParent(x);
-				this.root = x;
-				this.size = this.size + t.size + 1;
-				this.max = t.max;
-			}x.setHeight(x.getLeft().getHeight() + 1);
-			x.setSize(x.getLeft().getSize() + x.getRight().getSize()+1);
-	}
-		
-		/**
-		 * 
-		 * @param x - node to join
-		 * @param other - other AVLTree to join
-		 * 
-		 * this AVLTree has smaller values than other
-		 */
-		private void joinBiggerKeyTree(IAVLNode x, AVLTree other) {
-			this.max = other.max;
-	        this.size = this.size + other.size() + 1;
-	        if (other.getRoot().getHeight() > this.getRoot().getHeight()) { 
-	        	//rightSubtree(other) has higher Height
-	        	int k = this.root.getHeight();
-	            IAVLNode node = other.getRoot();
-	            while (node.getHeight() > k) {
-	                node = node.getLeft();
-	            }rightHigher_other(node, x, other);
-	        } else { 
-	        	//leftSubtree(this) has higher Height
-	            IAVLNode node = this.getRoot();
-	            while (node.getHeight() > other.getRoot().getHeight()) {
-	                node = node.getRight();
-	            }
-	            rightLower_other(node, x, other);
-	        }
-	    }
-
-		
-		/**
-		 * 
-		 * @param x - node to join
-		 * @param other - AVLTree to join
-		 * this AVLTree has bigger values than other AVLTree
-		 */
-		private void joinSmallerKeyTree(IAVLNode x, AVLTree other) {
-	        int cost = Math.abs(this.getRoot().getHeight() - other.getRoot().getHeight()) + 1;
-	        if (other.getRoot().getHeight() < this.getRoot().getHeight()) { 
-	        	//rightSubtree(this) is higher than leftSubtree(other)
-	            IAVLNode node = this.getRoot();
-	            while (node.getHeight() > other.getRoot().getHeight()) {
-	                node = node.getLeft();
-	            }
-	            rightHigher_this(node, x, other);
-	        } else { 
-	        	//rightSubtree(this) is lwoer than leftSubtree(other)
-	            IAVLNode node = other.getRoot();
-	            while (node.getHeight() > this.getRoot().getHeight()) {
-	                node = node.getRight();
-	            }rightLower_this(node, x, other);
-	        }
-	        this.min = other.min;
-	        this.size = this.size + other.size() + 1;
-	    }
+			/**
+			 * public String[] infoToArray()
+			 *
+			 * Returns all info in the tree, sorted by their respective keys.
+			 * complexity O(n)
+			 */
+			public String[] infoToArray() {
+				String[] info = new String[size()];
+				int i = 0;
+				for(LongNode node : this) {
+					info[i++] = node.value;
+				}
+				return info;
+			}
 
-		/**
-		 * 
-		 * @param node - a node from thisTree that we need to insert in
-		 * @param x - new node to insert
-		 * @param other - AVLTree to be joined to this
-		 * rightSubtree(other) has higher Height, leftSubtree(this) has smaller height
-		 */
-		private void rightHigher_other(IAVLNode node, IAVLNode x, AVLTree other) {
-			x.setRight(node);
-            x.setLeft(this.getRoot());
-            x.setParent(node.getParent());
-            this.getRoot().setParent(x);
-            IAVLNode parent = node.getParent();
-            node.setParent(x);
-            x.setSize(this.getRoot().getSize() + node.getSize() + 1);
-            x.setHeight(1 + Math.max(x.getLeft().getHeight(), x.getRight().getHeight()));
-            if (parent == null) {
-                this.root = x;
-            }else{
-                this.root = other.getRoot();
-                parent.setLeft(x);
-                while(node!=this.root) {
-                	node.updateSize(+1);
-                	node = node.getParent();
-                }node.updateSize(+1);
-                insert_rebalance(x);
-            }
-		}
-		
-		/**
-		 * 
-		 * @param node - a node from thisTree that we need to insert in
-		 * @param x - new node to insert
-		 * @param other - AVLTree to be joined to this
-		 * rightSubtree(other) has lower Height, leftSubtree(this) has higher height
-		 */
-		private void rightLower_other(IAVLNode node, IAVLNode x, AVLTree other) {
-			x.setLeft(node);
-			System.out.println(node.getKey());
-            x.setRight(other.getRoot());
-            x.setParent(node.getParent());
-            other.getRoot().setParent(x);
-            IAVLNode parent = node.getParent();
-            node.setParent(x);
-            x.setHeight(1 + Math.max(x.getLeft().getHeight(), x.getRight().getHeight()));
-            x.setSize(other.getRoot().getSize() + node.getSize() + 1);
-            if (parent == null) {
-                this.root = x;
-            } else {
-                parent.setRight(x);
-                while(node!=this.root) {
-                	node.updateSize(+1);
-                	node = node.getParent();
-                }node.updateSize(+1);
-                insert_rebalance(x);
-            }
+			/**
+			 * public static class LongNode
+			 *
+			 * A node with a primitive long key.
+			 */
+			public static final class LongNode extends KeyedNode<LongNode, String> {
+				final long key;
+
+				LongNode(long key, String info) {
+					super(info);
+					this.key = key;
+				}
+
+				//returns node's key
+				public long getKey() {
+					return key;
+				}
+			}
 		}
-		
+
 		/**
-		 * 
-		 * @param node - a node from thisTree that we need to insert in
-		 * @param x - new node to insert
-		 * @param other - AVLTree to be joined to this
-		 * rightSubtree(other) has lower Height, leftSubtree(this) has higher height
+		 * public static class ComparatorAVLTree<K, V>
+		 *
+		 * An AVL tree over any key type, ordered by a Comparator (or by the keys'
+		 * natural order). The same KeyedAVLTree as LongAVLTree; a missing child is
+		 * null, so every key value is usable. Null keys are not supported.
 		 */
-		private void rightHigher_this(IAVLNode node,IAVLNode x, AVLTree other) {
-			x.setRight(node);
-			x.setLeft(other.getRoot());
-			x.setParent(node.getParent());
-			other.getRoot().setParent(x);
-			IAVLNode parent = node.getParent();
-			node.setParent(x);
-			x.setHeight(1 + Math.max(x.getLeft().getHeight(), x.getRight().getHeight()));
-			x.setSize(other.getRoot().getSize() + node.getSize() + 1);
-			if (node == this.getRoot()) {
-				this.root = x;
-			} else {
-				parent.setLeft(x);
-				while(node!=this.root) {
-					node.updateSize(+1);
-					node = node.getParent();
-				}node.updateSize(+1);
-				insert_rebalance(x);
+		public static class ComparatorAVLTree<K, V> extends KeyedAVLTree<ComparatorAVLTree<K, V>, ComparatorAVLTree.Node<K, V>, V> {
+			private final Comparator<? super K> comparator;
+
+			public ComparatorAVLTree(Comparator<? super K> comparator) { //constructor
+				this.comparator = comparator;
+			}
+
+			/**
+			 * public static ComparatorAVLTree<K, V> naturalOrder()
+			 *
+			 * Returns an empty tree ordered by the natural order of the keys.
+			 */
+			public static <K extends Comparable<? super K>, V> ComparatorAVLTree<K, V> naturalOrder() {
+				return new ComparatorAVLTree<>(Comparator.<K>naturalOrder());
+			}
+
+			ComparatorAVLTree<K, V> newTree() {
+				return new ComparatorAVLTree<>(comparator);
+			}
+
+			int compare(Node<K, V> a, Node<K, V> b) {
+				return comparator.compare(a.key, b.key);
+			}
+
+			//the node with key k, or the last node of the search for it (null if the tree is empty),
+			//and in compared the comparison of k with its key - O(log(n)) comparisons
+			private Node<K, V> position(K k, int[] compared) {
+				Node<K, V> node = root;
+				while(node != null) {
+					int compare = comparator.compare(k, node.key);
+					Node<K, V> next = (compare < 0) ? node.left : (compare > 0) ? node.right : null;
+					if(next == null) {
+						compared[0] = compare;
+						return node;
+					}
+					node = next;
+				}
+				return null;
+			}
+
+			/**
+			 * public V search(K k)
+			 *
+			 * returns the value of an item with key k if it exists in the tree
+			 * otherwise, returns null
+			 * complexity O(log(n)) comparisons
+			 */
+			public V search(K k) {
+				int[] compared = new int[1];
+				Node<K, V> node = position(k, compared);
+				return (node != null && compared[0] == 0) ? node.value : null;
+			}
+
+			/**
+			 * public int insert(K k, V v)
+			 *
+			 * inserts an item with key k and value v.
+			 * returns the number of rebalancing operations (height changes and rotations),
+			 * or -1 if an item with key k already exists in the tree.
+			 * complexity O(log(n)) comparisons
+			 */
+			public int insert(K k, V v) {
+				int[] compared = new int[1];
+				Node<K, V> parent = position(k, compared);
+				if(parent != null && compared[0] == 0) {
+					return -1;
+				}
+				return insertAt(parent, new Node<>(k, v), compared[0] > 0);
+			}
+
+			/**
+			 * public int delete(K k)
+			 *
+			 * deletes the item with key k if it exists.
+			 * returns the number of rebalancing operations (height changes and rotations),
+			 * or -1 if there is no item with key k.
+			 * complexity O(log(n)) comparisons
+			 */
+			public int delete(K k) {
+				int[] compared = new int[1];
+				Node<K, V> node = position(k, compared);
+				if(node == null || compared[0] != 0) {
+					return -1;
+				}
+				return deleteNode(node);
+			}
+
+			/**
+			 * public int rank(K k)
+			 *
+			 * Returns the number of keys in the tree that are smaller than k.
+			 * complexity O(log(n)) comparisons
+			 */
+			public int rank(K k) {
+				return countBelow(k, false);
+			}
+
+			/**
+			 * public int rangeCount(K lo, K hi)
+			 *
+			 * Returns the number of keys k in the tree with lo <= k <= hi.
+			 * complexity O(log(n)) comparisons
+			 */
+			public int rangeCount(K lo, K hi) {
+				if(comparator.compare(lo, hi) > 0) {
+					return 0;
+				}
+				return countBelow(hi, true) - countBelow(lo, false);
+			}
+
+			//the number of keys < k, or <= k if inclusive - O(log(n)) comparisons
+			private int countBelow(K k, boolean inclusive) {
+				int[] compared = new int[1];
+				Node<K, V> node = position(k, compared);
+				if(node == null) {
+					return 0;
+				}
+				return rankOf(node) + ((compared[0] > 0 || (inclusive && compared[0] == 0)) ? 1 : 0);
+			}
+
+			/**
+			 * public ComparatorAVLTree<K, V>[] split(K x)
+			 *
+			 * splits the tree into 2 trees according to the key x, like AVLTree.split.
+			 * Returns an array [t1, t2] with keys(t1) < x < keys(t2); the item with key x,
+			 * if there is one, is in neither.
+			 * postcondition: this tree is consumed by the split
+			 * complexity O(log(n)) comparisons
+			 */
+			public ComparatorAVLTree<K, V>[] split(K x) {
+				int[] compared = new int[1];
+				return splitAt(position(x, compared), compared[0]);
+			}
+
+			/**
+			 * public int join(K k, V v, ComparatorAVLTree<K, V> t)
+			 *
+			 * joins t and a new item (k, v) with the tree, and empties t.
+			 * Returns the complexity of the operation (|tree.rank - t.rank| + 1).
+			 * precondition: keys(t) < k < keys() or keys() < k < keys(t). t/tree might be empty.
+			 * precondition: t has the same order as the tree
+			 * complexity O(|tree.rank - t.rank| + 1)
+			 */
+			public int join(K k, V v, ComparatorAVLTree<K, V> t) {
+				return join(new Node<>(k, v), t);
+			}
+
+			/**
+			 * public List<K> keys()
+			 *
+			 * Returns all keys in the tree in order.
+			 * complexity O(n)
+			 */
+			public List<K> keys() {
+				List<K> keys = new ArrayList<>(size());
+				forEach((k, v) -> keys.add(k));
+				return keys;
+			}
+
+			/**
+			 * public List<V> values()
+			 *
+			 * Returns all values in the tree, sorted by their respective keys.
+			 * complexity O(n)
+			 */
+			public List<V> values() {
+				List<V> values = new ArrayList<>(size());
+				forEach((k, v) -> values.add(v));
+				return values;
+			}
+
+			/**
+			 * public void forEach(BiConsumer<? super K, ? super V> action)
+			 *
+			 * Passes every item to action in key order.
+			 * complexity O(n)
+			 */
+			public void forEach(BiConsumer<? super K, ? super V> action) {
+				for(Node<K, V> node : this) {
+					action.accept(node.key, node.value);
+				}
+			}
+
+			/**
+			 * public static class Node<K, V>
+			 *
+			 * A node with an object key.
+			 */
+			public static final class Node<K, V> extends KeyedNode<Node<K, V>, V> {
+				final K key;
+
+				Node(K key, V value) {
+					super(value);
+					this.key = key;
+				}
+
+				//returns node's key
+				public K getKey() {
+					return key;
 				}
 			}
-		
-		/**
-		 * 
-		 * @param node - 
-		 * @param x - a node to insert
-		 * @param other - will be leftSubtree, and has higher rank
-		 */
-		private void rightLower_this(IAVLNode node, IAVLNode x, AVLTree other) {
-			x.setRight(this.getRoot());
-            x.setLeft(node);
-            x.setParent(node.getParent());
-            this.getRoot().setParent(x);
-            IAVLNode parent = node.getParent();
-            node.setParent(x);
-            x.setHeight(1 + Math.max(x.getLeft().getHeight(), x.getRight().getHeight()));
-            x.setSize(this.getRoot().getSize() + node.getSize() + 1);
-            if (node == other.getRoot()) {
-                this.root = x;
-            } else {
-                this.root = other.getRoot();
-                parent.setRight(x);
-                while(node!=this.root) {
-                	node.updateSize(+1);
-                	node = node.getParent();
-                }node.updateSize(+1);
-                insert_rebalance(x);
-            }
 		}
-		
+
 		/**
-		 * @param1 node x that we joined with
-		 * @param2 k, the height of the lower subtree
-		 * 
-		 * updates ancestor's heights after inserting the node x
+		 * public static class FrozenAVLTree
+		 *
+		 * A read-only copy of an AVLTree in the Eytzinger (breadth-first) layout:
+		 * the root at keys[1] and the children of keys[i] at keys[2i] and keys[2i+1].
+		 * The top levels of every search share a few cache lines, the next level to
+		 * visit is computed rather than loaded from a pointer, and the descent has no
+		 * data-dependent branch. Java exposes no prefetch instruction, so unlike the
+		 * C versions of this layout the search does not prefetch ahead.
 		 */
-		private void fixRankAfterInsert(IAVLNode x, int k) {
-			x.setHeight(Math.max(x.getLeft().getHeight(), x.getRight().getHeight())+1);
-			if(x.getParent()!=null && x.getParent().getHeight()==k+1) {
-				return;
-			}else {
-				insert_rebalance(x);
+		public static class FrozenAVLTree {
+			private final int size;
+			private final int[] keys; // Eytzinger order, keys[0] unused
+			private final String[] info; // info[i] belongs to keys[i]
+			
+			//lays out tree by filling the implicit positions in order from an in-order walk - O(n)
+			FrozenAVLTree(AVLTree tree) {
+				this.size = tree.size();
+				this.keys = new int[size + 1];
+				this.info = new String[size + 1];
+				fill(1, tree.min);
+			}
+			
+			//fills the subtree of position i from node on, returns the node after it - O(subtree size)
+			private IAVLNode fill(int i, IAVLNode node) {
+				if(i > size) {
+					return node;
+				}
+				node = fill(2 * i, node);
+				keys[i] = node.getKey();
+				info[i] = node.getValue();
+				return fill(2 * i + 1, successor(node));
+			}
+			
+			/**
+			 * public boolean empty()
+			 *
+			 * returns true if and only if the tree is empty
+			 */
+			public boolean empty() {
+				return size == 0;
+			}
+			
+			/**
+			 * public int size()
+			 *
+			 * Returns the number of items in the tree.
+			 */
+			public int size() {
+				return size;
+			}
+			
+			/**
+			 * public String search(int k)
+			 *
+			 * returns the info of an item with key k if it exists in the tree
+			 * otherwise, returns null
+			 * complexity O(log(n)), without branches in the descent
+			 */
+			public String search(int k) {
+				int i = 1;
+				while(i <= size) {
+					i = 2 * i + ((keys[i] < k) ? 1 : 0);
+				}
+				//strip the trailing right turns and the last left turn: the smallest key >= k
+				i >>>= Integer.numberOfTrailingZeros(~i) + 1;
+				return (i != 0 && keys[i] == k) ? info[i] : null;
 			}
-		}
 
-		public interface IAVLNode{	
-			public int getKey();
-			public void setKey(int k); 
-			public void setValue(String value);  
-			public boolean isRightChild(); 
-			public boolean hasTwoChildren(); 
-			public void decrementHeight(int i);
-			public void incrementHeight(int i);
-			public void updateSize(int i);
-			public int getSize();  
-			public void setSize(int i);
-			public String getValue();
-			public void setLeft(IAVLNode node); 
-			public IAVLNode getLeft();
-			public void setRight(IAVLNode node); 
-			public IAVLNode getRight(); 
-			public void setParent(IAVLNode node); 
-			public IAVLNode getParent(); 
-			public boolean isRealNode(); 
-	    	public void setHeight(int height);
-	    	public int getHeight(); 
-	    	public boolean isLeaf();
-	    	public boolean isUnaryNode();
-		}
+			/**
+			 * public int rank(int k)
+			 *
+			 * Returns the number of keys in the tree that are smaller than k,
+			 * as AVLTree.rank does on the source tree.
+			 * complexity O(log(n)^2) - the same descent as search, adding the size of
+			 * every left subtree passed, each computed from the layout in O(log(n))
+			 */
+			public int rank(int k) {
+				int count = 0;
+				int i = 1;
+				while(i <= size) {
+					if(keys[i] < k) {
+						count += subtreeSize(2 * i) + 1;
+						i = 2 * i + 1;
+					}else {
+						i = 2 * i;
+					}
+				}
+				return count;
+			}
 
-	   /**
-	   * public class AVLNode
-	   *
-	   * If you wish to implement classes other than AVLTree
-	   * (for example AVLNode), do it in this file, not in 
-	   * another file.
-	   * This class can and must be modified.
-	   * (It must implement IAVLNode)
-	   */
-		public class AVLNode implements IAVLNode{
-		  	private int key;
-		  	private String info;
-		  	private int height;
-		  	private int size;
-		  	private IAVLNode right;
-		  	private IAVLNode left;
-		  	private IAVLNode parent;
-		  	
-		  	
-		  	public AVLNode(int key, String info){ //regular node constructor
-		  		this.key = key;
-		  		this.info = info;
-		  		this.height = 0;
-		  		this.size = 1;
-		  		this.parent = null;
-		  		this.right = new AVLNode();
-		  		this.left = new AVLNode();
-		  		this.right.setParent(this);
-		  		this.left.setParent(this);
-		  	}
-		  	
-		  	public AVLNode(){ 
-		  		//virtual node constructor
-		  		this.key = -1;
-		  		this.info = null;
-		  		this.height = -1;
-		  		this.size = 0;
-		  	}
-		  
-		  	// returns node's key
-			public int getKey(){
-				return (this.key);
+			//the number of positions in the subtree of position i, level by level - O(log(n))
+			private int subtreeSize(int i) {
+				int count = 0;
+				for(long first = i, width = 1; first <= size; first <<= 1, width <<= 1) {
+					count += (int) Math.min(size - first + 1, width);
+				}
+				return count;
 			}
-			//return node's value
-			public String getValue(){
-				return(this.info);
+
+			/**
+			 * public String min()
+			 *
+			 * Returns the info of the item with the smallest key in the tree,
+			 * or null if the tree is empty
+			 * complexity O(log(n))
+			 */
+			public String min() {
+				return empty() ? null : info[leftmost(1)];
 			}
-			//sets left child of node
-			public void setLeft(IAVLNode node){
-				this.left = node;
-				return;
+			
+			/**
+			 * public String max()
+			 *
+			 * Returns the info of the item with the largest key in the tree,
+			 * or null if the tree is empty
+			 * complexity O(log(n))
+			 */
+			public String max() {
+				if(empty()) {
+					return null;
+				}
+				int i = 1;
+				while(2 * i + 1 <= size) {
+					i = 2 * i + 1;
+				}
+				return info[i];
 			}
-			//returns left child of node
-			public IAVLNode getLeft(){
-				return this.left;
+			
+			/**
+			 * public int[] keysToArray()
+			 *
+			 * Returns a sorted array which contains all keys in the tree.
+			 * complexity O(n)
+			 */
+			public int[] keysToArray() {
+				int[] result = new int[size];
+				int i = leftmost(1);
+				for(int j = 0; j < size; j++) {
+					result[j] = keys[i];
+					i = next(i);
+				}
+				return result;
 			}
-			//set right child of node
-			public void setRight(IAVLNode node){
-				this.right = node;
-				return;
+			
+			/**
+			 * public String[] infoToArray()
+			 *
+			 * Returns all info in the tree, sorted by their respective keys.
+			 * complexity O(n)
+			 */
+			public String[] infoToArray() {
+				String[] result = new String[size];
+				int i = leftmost(1);
+				for(int j = 0; j < size; j++) {
+					result[j] = info[i];
+					i = next(i);
+				}
+				return result;
 			}
-			//returns right child of node
-			public IAVLNode getRight(){
-				return this.right;
+			
+			//the leftmost position in the subtree of position i - O(log(n))
+			private int leftmost(int i) {
+				while(2 * i <= size) {
+					i = 2 * i;
+				}
+				return i;
 			}
 			
-			//set parent of node
-			public void setParent(IAVLNode node){
-				this.parent = node;
-				return;
+			//the position after i in key order, 0 after the last - amortized O(1)
+			private int next(int i) {
+				if(2 * i + 1 <= size) {
+					return leftmost(2 * i + 1);
+				}
+				while((i & 1) == 1) {
+					i >>>= 1;
+				}
+				return i >>> 1;
 			}
-			//return parent of node
-			public IAVLNode getParent(){
-				return this.parent;
+		}
+		
+		/**
+		 * public static class MappedSnapshot
+		 *
+		 * A snapshot written by AVLTree.freeze, served straight from the memory-mapped
+		 * file: keys are binary searched in the fixed-width records and info is decoded
+		 * from the value region on demand, without building any nodes. The pages are
+		 * the OS page cache, shared by every process that maps the file, so opening is
+		 * O(1) whatever the size. Immutable and safe to share between threads.
+		 */
+		public static class MappedSnapshot {
+			static final int MAGIC = 0x4D4C5641; // "AVLM" little-endian
+			static final int VERSION = 1;
+			static final int HEADER_BYTES = 16;
+			static final int RECORD_BYTES = 16;
+			private static final int KEY = 0;
+			private static final int LENGTH = 4;
+			private static final int OFFSET = 8;
+			private static final int VALUE_PAGE_SHIFT = 30; // the value region is mapped in 1GB pages
+			
+			private final ByteBuffer records;
+			private final ByteBuffer[] values;
+			private final int size;
+			
+			private MappedSnapshot(ByteBuffer records, ByteBuffer[] values, int size) {
+				this.records = records;
+				this.values = values;
+				this.size = size;
 			}
 			
-			// Returns True if this is a non-virtual AVL node
-			public boolean isRealNode(){
-				return(this.key != -1);
+			/**
+			 * public static MappedSnapshot open(Path path)
+			 *
+			 * Maps a file written by AVLTree.freeze read-only. The file is closed
+			 * again at once; the mapping stays valid until the snapshot is collected.
+			 * complexity O(1)
+			 */
+			public static MappedSnapshot open(Path path) throws IOException {
+				try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+					long fileBytes = channel.size();
+					if(fileBytes < HEADER_BYTES) {
+						throw new IOException("not an AVLTree snapshot: " + path);
+					}
+					ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+					if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+						throw new IOException("not an AVLTree snapshot: " + path);
+					}
+					int size = header.getInt(8);
+					long recordBytes = (long) size * RECORD_BYTES;
+					if(size < 0 || recordBytes > Integer.MAX_VALUE || HEADER_BYTES + recordBytes > fileBytes) {
+						throw new IOException("corrupt snapshot header: " + path);
+					}
+					ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, recordBytes).order(ByteOrder.LITTLE_ENDIAN);
+					long valueStart = HEADER_BYTES + recordBytes;
+					long valueBytes = fileBytes - valueStart;
+					ByteBuffer[] values = new ByteBuffer[(int) ((valueBytes + (1L << VALUE_PAGE_SHIFT) - 1) >>> VALUE_PAGE_SHIFT)];
+					for(int page = 0; page < values.length; page++) {
+						long start = (long) page << VALUE_PAGE_SHIFT;
+						values[page] = channel.map(FileChannel.MapMode.READ_ONLY, valueStart + start, Math.min(1L << VALUE_PAGE_SHIFT, valueBytes - start));
+					}
+					return new MappedSnapshot(records, values, size);
+				}
 			}
-			//set height of node
-			public void setHeight(int height){
-				this.height = height;
-				return; 
+			
+			/**
+			 * public boolean empty()
+			 *
+			 * returns true if and only if the snapshot is empty
+			 */
+			public boolean empty() {
+				return size == 0;
 			}
-			//return height of node
-			public int getHeight(){
-				return this.height;
+			
+			/**
+			 * public int size()
+			 *
+			 * Returns the number of items in the snapshot.
+			 */
+			public int size() {
+				return size;
 			}
-			//set size of node
-			public void setSize(int i) {
-				this.size=i;
-				return;
+			
+			/**
+			 * public int keyAt(int i)
+			 *
+			 * Returns the i-th smallest key (i counts from 0).
+			 * precondition: 0 <= i < size()
+			 * complexity O(1)
+			 */
+			public int keyAt(int i) {
+				return records.getInt(i * RECORD_BYTES + KEY);
 			}
-			//return size of node
-			public int getSize() {
-				return this.size;
+			
+			/**
+			 * public String infoAt(int i)
+			 *
+			 * Returns the info of the i-th smallest key (i counts from 0).
+			 * precondition: 0 <= i < size()
+			 * complexity O(info length) - the only allocation is the String itself
+			 */
+			public String infoAt(int i) {
+				int length = records.getInt(i * RECORD_BYTES + LENGTH);
+				if(length < 0) {
+					return null;
+				}
+				long offset = records.getLong(i * RECORD_BYTES + OFFSET);
+				byte[] bytes = new byte[length];
+				for(int copied = 0; copied < length; ) {
+					ByteBuffer page = values[(int) (offset >>> VALUE_PAGE_SHIFT)];
+					int position = (int) (offset & ((1L << VALUE_PAGE_SHIFT) - 1));
+					int count = Math.min(length - copied, page.limit() - position);
+					if(count <= 0) {
+						throw new IllegalStateException("snapshot value region is truncated");
+					}
+					page.get(position, bytes, copied, count);
+					copied += count;
+					offset += count;
+				}
+				return getUtf8(ByteBuffer.wrap(bytes), 0, length);
 			}
-			//increment node's size by d
-			public void updateSize(int d) {
-				this.size += d;
-				return;
+			
+			/**
+			 * public String search(int k)
+			 *
+			 * returns the info of an item with key k if it exists in the snapshot
+			 * otherwise, returns null
+			 * complexity O(log(n))
+			 */
+			public String search(int k) {
+				int i = rank(k);
+				return (i < size && keyAt(i) == k) ? infoAt(i) : null;
 			}
-			//return TRUE if node has two children
-			public boolean hasTwoChildren() {
-				if(this.getLeft().getKey()!=-1 && this.getRight().getKey()!=-1) {
-					return true;
+			
+			/**
+			 * public int rank(int k)
+			 *
+			 * Returns the number of keys in the snapshot that are smaller than k.
+			 * complexity O(log(n))
+			 */
+			public int rank(int k) {
+				int lo = 0;
+				int hi = size;
+				while(lo < hi) {
+					int mid = (lo + hi) >>> 1;
+					if(keyAt(mid) < k) {
+						lo = mid + 1;
+					}else {
+						hi = mid;
+					}
 				}
-				return false;
+				return lo;
 			}
-			//decrement node's height by i
-			public void decrementHeight(int i) {
-				this.height-=i;	
+			
+			/**
+			 * public int floor(int k)
+			 *
+			 * Returns the index (for keyAt/infoAt) of the largest key <= k, or -1 if there is none.
+			 * complexity O(log(n))
+			 */
+			public int floor(int k) {
+				int i = rank(k);
+				return (i < size && keyAt(i) == k) ? i : i - 1;
 			}
-			//increment node's height by i
-			public void incrementHeight(int i) {
-				this.height+=i;	
+			
+			/**
+			 * public int ceiling(int k)
+			 *
+			 * Returns the index (for keyAt/infoAt) of the smallest key >= k, or -1 if there is none.
+			 * complexity O(log(n))
+			 */
+			public int ceiling(int k) {
+				int i = rank(k);
+				return (i < size) ? i : -1;
 			}
 			
-			//return TRUE if node isRightChild
-			public boolean isRightChild() {
-				if(this.getParent().getRight() == this) {
-					return true;
-				}else{
-					return false;
+			/**
+			 * public int rangeCount(int lo, int hi)
+			 *
+			 * Returns the number of keys k in the snapshot with lo <= k <= hi.
+			 * complexity O(log(n))
+			 */
+			public int rangeCount(int lo, int hi) {
+				if(lo > hi) {
+					return 0;
 				}
+				return floor(hi) + 1 - rank(lo);
 			}
-			//return TRUE if node is a leaf
-			public boolean isLeaf() {
-				return this.getLeft().getHeight() == -1 && this.getRight().getHeight() == -1;
+			
+			/**
+			 * public void rangeForEach(int lo, int hi, KeyInfoConsumer consumer)
+			 *
+			 * Passes every item with lo <= key <= hi to consumer, in key order.
+			 * complexity O(log(n) + m + info length) for m reported items
+			 */
+			public void rangeForEach(int lo, int hi, KeyInfoConsumer consumer) {
+				for(int i = rank(lo); i < size && keyAt(i) <= hi; i++) {
+					consumer.accept(keyAt(i), infoAt(i));
+				}
 			}
-			//return TRUE if node is unary node--has one child
-	        public boolean isUnaryNode() {
-	            return (this.getRight().isRealNode() && !this.getLeft().isRealNode()) || ((!this.getRight().isRealNode() && this.getLeft().isRealNode()));
-	        }
-	        //sets key of node
-	        public void setKey(int k) {
-	            this.key = k;
-	        }
-	        //sets value of node
-	        public void setValue(String value) {
-	            this.info = value;
-	        }
-		}  
+		}
 	}
@@ -0,0 +1,231 @@
+import java.util.TreeMap;
+
+import bench.Splittable;
+import bench.Target;
+
+/**
+ * public class Engines
+ *
+ * The bench.Target adapters of every engine, by name:
+ *   AVLTree       AVLTree
+ *   AVL+metric    AVLTree with TreeMetrics set, next to the default of none
+ *   ArrayAVL      ArrayAVLTree on the heap
+ *   OffHeapAVL    ArrayAVLTree.offHeap()
+ *   Frozen        AVLTree whose reads go to a FrozenAVLTree copy, taken again after every write
+ *   synchronized  AVLTree behind one monitor
+ *   Concurrent    ConcurrentAVLTree
+ *   Sharded       ShardedAVLTree of 64 uniform shards over the keys 0..size-1
+ *   TreeMap       java.util.TreeMap, the baseline
+ */
+public class Engines {
+	private Engines() {
+	}
+
+	/**
+	 * public static Target create(String name, int size)
+	 *
+	 * Returns the adapter named name (see above) for the keys 0..size-1.
+	 */
+	public static Target create(String name, int size) {
+		switch(name) {
+		case "AVLTree":
+			return new AVLTreeTarget(false);
+		case "AVL+metric":
+			return new AVLTreeTarget(true);
+		case "ArrayAVL":
+			return new ArrayAVLTreeTarget(false);
+		case "OffHeapAVL":
+			return new ArrayAVLTreeTarget(true);
+		case "Frozen":
+			return new FrozenAVLTreeTarget();
+		case "synchronized":
+			return new SynchronizedAVLTreeTarget();
+		case "Concurrent":
+			return new ConcurrentAVLTreeTarget();
+		case "Sharded":
+			return new ShardedAVLTreeTarget(size);
+		case "TreeMap":
+			return new TreeMapTarget();
+		default:
+			throw new IllegalArgumentException("unknown engine " + name);
+		}
+	}
+
+	static final class AVLTreeTarget extends Target implements Splittable {
+		private final boolean metered;
+		private AVLTree tree;
+
+		AVLTreeTarget(boolean metered) {
+			this.metered = metered;
+		}
+
+		public void reset() {
+			tree = new AVLTree();
+			if(metered) {
+				tree.setMetrics(new AVLTree.TreeMetrics());
+			}
+		}
+
+		public void insert(int k, String i) { tree.insert(k, i); }
+		public void delete(int k) { tree.delete(k); }
+		public String search(int k) { return tree.search(k); }
+		public Object keysToArray() { return tree.keysToArray(); }
+		public Object infoToArray() { return tree.infoToArray(); }
+		public void insertAll(int[] keys, String[] values) { tree.insertAll(keys, values); }
+		public void deleteAll(int[] keys) { tree.deleteAll(keys); }
+		public void deleteRange(int lo, int hi, int[] inRange) { tree.deleteRange(lo, hi); }
+
+		public void split(int x, boolean above, int[] dropped) {
+			AVLTree[] halves = tree.split(x);
+			tree = above ? halves[1] : halves[0];
+		}
+
+		public void join(int k, String i, int[] keys, String[] values) {
+			AVLTree other = AVLTree.fromSorted(keys, values);
+			tree.join(tree.new AVLNode(k, i), other);
+		}
+
+		public void splitJoin(int k, String i) {
+			AVLTree[] halves = tree.split(k);
+			halves[0].join(halves[0].new AVLNode(k, i), halves[1]);
+			tree = halves[0];
+		}
+	}
+
+	static final class ArrayAVLTreeTarget extends Target implements Splittable {
+		private final boolean offHeap;
+		private AVLTree.ArrayAVLTree tree;
+
+		ArrayAVLTreeTarget(boolean offHeap) {
+			this.offHeap = offHeap;
+		}
+
+		public void reset() { tree = offHeap ? AVLTree.ArrayAVLTree.offHeap() : new AVLTree.ArrayAVLTree(); }
+		public void insert(int k, String i) { tree.insert(k, i); }
+		public void delete(int k) { tree.delete(k); }
+		public String search(int k) { return tree.search(k); }
+		public Object keysToArray() { return tree.keysToArray(); }
+		public Object infoToArray() { return tree.infoToArray(); }
+
+		public void split(int x, boolean above, int[] dropped) {
+			AVLTree.ArrayAVLTree[] halves = tree.split(x);
+			tree = above ? halves[1] : halves[0];
+		}
+
+		public void join(int k, String i, int[] keys, String[] values) {
+			AVLTree.ArrayAVLTree other = offHeap ? AVLTree.ArrayAVLTree.offHeap() : new AVLTree.ArrayAVLTree();
+			for(int j = 0; j < keys.length; j++) {
+				other.insert(keys[j], values[j]);
+			}
+			tree.join(k, i, other);
+		}
+
+		public void splitJoin(int k, String i) {
+			AVLTree.ArrayAVLTree[] halves = tree.split(k);
+			halves[0].join(k, i, halves[1]);
+			tree = halves[0];
+		}
+	}
+
+	static final class FrozenAVLTreeTarget extends Target {
+		private AVLTree tree;
+		private AVLTree.FrozenAVLTree frozen; // null after a write, until the next read
+
+		public void reset() {
+			tree = new AVLTree();
+			frozen = null;
+		}
+
+		public void insert(int k, String i) {
+			tree.insert(k, i);
+			frozen = null;
+		}
+
+		public void delete(int k) {
+			tree.delete(k);
+			frozen = null;
+		}
+
+		public void insertAll(int[] keys, String[] values) {
+			tree.insertAll(keys, values);
+			frozen = null;
+		}
+
+		public void deleteAll(int[] keys) {
+			tree.deleteAll(keys);
+			frozen = null;
+		}
+
+		public void deleteRange(int lo, int hi, int[] inRange) {
+			tree.deleteRange(lo, hi);
+			frozen = null;
+		}
+
+		public String search(int k) { return frozen().search(k); }
+		public Object keysToArray() { return frozen().keysToArray(); }
+		public Object infoToArray() { return frozen().infoToArray(); }
+
+		private AVLTree.FrozenAVLTree frozen() {
+			if(frozen == null) {
+				frozen = tree.freeze();
+			}
+			return frozen;
+		}
+	}
+
+	static final class SynchronizedAVLTreeTarget extends Target {
+		private AVLTree tree;
+
+		public synchronized void reset() { tree = new AVLTree(); }
+		public synchronized void insert(int k, String i) { tree.insert(k, i); }
+		public synchronized void delete(int k) { tree.delete(k); }
+		public synchronized String search(int k) { return tree.search(k); }
+		public synchronized Object keysToArray() { return tree.keysToArray(); }
+		public synchronized Object infoToArray() { return tree.infoToArray(); }
+		public synchronized void insertAll(int[] keys, String[] values) { tree.insertAll(keys, values); }
+		public synchronized void deleteAll(int[] keys) { tree.deleteAll(keys); }
+		public synchronized void deleteRange(int lo, int hi, int[] inRange) { tree.deleteRange(lo, hi); }
+	}
+
+	static final class ConcurrentAVLTreeTarget extends Target {
+		private AVLTree.ConcurrentAVLTree tree;
+
+		public void reset() { tree = new AVLTree.ConcurrentAVLTree(); }
+		public void insert(int k, String i) { tree.insert(k, i); }
+		public void delete(int k) { tree.delete(k); }
+		public String search(int k) { return tree.search(k); }
+		public Object keysToArray() { return tree.keysToArray(); }
+		public Object infoToArray() { return tree.infoToArray(); }
+		public void insertAll(int[] keys, String[] values) { tree.insertAll(keys, values); }
+		public void deleteAll(int[] keys) { tree.deleteAll(keys); }
+	}
+
+	static final class ShardedAVLTreeTarget extends Target {
+		private final int size;
+		private AVLTree.ShardedAVLTree tree;
+
+		ShardedAVLTreeTarget(int size) {
+			this.size = size;
+		}
+
+		public void reset() { tree = AVLTree.ShardedAVLTree.uniform(Math.min(64, Math.max(1, size)), 0, Math.max(0, size - 1)); }
+		public void insert(int k, String i) { tree.insert(k, i); }
+		public void delete(int k) { tree.delete(k); }
+		public String search(int k) { return tree.search(k); }
+		public Object keysToArray() { return tree.keysToArray(); }
+		public Object infoToArray() { return tree.infoToArray(); }
+	}
+
+	static final class TreeMapTarget extends Target {
+		private TreeMap<Integer, String> map;
+
+		public void reset() { map = new TreeMap<>(); }
+		public void insert(int k, String i) { map.putIfAbsent(k, i); }
+		public void delete(int k) { map.remove(k); }
+		public String search(int k) { return map.get(k); }
+		public Object keysToArray() { return map.keySet().toArray(); }
+		public Object infoToArray() { return map.values().toArray(); }
+		public void deleteRange(int lo, int hi, int[] inRange) { map.subMap(lo, true, hi, true).clear(); }
+		public void split(int x, boolean above, int[] dropped) { (above ? map.headMap(x, true) : map.tailMap(x, true)).clear(); }
+	}
+}
@@ -0,0 +1,136 @@
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.ArrayDeque;
+
+import bench.Keys;
+import bench.Target;
+
+/**
+ * public class Footprint
+ *
+ * Prints the memory of every engine in bytes per entry: the live heap (after
+ * full GCs) and the direct buffers it holds, less what was live before it was
+ * loaded. Every entry shares one value, so only the structure is counted.
+ * usage: java -cp target/benchmarks.jar Footprint [sizes...]   (default 1000000 10000000, needs -Xmx4g)
+ * "AVLTree-before" estimates AVLTree as it was before the shared external leaf:
+ * the same tree with its own virtual AVLNode (key -1, height -1) in every
+ * external position, as AVLNode(key, info) used to allocate them. (The old
+ * code did not keep quite all of them live; it measured 4 bytes less per entry.)
+ */
+public class Footprint {
+	static final String[] ENGINES = {"AVLTree-before", "AVLTree", "ArrayAVL", "OffHeapAVL", "TreeMap"};
+
+	public static void main(String[] args) {
+		int[] sizes = {1000000, 10000000};
+		if(args.length > 0) {
+			sizes = new int[args.length];
+			for(int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+		System.out.printf("%-15s %10s %12s %12s%n", "engine", "size", "heap B/entry", "direct B/entry");
+		for(int size : sizes) {
+			int[] keys = Keys.of(size, "random");
+			for(String name : ENGINES) {
+				long direct = usedDirect();
+				long heap = usedHeap();
+				Object engine = load(name, keys);
+				long directBytes = usedDirect() - direct;
+				long heapBytes = usedHeap() - heap;
+				Reference.reachabilityFence(engine);
+				System.out.printf("%-15s %10d %12.1f %12.1f%n", name, size, (double) heapBytes / size, (double) directBytes / size);
+			}
+		}
+	}
+
+	//an engine holding keys, each with the same value
+	static Object load(String name, int[] keys) {
+		if(name.equals("AVLTree-before")) {
+			AVLTree tree = new AVLTree();
+			for(int k : keys) {
+				tree.insert(k, "");
+			}
+			addVirtualLeaves(tree);
+			return tree;
+		}
+		Target target = Target.create(name, keys.length);
+		for(int k : keys) {
+			target.insert(k, "");
+		}
+		return target;
+	}
+
+	//replaces every use of the shared external leaf by a virtual node of its own
+	static void addVirtualLeaves(AVLTree tree) {
+		ArrayDeque<AVLTree.IAVLNode> stack = new ArrayDeque<>();
+		if(!tree.empty()) {
+			stack.push(tree.getRoot());
+		}
+		while(!stack.isEmpty()) {
+			AVLTree.IAVLNode node = stack.pop();
+			if(node.getLeft().isRealNode()) {
+				stack.push(node.getLeft());
+			}else {
+				node.setLeft(virtualNode(tree, node));
+			}
+			if(node.getRight().isRealNode()) {
+				stack.push(node.getRight());
+			}else {
+				node.setRight(virtualNode(tree, node));
+			}
+		}
+	}
+
+	private static AVLTree.IAVLNode virtualNode(AVLTree tree, AVLTree.IAVLNode parent) {
+		AVLTree.IAVLNode node = tree.new AVLNode(-1, null);
+		node.setHeight(-1);
+		node.setSize(0);
+		node.setParent(parent);
+		return node;
+	}
+
+	//the heap in use once full GCs stop freeing anything
+	static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for(int i = 0; i < 10; i++) {
+			runtime.gc();
+			long now = runtime.totalMemory() - runtime.freeMemory();
+			if(now >= used) {
+				return now;
+			}
+			used = now;
+		}
+		return used;
+	}
+
+	//the memory of the direct buffers in use, once the cleaner stops freeing the unreachable ones
+	static long usedDirect() {
+		long used = directBuffers();
+		for(int i = 0; i < 50; i++) {
+			Runtime.getRuntime().gc();
+			try {
+				Thread.sleep(20);
+			}catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			long now = directBuffers();
+			if(now == used) {
+				break;
+			}
+			used = now;
+		}
+		return used;
+	}
+
+	private static long directBuffers() {
+		for(BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if(pool.getName().equals("direct")) {
+				return pool.getMemoryUsed();
+			}
+		}
+		return 0;
+	}
+}
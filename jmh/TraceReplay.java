@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import bench.Target;
+
+/**
+ * public class TraceReplay
+ *
+ * Replays a TraceRecorder trace against the Engines (AVLTree, ArrayAVLTree,
+ * TreeMap...) and prints, per engine, the throughput and allocated bytes per
+ * operation, latency percentiles in ns per operation type and a log2 latency
+ * histogram of all operations.
+ * usage: java -cp target/benchmarks.jar TraceReplay trace [repeats]   (default 3, after one warm-up)
+ * The trace is decoded up front and its LOAD records are inserted before the
+ * clock starts. insertAll and union replay as the engine's insertAll of the
+ * batch or the other tree's items, deleteAll and difference as its deleteAll,
+ * deleteRange and extractRange as its deleteRange, and an intersection as the
+ * deleteAll of the keys it removed (see AVLTree.Trace). A split replays as the
+ * engine's split, keeping the half the recorded tree kept, and a join as its
+ * join with a tree of the recorded items, built within the timed operation.
+ * Engines without those operations insert or delete key by key, so every
+ * engine goes through the same states.
+ * Unlike the JMH benchmarks this times every operation on its own, which
+ * costs two System.nanoTime() calls each - compare engines by it, not to JMH.
+ */
+public class TraceReplay {
+	static final String[] ENGINES = {"AVLTree", "AVL+metric", "ArrayAVL", "OffHeapAVL", "TreeMap"};
+	static final int MAX_SAMPLES = 1 << 20; // latencies kept per operation type
+
+	public static void main(String[] args) throws IOException {
+		if(args.length == 0) {
+			System.err.println("usage: java -cp target/benchmarks.jar TraceReplay trace [repeats]");
+			return;
+		}
+		AVLTree.Trace trace = AVLTree.Trace.read(Path.of(args[0]));
+		int repeats = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+		System.out.print("trace " + args[0] + ":");
+		for(int op = 0; op < AVLTree.TraceRecorder.NAMES.length; op++) {
+			System.out.print(" " + AVLTree.TraceRecorder.NAMES[op] + " " + trace.counts[op]);
+		}
+		System.out.println();
+		System.out.printf("%-10s %-12s %10s %12s %8s %8s %8s %8s %10s %10s%n",
+				"target", "op", "count", "ops/s", "p50", "p90", "p99", "p99.9", "max", "bytes/op");
+		for(String name : ENGINES) {
+			Target target = Target.create(name, 0);
+			replay(name, target, trace, false); //warm up
+			for(int r = 0; r < repeats; r++) {
+				replay(name, target, trace, true);
+			}
+		}
+	}
+
+	static void replay(String name, Target target, AVLTree.Trace trace, boolean report) {
+		target.reset();
+		int n = trace.length;
+		for(int i = 0; i < n; i++) {
+			if(trace.ops[i] == AVLTree.TraceRecorder.LOAD) {
+				target.insert(trace.keys[i], trace.values[i]);
+			}
+		}
+		int ops = AVLTree.TraceRecorder.NAMES.length;
+		//every stride'th latency of an operation type is kept
+		int[] strides = new int[ops];
+		long[][] samples = new long[ops][];
+		int[] seen = new int[ops];
+		int[] kept = new int[ops];
+		for(int op = 0; op < ops; op++) {
+			strides[op] = Math.max(1, trace.counts[op] / MAX_SAMPLES);
+			samples[op] = new long[trace.counts[op] / strides[op] + 1];
+		}
+		long[] histogram = new long[AVLTree.TreeMetrics.BUCKETS];
+		int replayed = 0;
+		long startBytes = allocatedBytes();
+		long startTime = System.nanoTime();
+		for(int i = 0; i < n; i++) {
+			int op = trace.ops[i];
+			int key = trace.keys[i];
+			long start = System.nanoTime();
+			switch(op) {
+			case AVLTree.TraceRecorder.SEARCH:
+				target.search(key);
+				break;
+			case AVLTree.TraceRecorder.INSERT:
+				target.insert(key, trace.values[i]);
+				break;
+			case AVLTree.TraceRecorder.DELETE:
+				target.delete(key);
+				break;
+			case AVLTree.TraceRecorder.INSERT_ALL:
+			case AVLTree.TraceRecorder.UNION:
+				target.insertAll(trace.items[i], trace.itemValues[i]);
+				break;
+			case AVLTree.TraceRecorder.DELETE_ALL:
+			case AVLTree.TraceRecorder.DIFFERENCE:
+			case AVLTree.TraceRecorder.INTERSECTION:
+				target.deleteAll(trace.items[i]);
+				break;
+			case AVLTree.TraceRecorder.DELETE_RANGE:
+			case AVLTree.TraceRecorder.EXTRACT_RANGE:
+				target.deleteRange(key, trace.highs[i], trace.items[i]);
+				break;
+			case AVLTree.TraceRecorder.SPLIT:
+				target.split(key, trace.highs[i] == 1, trace.items[i]);
+				break;
+			case AVLTree.TraceRecorder.JOIN:
+				target.join(key, trace.values[i], trace.items[i], trace.itemValues[i]);
+				break;
+			default:
+				continue; //LOAD was done above
+			}
+			long nanos = System.nanoTime() - start;
+			histogram[AVLTree.TreeMetrics.bucket(nanos)]++;
+			if(seen[op]++ % strides[op] == 0) {
+				samples[op][kept[op]++] = nanos;
+			}
+			replayed++;
+		}
+		long elapsed = System.nanoTime() - startTime;
+		long bytes = allocatedBytes() - startBytes;
+		if(!report) {
+			return;
+		}
+		for(int op = 1; op < ops; op++) {
+			if(kept[op] == 0) {
+				continue;
+			}
+			long[] sorted = Arrays.copyOf(samples[op], kept[op]);
+			Arrays.sort(sorted);
+			System.out.printf("%-10s %-12s %10d %12s %8d %8d %8d %8d %10d %10s%n",
+					name, AVLTree.TraceRecorder.NAMES[op], seen[op], "",
+					percentile(sorted, 0.50), percentile(sorted, 0.90),
+					percentile(sorted, 0.99), percentile(sorted, 0.999),
+					sorted[sorted.length - 1], "");
+		}
+		System.out.printf("%-10s %-12s %10d %12.0f %8s %8s %8s %8s %10s %10.1f%n",
+				name, "all", replayed, replayed * 1e9 / elapsed, "", "", "", "", "",
+				(bytes < 0 || replayed == 0) ? Double.NaN : (double) bytes / replayed);
+		StringBuilder line = new StringBuilder(String.format("%-10s %-12s", name, "hist"));
+		for(int b = 0; b < AVLTree.TreeMetrics.BUCKETS; b++) {
+			if(histogram[b] != 0) {
+				line.append(' ').append('<').append(1L << b).append("ns:").append(histogram[b]);
+			}
+		}
+		System.out.println(line);
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		if(sorted.length == 0) {
+			return 0;
+		}
+		return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+	}
+
+	//bytes allocated so far by the current thread, or -1 if the JVM cannot tell
+	static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes();
+		}
+		return -1;
+	}
+}
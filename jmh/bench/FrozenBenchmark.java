@@ -0,0 +1,59 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * public class FrozenBenchmark
+ *
+ * Random searches of a FrozenAVLTree (the Eytzinger layout of AVLTree.freeze())
+ * against the pointer engines, at sizes where the tree outgrows the caches.
+ * Every key shares one value, so 100M keys fit in the 12 GB heap of the fork;
+ * on a smaller machine run with -p size=1000000,10000000.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms12g", "-Xmx12g"})
+public class FrozenBenchmark {
+	@Param({"Frozen", "AVLTree", "ArrayAVL"})
+	public String target;
+
+	@Param({"1000000", "10000000", "100000000"})
+	public int size;
+
+	private Target loaded;
+	private int[] keys; // the search keys, a random order of 0..size-1
+	private int next;
+
+	@Setup(Level.Trial)
+	public void load() {
+		loaded = Target.create(target, size);
+		for(int k = 0; k < size; k++) {
+			loaded.insert(k, "");
+		}
+		loaded.search(0); // Frozen freezes on its first read
+		keys = Keys.of(size, "random");
+	}
+
+	@Benchmark
+	public String search() {
+		String info = loaded.search(keys[next]);
+		next = (next + 1 == size) ? 0 : next + 1;
+		return info;
+	}
+}
@@ -0,0 +1,57 @@
+package bench;
+
+import java.util.Random;
+
+/**
+ * public class Keys
+ *
+ * The key orders the benchmarks load and access their engines in.
+ */
+public class Keys {
+	private Keys() {
+	}
+
+	/**
+	 * public static int[] of(int size, String order)
+	 *
+	 * Returns the distinct keys 0..size-1 in the given order:
+	 *   sequential  - increasing
+	 *   random      - a fixed shuffle (seeded by size)
+	 *   adversarial - alternating ends of the range, rotating both spines on every insert
+	 */
+	public static int[] of(int size, String order) {
+		int[] keys = new int[size];
+		for(int i = 0; i < size; i++) {
+			keys[i] = i;
+		}
+		if(order.equals("random")) {
+			Random random = new Random(size);
+			for(int i = size - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int tmp = keys[i];
+				keys[i] = keys[j];
+				keys[j] = tmp;
+			}
+		}else if(order.equals("adversarial")) {
+			for(int i = 0; i < size; i++) {
+				keys[i] = (i % 2 == 0) ? i / 2 : size - 1 - i / 2;
+			}
+		}else if(!order.equals("sequential")) {
+			throw new IllegalArgumentException("unknown order " + order);
+		}
+		return keys;
+	}
+
+	/**
+	 * public static String[] values(int[] keys)
+	 *
+	 * Returns the value of every key, its decimal string.
+	 */
+	public static String[] values(int[] keys) {
+		String[] values = new String[keys.length];
+		for(int i = 0; i < keys.length; i++) {
+			values[i] = Integer.toString(keys[i]);
+		}
+		return values;
+	}
+}
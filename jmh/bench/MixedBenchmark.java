@@ -0,0 +1,72 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * public class MixedBenchmark
+ *
+ * A read/write mix on a tree loaded with the keys 0..size-1 in the given order:
+ * each operation picks a random loaded key and is, with probability
+ * readPercent, a search, otherwise a delete and a re-insert of that key.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class MixedBenchmark {
+	@Param({"AVLTree", "ArrayAVL", "TreeMap"})
+	public String target;
+
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	public int size;
+
+	@Param({"sequential", "random", "adversarial"})
+	public String order;
+
+	@Param({"50", "90", "99"})
+	public int readPercent;
+
+	private Target loaded;
+	private int[] keys;
+	private String[] values;
+	private int seed = 1; // xorshift state, a Random would cost more than some searches
+
+	@Setup(Level.Trial)
+	public void load() {
+		keys = Keys.of(size, order);
+		values = Keys.values(keys);
+		loaded = Target.create(target, size);
+		for(int i = 0; i < size; i++) {
+			loaded.insert(keys[i], values[i]);
+		}
+	}
+
+	@Benchmark
+	public String mixed() {
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		int i = (int) ((seed & 0xFFFFFFFFL) % size);
+		if((((seed >>> 16) & 0xFFFF) * 100 >>> 16) < readPercent) {
+			return loaded.search(keys[i]);
+		}
+		loaded.delete(keys[i]);
+		loaded.insert(keys[i], values[i]);
+		return null;
+	}
+}
@@ -0,0 +1,100 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * public class OperationBenchmark
+ *
+ * Every single-threaded operation of every engine, on a tree loaded with the
+ * keys 0..size-1 in the given order, as throughput and as sampled latency
+ * (SampleTime reports p50...p99.99). Run with -prof gc for the allocation rate.
+ *   search       - the loaded keys, visited in load order
+ *   insert       - the keys in load order into a tree that grows from empty to
+ *                  size and starts over; the restart, one new empty engine per
+ *                  size inserts, is part of the score (OffHeapAVL allocates a
+ *                  2 MB direct chunk for it, which shows at small sizes)
+ *   deleteInsert - a delete and a re-insert of the same key, at a steady size
+ *   keysToArray, infoToArray - the whole tree
+ * "AVL+metric" against "AVLTree" is the cost of TreeMetrics; TreeMap is the baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class OperationBenchmark {
+	@Param({"AVLTree", "AVL+metric", "ArrayAVL", "OffHeapAVL", "TreeMap"})
+	public String target;
+
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	public int size;
+
+	@Param({"sequential", "random", "adversarial"})
+	public String order;
+
+	private Target loaded; // holds every key
+	private Target growing; // for insert
+	private int[] keys;
+	private String[] values;
+	private int next; // the key of the next search or deleteInsert
+	private int inserted; // the keys in growing
+
+	@Setup(Level.Trial)
+	public void load() {
+		keys = Keys.of(size, order);
+		values = Keys.values(keys);
+		loaded = Target.create(target, size);
+		for(int i = 0; i < size; i++) {
+			loaded.insert(keys[i], values[i]);
+		}
+		growing = Target.create(target, size);
+	}
+
+	@Benchmark
+	public String search() {
+		String info = loaded.search(keys[next]);
+		next = (next + 1 == size) ? 0 : next + 1;
+		return info;
+	}
+
+	@Benchmark
+	public void insert() {
+		if(inserted == size) {
+			growing.reset();
+			inserted = 0;
+		}
+		growing.insert(keys[inserted], values[inserted]);
+		inserted++;
+	}
+
+	@Benchmark
+	public void deleteInsert() {
+		loaded.delete(keys[next]);
+		loaded.insert(keys[next], values[next]);
+		next = (next + 1 == size) ? 0 : next + 1;
+	}
+
+	@Benchmark
+	public Object keysToArray() {
+		return loaded.keysToArray();
+	}
+
+	@Benchmark
+	public Object infoToArray() {
+		return loaded.infoToArray();
+	}
+}
@@ -0,0 +1,117 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * public class ScalingBenchmark
+ *
+ * Total throughput of the thread-safe engines by thread count, on one tree
+ * loaded with the keys 0..size-1 that every thread shares. Each operation picks
+ * a random key and is, with probability readPercent, a search, otherwise a
+ * delete and a re-insert of that key (95: read-mostly, 5: write-heavy).
+ * The methods differ only in their thread count; threadsMax uses every core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ScalingBenchmark {
+	@Param({"synchronized", "Concurrent", "Sharded"})
+	public String target;
+
+	@Param({"1000000"})
+	public int size;
+
+	@Param({"95", "5"})
+	public int readPercent;
+
+	private Target loaded;
+
+	@Setup(Level.Trial)
+	public void load() {
+		loaded = Target.create(target, size);
+		for(int k = 0; k < size; k++) {
+			loaded.insert(k, "");
+		}
+	}
+
+	/**
+	 * public static class Worker
+	 *
+	 * The random state of one thread.
+	 */
+	@State(Scope.Thread)
+	public static class Worker {
+		private int seed;
+
+		@Setup(Level.Trial)
+		public void seed() {
+			seed = System.identityHashCode(this) | 1;
+		}
+
+		//the next xorshift value
+		int next() {
+			seed ^= seed << 13;
+			seed ^= seed >>> 17;
+			seed ^= seed << 5;
+			return seed;
+		}
+	}
+
+	private String operation(Worker worker) {
+		int random = worker.next();
+		int k = (int) ((random & 0xFFFFFFFFL) % size);
+		if((((random >>> 16) & 0xFFFF) * 100 >>> 16) < readPercent) {
+			return loaded.search(k);
+		}
+		loaded.delete(k);
+		loaded.insert(k, "");
+		return null;
+	}
+
+	@Benchmark
+	@Threads(1)
+	public String threads1(Worker worker) {
+		return operation(worker);
+	}
+
+	@Benchmark
+	@Threads(2)
+	public String threads2(Worker worker) {
+		return operation(worker);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String threads4(Worker worker) {
+		return operation(worker);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public String threads8(Worker worker) {
+		return operation(worker);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public String threadsMax(Worker worker) {
+		return operation(worker);
+	}
+}
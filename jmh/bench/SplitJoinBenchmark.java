@@ -0,0 +1,62 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * public class SplitJoinBenchmark
+ *
+ * split at a loaded key and join of the halves back, on the engines that have
+ * both, over a tree loaded with the keys 0..size-1 in the given order.
+ * The split keys are the loaded keys in load order.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class SplitJoinBenchmark {
+	@Param({"AVLTree", "ArrayAVL", "OffHeapAVL"})
+	public String target;
+
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	public int size;
+
+	@Param({"sequential", "random", "adversarial"})
+	public String order;
+
+	private Splittable loaded;
+	private int[] keys;
+	private String[] values;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void load() {
+		keys = Keys.of(size, order);
+		values = Keys.values(keys);
+		Target engine = Target.create(target, size);
+		for(int i = 0; i < size; i++) {
+			engine.insert(keys[i], values[i]);
+		}
+		loaded = (Splittable) engine;
+	}
+
+	@Benchmark
+	public void splitJoin() {
+		loaded.splitJoin(keys[next], values[next]);
+		next = (next + 1 == size) ? 0 : next + 1;
+	}
+}
@@ -0,0 +1,11 @@
+package bench;
+
+/**
+ * public interface Splittable
+ *
+ * A Target whose engine has split and join.
+ */
+public interface Splittable {
+	//splits the engine at k and joins the halves back with the item (k, i)
+	public void splitJoin(int k, String i);
+}
@@ -0,0 +1,71 @@
+package bench;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * public abstract class Target
+ *
+ * One engine under measurement (AVLTree, ArrayAVLTree, TreeMap...), adapted to
+ * the operations every engine has. The batch and range updates default to one
+ * insert or delete per key; engines that have them natively override them. The adapters are in Engines, next to AVLTree
+ * in the unnamed package: JMH only takes benchmarks in a named package, and code
+ * in a named package cannot name a class of the unnamed one, so create finds
+ * Engines by reflection.
+ */
+public abstract class Target {
+	public abstract void reset(); // makes the engine empty
+	public abstract void insert(int k, String i);
+	public abstract void delete(int k);
+	public abstract String search(int k);
+	public abstract Object keysToArray();
+	public abstract Object infoToArray();
+
+	//inserts the items not in the engine yet, a repeated key keeping its first value (AVLTree.insertAll)
+	public void insertAll(int[] keys, String[] values) {
+		for(int i = 0; i < keys.length; i++) {
+			insert(keys[i], values[i]);
+		}
+	}
+
+	//deletes the keys that are in the engine (AVLTree.deleteAll)
+	public void deleteAll(int[] keys) {
+		for(int k : keys) {
+			delete(k);
+		}
+	}
+
+	//deletes the keys lo..hi, which are the keys of inRange (AVLTree.deleteRange)
+	public void deleteRange(int lo, int hi, int[] inRange) {
+		deleteAll(inRange);
+	}
+
+	//keeps the keys < x, or the keys > x if above, without x and the other half, which are the keys of dropped (AVLTree.split)
+	public void split(int x, boolean above, int[] dropped) {
+		deleteAll(dropped);
+	}
+
+	//adds the item (k, i) and the items of keys, which are all below or all above the engine's keys (AVLTree.join)
+	public void join(int k, String i, int[] keys, String[] values) {
+		insert(k, i);
+		insertAll(keys, values);
+	}
+
+	/**
+	 * public static Target create(String name, int size)
+	 *
+	 * Returns an empty engine by its Engines name, sized (where that matters,
+	 * e.g. the shard ranges of ShardedAVLTree) for the keys 0..size-1.
+	 */
+	public static Target create(String name, int size) {
+		try {
+			Class<?> engines = Class.forName("Engines");
+			Target target = (Target) engines.getMethod("create", String.class, int.class).invoke(null, name, size);
+			target.reset();
+			return target;
+		}catch(InvocationTargetException e) {
+			throw new IllegalArgumentException(name, e.getCause());
+		}catch(ReflectiveOperationException e) {
+			throw new IllegalStateException("Engines is not on the class path", e);
+		}
+	}
+}
@@ -0,0 +1,1852 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongBinaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * public class AVLTreeTest
+ *
+ * Runs every kind of AVLTree operation against a TreeMap holding the same items,
+ * and after each one checks the tree against the map and its own invariants:
+ * heights, balance factors, subtree sizes, parent links, key order, min and max.
+ */
+public class AVLTreeTest {
+	static final int KEY_RANGE = 2000;
+	//info to round trip: null, empty, ASCII, 2- and 3-byte UTF-8, a surrogate pair and unpaired surrogates
+	static final String[] INFOS = {null, "", "plain", "é中", "😀", "\ud800", "a\udc00b", "\udc00\ud800"};
+
+	/**
+	 * Checks that tree holds exactly the items of model and that every node has
+	 * the height and size of its subtree, a balance factor in -1..1 and the right
+	 * parent, with keys in order.
+	 */
+	static void assertValid(AVLTree tree, TreeMap<Integer, String> model) {
+		assertEquals(model.size(), tree.size(), "size");
+		assertEquals(model.isEmpty(), tree.empty(), "empty");
+		if(model.isEmpty()) {
+			assertNull(tree.getRoot(), "root of an empty tree");
+			assertNull(tree.min(), "min of an empty tree");
+			assertNull(tree.max(), "max of an empty tree");
+		}else {
+			assertNull(tree.getRoot().getParent(), "parent of the root");
+			assertEquals(model.size(), checkSubtree(tree.getRoot(), Long.MIN_VALUE, Long.MAX_VALUE), "nodes");
+			assertEquals(model.firstEntry().getValue(), tree.min(), "min");
+			assertEquals(model.lastEntry().getValue(), tree.max(), "max");
+			assertEquals(model.firstKey(), tree.min.getKey(), "min node");
+			assertEquals(model.lastKey(), tree.max.getKey(), "max node");
+		}
+		int[] keys = new int[model.size()];
+		String[] info = new String[model.size()];
+		int i = 0;
+		for(Map.Entry<Integer, String> entry : model.entrySet()) {
+			keys[i] = entry.getKey();
+			info[i++] = entry.getValue();
+		}
+		assertArrayEquals(keys, tree.keysToArray(), "keysToArray");
+		assertArrayEquals(info, tree.infoToArray(), "infoToArray");
+		for(Map.Entry<Integer, String> entry : model.entrySet()) {
+			assertEquals(entry.getValue(), tree.search(entry.getKey()), "search " + entry.getKey());
+		}
+	}
+
+	//checks the subtree of node, with keys in (lo, hi), and returns its number of real nodes
+	private static int checkSubtree(AVLTree.IAVLNode node, long lo, long hi) {
+		return checkSubtree(node, lo, hi, 1);
+	}
+
+	//checkSubtree with balance factors in -maxBalance..maxBalance
+	private static int checkSubtree(AVLTree.IAVLNode node, long lo, long hi, int maxBalance) {
+		if(!node.isRealNode()) {
+			assertEquals(-1, node.getHeight(), "height of an external leaf");
+			assertEquals(0, node.getSize(), "size of an external leaf");
+			return 0;
+		}
+		assertTrue(lo < node.getKey() && node.getKey() < hi, "key order at " + node.getKey());
+		AVLTree.IAVLNode left = node.getLeft();
+		AVLTree.IAVLNode right = node.getRight();
+		if(left.isRealNode()) {
+			assertSame(node, left.getParent(), "parent of " + left.getKey());
+		}
+		if(right.isRealNode()) {
+			assertSame(node, right.getParent(), "parent of " + right.getKey());
+		}
+		int count = checkSubtree(left, lo, node.getKey(), maxBalance) + checkSubtree(right, node.getKey(), hi, maxBalance) + 1;
+		int balance = left.getHeight() - right.getHeight();
+		assertTrue(-maxBalance <= balance && balance <= maxBalance, "balance factor " + balance + " at " + node.getKey());
+		assertEquals(Math.max(left.getHeight(), right.getHeight()) + 1, node.getHeight(), "height at " + node.getKey());
+		assertEquals(count, node.getSize(), "size at " + node.getKey());
+		return count;
+	}
+
+	//a tree and its model with count random items
+	static AVLTree randomTree(Random random, int count, TreeMap<Integer, String> model) {
+		return randomTree(random, count, model, "v", KEY_RANGE);
+	}
+
+	//a tree and its model with count random keys below range, with the info prefix + key
+	static AVLTree randomTree(Random random, int count, TreeMap<Integer, String> model, String prefix, int range) {
+		AVLTree tree = new AVLTree();
+		for(int i = 0; i < count; i++) {
+			int k = random.nextInt(range);
+			tree.insert(k, prefix + k);
+			model.putIfAbsent(k, prefix + k);
+		}
+		return tree;
+	}
+
+	@Test
+	public void selectAndRank() {
+		Random random = new Random(5);
+		TreeMap<Integer, String> model = new TreeMap<>();
+		AVLTree tree = randomTree(random, 500, model);
+		for(int round = 0; round < 4; round++) {
+			assertValid(tree, model);
+			int[] keys = tree.keysToArray();
+			assertNull(tree.select(-1));
+			assertNull(tree.select(keys.length));
+			for(int i = 0; i < keys.length; i++) {
+				assertEquals(keys[i], tree.select(i).getKey(), "select " + i);
+				assertEquals(i, tree.rank(keys[i]), "rank " + keys[i]);
+			}
+			for(int k = -1; k <= KEY_RANGE; k++) {
+				assertEquals(model.headMap(k).size(), tree.rank(k), "rank " + k);
+			}
+			//the sizes must follow deletes as well as inserts
+			for(int i = 0; i < 150; i++) {
+				int k = random.nextInt(KEY_RANGE);
+				tree.delete(k);
+				model.remove(k);
+			}
+		}
+	}
+
+	@Test
+	public void ranges() {
+		Random random = new Random(6);
+		TreeMap<Integer, String> model = new TreeMap<>();
+		AVLTree tree = randomTree(random, 800, model);
+		assertValid(tree, model);
+		for(int round = 0; round < 300; round++) {
+			int lo = random.nextInt(KEY_RANGE + 20) - 10;
+			int hi = lo + random.nextInt(KEY_RANGE / 4) - 20;
+			Map<Integer, String> expected = (lo > hi) ? new TreeMap<>() : model.subMap(lo, true, hi, true);
+			assertEquals(expected.size(), tree.rangeCount(lo, hi), "rangeCount " + lo + ".." + hi);
+			List<Integer> walked = new ArrayList<>();
+			tree.rangeForEach(lo, hi, (k, info) -> {
+				assertEquals(model.get(k), info);
+				walked.add(k);
+			});
+			assertEquals(new ArrayList<>(expected.keySet()), walked, "rangeForEach " + lo + ".." + hi);
+			List<Integer> iterated = new ArrayList<>();
+			for(Iterator<AVLTree.IAVLNode> it = tree.rangeIterator(lo, hi); it.hasNext(); ) {
+				iterated.add(it.next().getKey());
+			}
+			assertEquals(walked, iterated, "rangeIterator " + lo + ".." + hi);
+		}
+		assertEquals(model.size(), tree.rangeCount(Integer.MIN_VALUE, Integer.MAX_VALUE));
+		assertEquals(0, new AVLTree().rangeCount(Integer.MIN_VALUE, Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void insertAllAndDeleteAll() {
+		Random random = new Random(9);
+		TreeMap<Integer, String> model = new TreeMap<>();
+		AVLTree tree = randomTree(random, 300, model);
+		//small batches, and ones past SetOperation.PARALLEL_GRAIN that run on the ForkJoinPool
+		for(int batch : new int[] {0, 1, 7, 100, 5000, 20000}) {
+			int[] keys = new int[batch];
+			String[] values = new String[batch];
+			int expected = 0;
+			for(int i = 0; i < batch; i++) {
+				keys[i] = random.nextInt(KEY_RANGE * 20);
+				values[i] = "b" + i; //a repeated key keeps its first value
+				if(model.putIfAbsent(keys[i], values[i]) == null) {
+					expected++;
+				}
+			}
+			assertEquals(expected, tree.insertAll(keys, values), "insertAll of " + batch);
+			assertValid(tree, model);
+			for(int i = 0; i < batch; i++) {
+				keys[i] = random.nextInt(KEY_RANGE * 20);
+			}
+			expected = 0;
+			for(int k : keys) {
+				if(model.remove(k) != null) {
+					expected++;
+				}
+			}
+			assertEquals(expected, tree.deleteAll(keys), "deleteAll of " + batch);
+			assertValid(tree, model);
+		}
+		assertEquals(model.size(), tree.deleteAll(tree.keysToArray()));
+		model.clear();
+		assertValid(tree, model);
+	}
+
+	@Test
+	public void setOperations() {
+		Random random = new Random(12);
+		AVLTree.InfoMerger merger = (key, thisInfo, otherInfo) -> thisInfo + "+" + otherInfo;
+		//sizes on both sides of SetOperation.PARALLEL_GRAIN, and empty trees
+		int[][] sizes = {{0, 0}, {0, 50}, {50, 0}, {300, 40}, {40, 300}, {6000, 9000}};
+		for(int[] size : sizes) {
+			for(int operation = 0; operation < 3; operation++) {
+				TreeMap<Integer, String> a = new TreeMap<>();
+				TreeMap<Integer, String> b = new TreeMap<>();
+				AVLTree tree = randomTree(random, size[0], a, "a", 20000);
+				AVLTree other = randomTree(random, size[1], b, "b", 20000);
+				TreeMap<Integer, String> expected = new TreeMap<>();
+				if(operation == 0) {
+					expected.putAll(b);
+					for(Map.Entry<Integer, String> entry : a.entrySet()) {
+						expected.merge(entry.getKey(), entry.getValue(), (inB, inA) -> inA + "+" + inB);
+					}
+					tree.union(other, merger);
+				}else if(operation == 1) {
+					for(Map.Entry<Integer, String> entry : a.entrySet()) {
+						if(b.containsKey(entry.getKey())) {
+							expected.put(entry.getKey(), entry.getValue() + "+" + b.get(entry.getKey()));
+						}
+					}
+					tree.intersection(other, merger);
+				}else {
+					expected.putAll(a);
+					expected.keySet().removeAll(b.keySet());
+					tree.difference(other);
+				}
+				assertValid(tree, expected);
+				assertValid(other, new TreeMap<>());
+			}
+		}
+		//without a merger the info of this tree is kept
+		TreeMap<Integer, String> a = new TreeMap<>();
+		AVLTree tree = randomTree(random, 500, a, "a", KEY_RANGE);
+		AVLTree other = randomTree(random, 500, new TreeMap<>(), "b", KEY_RANGE);
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for(int k : other.keysToArray()) {
+			expected.put(k, a.getOrDefault(k, other.search(k)));
+		}
+		expected.putAll(a);
+		tree.union(other, null);
+		assertValid(tree, expected);
+	}
+
+	@Test
+	public void insertAndDelete() {
+		Random random = new Random(15);
+		TreeMap<Integer, String> model = new TreeMap<>();
+		AVLTree tree = new AVLTree();
+		for(int i = 0; i < 4000; i++) {
+			int k = random.nextInt(KEY_RANGE / 4);
+			boolean present = model.containsKey(k);
+			if(random.nextBoolean()) {
+				int steps = tree.insert(k, "v" + i);
+				assertEquals(present, steps == -1, "insert " + k);
+				assertTrue(steps >= -1);
+				model.putIfAbsent(k, "v" + i);
+			}else {
+				int steps = tree.delete(k);
+				assertEquals(!present, steps == -1, "delete " + k);
+				assertTrue(steps >= -1);
+				model.remove(k);
+			}
+			if(i % 20 == 0) {
+				assertValid(tree, model);
+			}
+		}
+		assertValid(tree, model);
+		//runs in key order and back, which rotate at every level
+		for(int k = 0; k < KEY_RANGE; k++) {
+			tree.insert(k, "v" + k);
+			model.putIfAbsent(k, "v" + k);
+		}
+		assertValid(tree, model);
+		for(int k = KEY_RANGE - 1; k >= 0; k -= 2) {
+			tree.delete(k);
+			model.remove(k);
+		}
+		assertValid(tree, model);
+		for(int k = 0; k < KEY_RANGE; k++) {
+			tree.delete(k);
+			model.remove(k);
+		}
+		assertValid(tree, model);
+	}
+
+	@Test
+	public void binaryRoundTrip() throws IOException {
+		Random random = new Random(16);
+		String[] infos = INFOS;
+		TreeMap<Integer, String> model = new TreeMap<>();
+		AVLTree tree = new AVLTree();
+		int[] extremes = {Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE};
+		for(int k : extremes) {
+			tree.insert(k, infos[model.size() % infos.length]);
+			model.put(k, infos[model.size() % infos.length]);
+		}
+		for(int i = 0; i < 3000; i++) {
+			int k = random.nextInt();
+			String info = infos[random.nextInt(infos.length)];
+			if(tree.insert(k, info) != -1) {
+				model.put(k, info);
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		tree.writeTo(out);
+		byte[] bytes = out.toByteArray();
+		AVLTree read = AVLTree.readFrom(new ByteArrayInputStream(bytes));
+		assertValid(read, model);
+		//the rebuilt tree takes updates like any other
+		for(int k : extremes) {
+			read.delete(k);
+			model.remove(k);
+		}
+		assertValid(read, model);
+		//empty trees
+		out.reset();
+		new AVLTree().writeTo(out);
+		assertValid(AVLTree.readFrom(new ByteArrayInputStream(out.toByteArray())), new TreeMap<>());
+		//a flipped byte fails the checksum, a cut one runs out of data
+		byte[] corrupt = bytes.clone();
+		corrupt[bytes.length / 2] ^= 0x10;
+		assertThrows(IOException.class, () -> AVLTree.readFrom(new ByteArrayInputStream(corrupt)));
+		byte[] truncated = Arrays.copyOf(bytes, bytes.length - 5);
+		assertThrows(IOException.class, () -> AVLTree.readFrom(new ByteArrayInputStream(truncated)));
+	}
+
+	/**
+	 * Checks that an ArrayAVLTree holds exactly the items of model, with the
+	 * heights, sizes, balance and parent links of an AVL tree in its store.
+	 */
+	static void assertValid(AVLTree.ArrayAVLTree tree, TreeMap<Integer, String> model) {
+		assertEquals(model.size(), tree.size(), "size");
+		assertEquals(model.isEmpty(), tree.empty(), "empty");
+		assertEquals(model.isEmpty() ? null : model.firstEntry().getValue(), tree.min(), "min");
+		assertEquals(model.isEmpty() ? null : model.lastEntry().getValue(), tree.max(), "max");
+		AVLTree.ArrayAVLTree.Store store = tree.store;
+		int root = tree.getRoot();
+		if(root != AVLTree.ArrayAVLTree.NIL) {
+			assertEquals(AVLTree.ArrayAVLTree.NIL, store.getParent(root), "parent of the root");
+		}
+		assertEquals(model.size(), checkSubtree(store, root, Long.MIN_VALUE, Long.MAX_VALUE), "nodes");
+		assertArrayEquals(model.keySet().stream().mapToInt(Integer::intValue).toArray(), tree.keysToArray(), "keysToArray");
+		assertArrayEquals(model.values().toArray(new String[0]), tree.infoToArray(), "infoToArray");
+		for(Map.Entry<Integer, String> entry : model.entrySet()) {
+			assertEquals(entry.getValue(), tree.search(entry.getKey()), "search " + entry.getKey());
+		}
+	}
+
+	//checkSubtree for the node at index node of store
+	private static int checkSubtree(AVLTree.ArrayAVLTree.Store store, int node, long lo, long hi) {
+		if(node == AVLTree.ArrayAVLTree.NIL) {
+			return 0;
+		}
+		int key = store.getKey(node);
+		assertTrue(lo < key && key < hi, "key order at " + key);
+		int left = store.getLeft(node);
+		int right = store.getRight(node);
+		for(int child : new int[] {left, right}) {
+			if(child != AVLTree.ArrayAVLTree.NIL) {
+				assertEquals(node, store.getParent(child), "parent of " + store.getKey(child));
+			}
+		}
+		int count = checkSubtree(store, left, lo, key) + checkSubtree(store, right, key, hi) + 1;
+		int balance = store.getHeight(left) - store.getHeight(right);
+		assertTrue(-1 <= balance && balance <= 1, "balance factor " + balance + " at " + key);
+		assertEquals(Math.max(store.getHeight(left), store.getHeight(right)) + 1, store.getHeight(node), "height at " + key);
+		assertEquals(count, store.getSize(node), "size at " + key);
+		return count;
+	}
+
+	@Test
+	public void arrayTreeStores() {
+		for(boolean offHeap : new boolean[] {false, true}) {
+			Random random = new Random(offHeap ? 2 : 1);
+			TreeMap<Integer, String> model = new TreeMap<>();
+			AVLTree.ArrayAVLTree tree = offHeap ? AVLTree.ArrayAVLTree.offHeap() : new AVLTree.ArrayAVLTree();
+			for(int i = 0; i < 6000; i++) {
+				int k = random.nextInt(KEY_RANGE);
+				if(random.nextInt(3) == 0) {
+					assertEquals(model.remove(k) == null ? -1 : 0, Math.min(0, tree.delete(k)), "delete " + k);
+				}else {
+					assertEquals(model.containsKey(k) ? -1 : 0, Math.min(0, tree.insert(k, "v" + k)), "insert " + k);
+					model.putIfAbsent(k, "v" + k);
+				}
+				if(i % 1000 == 999) {
+					assertValid(tree, model);
+				}
+			}
+			//split, and join back around x, in the same store
+			for(int round = 0; round < 20; round++) {
+				int x = random.nextInt(KEY_RANGE + 20) - 10;
+				AVLTree.ArrayAVLTree[] halves = tree.split(x);
+				assertValid(halves[0], new TreeMap<>(model.headMap(x)));
+				assertValid(halves[1], new TreeMap<>(model.tailMap(x, false)));
+				halves[0].join(x, "x" + x, halves[1]);
+				model.put(x, "x" + x);
+				tree = halves[0];
+				assertValid(tree, model);
+			}
+			//join a tree of the other store from above and from below, then split the result
+			AVLTree.ArrayAVLTree above = offHeap ? new AVLTree.ArrayAVLTree() : AVLTree.ArrayAVLTree.offHeap();
+			AVLTree.ArrayAVLTree below = offHeap ? new AVLTree.ArrayAVLTree() : AVLTree.ArrayAVLTree.offHeap();
+			for(int i = 0; i < 700; i++) {
+				int k = random.nextInt(KEY_RANGE);
+				above.insert(KEY_RANGE * 2 + k, "a" + k);
+				model.putIfAbsent(KEY_RANGE * 2 + k, "a" + k);
+				below.insert(-KEY_RANGE * 2 - k, "b" + k);
+				model.putIfAbsent(-KEY_RANGE * 2 - k, "b" + k);
+			}
+			tree.join(KEY_RANGE + 1, "m", above);
+			tree.join(-KEY_RANGE - 1, "n", below);
+			model.put(KEY_RANGE + 1, "m");
+			model.put(-KEY_RANGE - 1, "n");
+			assertValid(tree, model);
+			AVLTree.ArrayAVLTree[] halves = tree.split(KEY_RANGE * 2 + 1000);
+			assertValid(halves[0], new TreeMap<>(model.headMap(KEY_RANGE * 2 + 1000)));
+			assertValid(halves[1], new TreeMap<>(model.tailMap(KEY_RANGE * 2 + 1000, false)));
+			//joining into an empty tree of the other store
+			AVLTree.ArrayAVLTree empty = offHeap ? new AVLTree.ArrayAVLTree() : AVLTree.ArrayAVLTree.offHeap();
+			empty.join(Integer.MIN_VALUE, "min", halves[1]);
+			TreeMap<Integer, String> upper = new TreeMap<>(model.tailMap(KEY_RANGE * 2 + 1000, false));
+			upper.put(Integer.MIN_VALUE, "min");
+			assertValid(empty, upper);
+		}
+	}
+
+	@Test
+	public void offHeapCompaction() {
+		//info of about 1KB churned far past the live bytes: compaction keeps the arena bounded
+		Random random = new Random(3);
+		TreeMap<Integer, String> model = new TreeMap<>();
+		AVLTree.ArrayAVLTree tree = AVLTree.ArrayAVLTree.offHeap();
+		AVLTree.ArrayAVLTree.OffHeapStore store = (AVLTree.ArrayAVLTree.OffHeapStore) tree.store;
+		long maxArena = 0;
+		for(int i = 0; i < 30000; i++) {
+			int k = random.nextInt(500);
+			if(model.containsKey(k)) {
+				tree.delete(k);
+				model.remove(k);
+			}
+			String info = k + "x".repeat(1000 + random.nextInt(50));
+			tree.insert(k, info);
+			model.put(k, info);
+			if(i % 1000 == 999) {
+				long live = 0;
+				for(String value : model.values()) {
+					live += 4 + value.length();
+				}
+				assertTrue(store.arenaBytes() <= 2 * live + (1 << 22) + 2048, "arena " + store.arenaBytes() + " for " + live + " live bytes");
+				assertValid(tree, model);
+			}
+			maxArena = Math.max(maxArena, store.arenaBytes());
+		}
+		assertTrue(maxArena < 30000L * 1000 / 2, "compacted at all");
+	}
+
+	@Test
+	public void offHeapInfoRoundTrip() {
+		//the info of binaryRoundTrip through the UTF-8 arena: new pages, an oversized one and compaction
+		Random random = new Random(3);
+		TreeMap<Integer, String> model = new TreeMap<>();
+		AVLTree.ArrayAVLTree tree = AVLTree.ArrayAVLTree.offHeap();
+		AVLTree.ArrayAVLTree.OffHeapStore store = (AVLTree.ArrayAVLTree.OffHeapStore) tree.store;
+		for(int k : new int[] {Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE}) {
+			tree.insert(k, INFOS[model.size() % INFOS.length]);
+			model.put(k, INFOS[model.size() % INFOS.length]);
+		}
+		//over 12MB of info, more than three 4MB pages
+		for(int i = 0; i < 3000; i++) {
+			int k = random.nextInt();
+			String info = INFOS[random.nextInt(INFOS.length)];
+			info = (info == null) ? null : info.repeat(1 + random.nextInt(3000));
+			if(tree.insert(k, info) != -1) {
+				model.put(k, info);
+			}
+		}
+		assertTrue(store.arenaBytes() > 3 << 22, "arena " + store.arenaBytes());
+		assertValid(tree, model);
+		//an info longer than a page gets a page of its own
+		String huge = "é中😀\ud800".repeat(1 << 19) + "\udc00"; // 6MB
+		tree.insert(42, huge);
+		model.putIfAbsent(42, huge);
+		assertEquals(model.get(42), tree.search(42));
+		//deleting most of them turns the arena into garbage, and compacts it
+		long before = store.arenaBytes();
+		for(Integer k : new ArrayList<>(model.keySet())) {
+			if(k != 42 && random.nextInt(8) != 0) {
+				tree.delete(k);
+				model.remove(k);
+			}
+		}
+		tree.insert(43, "\udc00\ud800");
+		model.putIfAbsent(43, "\udc00\ud800");
+		assertTrue(store.arenaBytes() < before, "compacted " + store.arenaBytes() + " of " + before);
+		assertValid(tree, model);
+		//unpaired surrogates survive a copy into a heap store, and back
+		AVLTree.ArrayAVLTree heap = new AVLTree.ArrayAVLTree();
+		heap.join(Integer.MIN_VALUE + 1, "\ud800", tree.split(Integer.MIN_VALUE + 1)[1]);
+		tree = AVLTree.ArrayAVLTree.offHeap();
+		tree.join(Integer.MIN_VALUE + 1, "\ud800", heap.split(Integer.MIN_VALUE + 1)[1]);
+		model.put(Integer.MIN_VALUE + 1, "\ud800");
+		model.remove(Integer.MIN_VALUE);
+		assertValid(tree, model);
+	}
+
+	@Test
+	public void deleteRangeAndExtractRange() {
+		Random random = new Random(22);
+		TreeMap<Integer, String> model = new TreeMap<>();
+		AVLTree tree = randomTree(random, 1500, model);
+		for(int round = 0; round < 60; round++) {
+			int lo = random.nextInt(KEY_RANGE + 20) - 10;
+			int hi = lo + random.nextInt(KEY_RANGE / 8) - 10;
+			TreeMap<Integer, String> range = new TreeMap<>();
+			if(lo <= hi) {
+				range.putAll(model.subMap(lo, true, hi, true));
+			}
+			if(round % 2 == 0) {
+				AVLTree extracted = tree.extractRange(lo, hi);
+				assertValid(extracted, range);
+			}else {
+				assertEquals(range.size(), tree.deleteRange(lo, hi), "deleteRange " + lo + ".." + hi);
+			}
+			model.keySet().removeAll(range.keySet());
+			assertValid(tree, model);
+			//refill so the ranges keep hitting keys
+			for(int i = 0; i < 20; i++) {
+				int k = random.nextInt(KEY_RANGE);
+				tree.insert(k, "v" + k);
+				model.putIfAbsent(k, "v" + k);
+			}
+		}
+		//ranges at and past both ends
+		assertEquals(model.headMap(100).size(), tree.deleteRange(Integer.MIN_VALUE, 99));
+		model.headMap(100).clear();
+		assertValid(tree, model);
+		//the splits and joins inside an extraction are not recorded, the range shares the metrics
+		AVLTree.TreeMetrics metrics = new AVLTree.TreeMetrics();
+		tree.setMetrics(metrics);
+		AVLTree middle = tree.extractRange(500, 1500);
+		assertSame(metrics, middle.getMetrics());
+		assertEquals(0, metrics.count(AVLTree.TreeMetrics.JOIN), "joins");
+		assertEquals(0, metrics.count(AVLTree.TreeMetrics.SPLIT), "splits");
+		middle.insert(1000, "v1000");
+		assertEquals(1, metrics.count(AVLTree.TreeMetrics.INSERT), "inserts");
+		tree.setMetrics(null);
+		model.subMap(500, true, 1500, true).clear();
+		assertValid(tree, model);
+		AVLTree rest = tree.extractRange(Integer.MIN_VALUE, Integer.MAX_VALUE);
+		assertValid(rest, model);
+		assertValid(tree, new TreeMap<>());
+	}
+
+	//sum of the keys, and the first key in order - which fails if an aggregate is combined out of order
+	static final AVLTree.Aggregator SUM = aggregator(0, (a, b) -> a + b);
+	static final AVLTree.Aggregator FIRST = aggregator(Long.MIN_VALUE, (a, b) -> (a == Long.MIN_VALUE) ? b : a);
+
+	static AVLTree.Aggregator aggregator(long identity, LongBinaryOperator combine) {
+		return new AVLTree.Aggregator() {
+			public long identity() {
+				return identity;
+			}
+			public long lift(int key, String info) {
+				return key;
+			}
+			public long combine(long left, long right) {
+				return combine.applyAsLong(left, right);
+			}
+		};
+	}
+
+	//the aggregate of the items of model with lo <= key <= hi, combined in key order
+	static long expectedAggregate(AVLTree.Aggregator aggregator, TreeMap<Integer, String> model, int lo, int hi) {
+		long aggregate = aggregator.identity();
+		if(lo <= hi) {
+			for(int k : model.subMap(lo, true, hi, true).keySet()) {
+				aggregate = aggregator.combine(aggregate, aggregator.lift(k, model.get(k)));
+			}
+		}
+		return aggregate;
+	}
+
+	//assertValid for an augmented tree, which also checks the aggregate kept in every node
+	static void assertValidAugmented(AVLTree tree, TreeMap<Integer, String> model) {
+		assertValid(tree, model);
+		AVLTree.Aggregator aggregator = tree.getAggregator();
+		for(AVLTree.IAVLNode node : tree) {
+			int lo = (node.getLeft().isRealNode()) ? leftmost(node.getLeft()).getKey() : node.getKey();
+			int hi = (node.getRight().isRealNode()) ? rightmost(node.getRight()).getKey() : node.getKey();
+			assertEquals(expectedAggregate(aggregator, model, lo, hi), ((AVLTree.AugmentedNode) node).getAggregate(), "aggregate at " + node.getKey());
+		}
+		assertEquals(expectedAggregate(aggregator, model, Integer.MIN_VALUE, Integer.MAX_VALUE), tree.aggregate());
+	}
+
+	private static AVLTree.IAVLNode leftmost(AVLTree.IAVLNode node) {
+		while(node.getLeft().isRealNode()) {
+			node = node.getLeft();
+		}
+		return node;
+	}
+
+	private static AVLTree.IAVLNode rightmost(AVLTree.IAVLNode node) {
+		while(node.getRight().isRealNode()) {
+			node = node.getRight();
+		}
+		return node;
+	}
+
+	@Test
+	public void aggregates() {
+		for(AVLTree.Aggregator aggregator : new AVLTree.Aggregator[] {SUM, FIRST}) {
+			Random random = new Random(23);
+			TreeMap<Integer, String> model = new TreeMap<>();
+			AVLTree tree = new AVLTree(aggregator);
+			assertEquals(aggregator.identity(), tree.aggregate());
+			for(int i = 0; i < 3000; i++) {
+				int k = random.nextInt(KEY_RANGE / 2);
+				if(random.nextInt(3) != 0) {
+					tree.insert(k, "v" + k);
+					model.putIfAbsent(k, "v" + k);
+				}else {
+					tree.delete(k);
+					model.remove(k);
+				}
+				if(i % 100 == 0) {
+					assertValidAugmented(tree, model);
+				}
+			}
+			assertValidAugmented(tree, model);
+			for(int round = 0; round < 300; round++) {
+				int lo = random.nextInt(KEY_RANGE / 2 + 20) - 10;
+				int hi = lo + random.nextInt(KEY_RANGE / 4) - 20;
+				assertEquals(expectedAggregate(aggregator, model, lo, hi), tree.aggregate(lo, hi), "aggregate " + lo + ".." + hi);
+			}
+			//the operations built on split and join
+			AVLTree[] halves = tree.split(KEY_RANGE / 4);
+			TreeMap<Integer, String> low = new TreeMap<>(model.headMap(KEY_RANGE / 4));
+			TreeMap<Integer, String> high = new TreeMap<>(model.tailMap(KEY_RANGE / 4, false));
+			assertValidAugmented(halves[0], low);
+			assertValidAugmented(halves[1], high);
+			tree = halves[0];
+			tree.join(tree.new AVLNode(KEY_RANGE / 4, "joined"), halves[1]);
+			model = low;
+			model.put(KEY_RANGE / 4, "joined");
+			model.putAll(high);
+			assertValidAugmented(tree, model);
+			AVLTree range = tree.extractRange(100, 300);
+			TreeMap<Integer, String> inRange = new TreeMap<>(model.subMap(100, true, 300, true));
+			model.keySet().removeAll(inRange.keySet());
+			assertValidAugmented(range, inRange);
+			assertValidAugmented(tree, model);
+			int[] keys = new int[500];
+			String[] values = new String[keys.length];
+			for(int i = 0; i < keys.length; i++) {
+				keys[i] = random.nextInt(KEY_RANGE);
+				values[i] = "v" + keys[i];
+				model.putIfAbsent(keys[i], values[i]);
+			}
+			tree.insertAll(keys, values);
+			assertValidAugmented(tree, model);
+			AVLTree other = new AVLTree(aggregator);
+			for(int i = 0; i < 400; i++) {
+				int k = KEY_RANGE / 2 + random.nextInt(KEY_RANGE);
+				other.insert(k, "v" + k);
+				model.putIfAbsent(k, "v" + k);
+			}
+			tree.union(other, null);
+			assertValidAugmented(tree, model);
+		}
+	}
+
+	/**
+	 * Checks a tree in relaxed balance: the items of model, exact heights and sizes,
+	 * balance factors in -2..2, a height within the bound for them, and rebalance
+	 * reporting exactly the nodes at 2.
+	 */
+	static void assertRelaxed(AVLTree tree, TreeMap<Integer, String> model) {
+		assertEquals(model.size(), tree.size(), "size");
+		assertArrayEquals(model.keySet().stream().mapToInt(Integer::intValue).toArray(), tree.keysToArray(), "keysToArray");
+		if(!model.isEmpty()) {
+			assertEquals(model.size(), checkSubtree(tree.getRoot(), Long.MIN_VALUE, Long.MAX_VALUE, 2), "nodes");
+			assertTrue(tree.getRoot().getHeight() <= 1.82 * Math.log(model.size() + 2) / Math.log(2), "height " + tree.getRoot().getHeight());
+			assertEquals(model.firstKey(), tree.min.getKey(), "min node");
+			assertEquals(model.lastKey(), tree.max.getKey(), "max node");
+		}
+		assertEquals(countUnbalanced(tree.getRoot()), tree.rebalance(0), "nodes left to rebalance");
+	}
+
+	//the number of nodes in the subtree of node whose children's heights differ by 2
+	private static int countUnbalanced(AVLTree.IAVLNode node) {
+		if(node == null || !node.isRealNode()) {
+			return 0;
+		}
+		int balance = Math.abs(node.getLeft().getHeight() - node.getRight().getHeight());
+		return countUnbalanced(node.getLeft()) + countUnbalanced(node.getRight()) + (balance == 2 ? 1 : 0);
+	}
+
+	@Test
+	public void relaxedBalance() {
+		Random random = new Random(21);
+		TreeMap<Integer, String> model = new TreeMap<>();
+		AVLTree tree = new AVLTree();
+		tree.setRelaxed(true);
+		assertTrue(tree.isRelaxed());
+		//appends, the burst that stretched the old relaxed balance by a level per queued node
+		for(int k = 0; k < 3000; k++) {
+			tree.insert(k, "v" + k);
+			model.put(k, "v" + k);
+		}
+		assertRelaxed(tree, model);
+		assertTrue(tree.rebalance(0) > 0, "appends leave nodes to rebalance");
+		for(int round = 0; round < 6; round++) {
+			for(int i = 0; i < 1500; i++) {
+				int k = random.nextInt(4 * KEY_RANGE);
+				if(random.nextInt(3) == 0) {
+					assertEquals(model.remove(k) == null ? -1 : 0, Math.min(0, tree.delete(k)), "delete " + k);
+				}else {
+					assertEquals(model.containsKey(k) ? -1 : 0, Math.min(0, tree.insert(k, "v" + k)), "insert " + k);
+					model.putIfAbsent(k, "v" + k);
+				}
+			}
+			assertRelaxed(tree, model);
+			//drain in small steps, the tree stays valid in between
+			int left = tree.rebalance(0);
+			while(left > 0) {
+				int next = tree.rebalance(7);
+				assertRelaxed(tree, model);
+				left = next;
+			}
+			assertValid(tree, model);
+		}
+		//split and join rebalance everything first
+		for(int i = 0; i < 500; i++) {
+			int k = random.nextInt(4 * KEY_RANGE);
+			tree.insert(k, "v" + k);
+			model.putIfAbsent(k, "v" + k);
+		}
+		int x = model.firstKey() + (model.lastKey() - model.firstKey()) / 2;
+		AVLTree[] halves = tree.split(x);
+		assertValid(halves[0], new TreeMap<>(model.headMap(x)));
+		assertValid(halves[1], new TreeMap<>(model.tailMap(x, false)));
+		//deletes in relaxed balance, then switching back rebalances everything
+		tree = randomTree(random, 1000, model = new TreeMap<>());
+		tree.setRelaxed(true);
+		for(Integer k : new ArrayList<>(model.keySet())) {
+			if(random.nextBoolean()) {
+				tree.delete(k);
+				model.remove(k);
+			}
+		}
+		assertRelaxed(tree, model);
+		tree.setRelaxed(false);
+		assertTrue(!tree.isRelaxed());
+		assertValid(tree, model);
+	}
+
+	@Test
+	public void concurrentTreeDeeperThanMaxDescent() {
+		//a right spine of 200 nodes: AVLTree(IAVLNode) takes it as it is
+		int count = 200;
+		AVLTree builder = new AVLTree();
+		AVLTree.IAVLNode top = null;
+		for(int k = count - 1; k >= 0; k--) {
+			AVLTree.IAVLNode node = builder.new AVLNode(k * 2, "v" + k * 2);
+			if(top != null) {
+				node.setRight(top);
+				top.setParent(node);
+				node.setHeight(top.getHeight() + 1);
+				node.setSize(top.getSize() + 1);
+			}
+			top = node;
+		}
+		assertTrue(top.getHeight() > AVLTree.ConcurrentAVLTree.MAX_DESCENT);
+		AVLTree.ConcurrentAVLTree tree = new AVLTree.ConcurrentAVLTree(new AVLTree(top));
+		assertEquals(count, tree.size());
+		for(int k = -1; k <= count * 2; k++) {
+			assertEquals((k >= 0 && k < count * 2 && k % 2 == 0) ? "v" + k : null, tree.search(k), "search " + k);
+		}
+		assertEquals(count, tree.rangeCount(0, count * 2));
+		assertEquals(count / 2, tree.rangeCount(count, count * 2));
+		assertEquals(1, tree.rangeCount(count * 2 - 2, Integer.MAX_VALUE));
+		assertEquals("v0", tree.min());
+		assertEquals("v" + (count * 2 - 2), tree.max());
+	}
+
+	//checks heights, balance factors, sizes and parent links of a LongAVLTree or ComparatorAVLTree
+	static <N extends AVLTree.KeyedNode<N, V>, V> void assertBalanced(AVLTree.KeyedAVLTree<?, N, V> tree, int size) {
+		if(tree.root != null) {
+			assertNull(tree.root.parent, "parent of the root");
+		}
+		assertEquals(size, checkKeyedSubtree(tree.root), "nodes");
+		assertEquals(size, tree.size(), "size");
+		assertEquals(size == 0, tree.empty(), "empty");
+	}
+
+	private static <N extends AVLTree.KeyedNode<N, V>, V> int checkKeyedSubtree(N node) {
+		if(node == null) {
+			return 0;
+		}
+		if(node.left != null) {
+			assertSame(node, node.left.parent, "parent of a left child");
+		}
+		if(node.right != null) {
+			assertSame(node, node.right.parent, "parent of a right child");
+		}
+		int count = checkKeyedSubtree(node.left) + checkKeyedSubtree(node.right) + 1;
+		int leftHeight = (node.left == null) ? -1 : node.left.height;
+		int rightHeight = (node.right == null) ? -1 : node.right.height;
+		assertTrue(Math.abs(leftHeight - rightHeight) <= 1, "balance factor " + (leftHeight - rightHeight));
+		assertEquals(Math.max(leftHeight, rightHeight) + 1, node.height, "height");
+		assertEquals(count, node.size, "size");
+		return count;
+	}
+
+	static void assertValid(AVLTree.LongAVLTree tree, TreeMap<Long, String> model) {
+		assertBalanced(tree, model.size());
+		long[] keys = new long[model.size()];
+		int i = 0;
+		for(long k : model.keySet()) {
+			keys[i++] = k;
+		}
+		assertArrayEquals(keys, tree.keysToArray(), "keysToArray");
+		assertArrayEquals(model.values().toArray(new String[0]), tree.infoToArray(), "infoToArray");
+		assertEquals(model.isEmpty() ? null : model.firstEntry().getValue(), tree.min(), "min");
+		assertEquals(model.isEmpty() ? null : model.lastEntry().getValue(), tree.max(), "max");
+	}
+
+	static <K, V> void assertValid(AVLTree.ComparatorAVLTree<K, V> tree, TreeMap<K, V> model) {
+		assertBalanced(tree, model.size());
+		assertEquals(new ArrayList<>(model.keySet()), tree.keys(), "keys");
+		assertEquals(new ArrayList<>(model.values()), tree.values(), "values");
+		assertEquals(model.isEmpty() ? null : model.firstEntry().getValue(), tree.min(), "min");
+		assertEquals(model.isEmpty() ? null : model.lastEntry().getValue(), tree.max(), "max");
+	}
+
+	@Test
+	public void concurrentReadersDuringWrites() throws InterruptedException {
+		//the even keys below KEY_RANGE stay put, the writer churns odd keys and the keys past KEY_RANGE
+		AVLTree.ConcurrentAVLTree tree = new AVLTree.ConcurrentAVLTree();
+		for(int k = 0; k < KEY_RANGE; k += 2) {
+			tree.insert(k, "v" + k);
+		}
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread[] readers = new Thread[3];
+		for(int r = 0; r < readers.length; r++) {
+			Random random = new Random(r);
+			readers[r] = new Thread(() -> {
+				try {
+					for(int i = 0; i < 20000 && failure.get() == null; i++) {
+						int k = random.nextInt(KEY_RANGE / 2) * 2;
+						assertEquals("v" + k, tree.search(k), "search " + k);
+						int count = tree.rangeCount(0, k);
+						assertTrue(k / 2 + 1 <= count && count <= k + 1, "rangeCount 0.." + k + " = " + count);
+						assertEquals("v0", tree.min());
+					}
+				}catch(Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+			readers[r].start();
+		}
+		Random random = new Random(10);
+		TreeMap<Integer, String> model = new TreeMap<>();
+		for(int k = 0; k < KEY_RANGE; k += 2) {
+			model.put(k, "v" + k);
+		}
+		for(int i = 0; i < 20000; i++) {
+			int k = (random.nextInt(2) == 0) ? random.nextInt(KEY_RANGE / 2) * 2 + 1 : KEY_RANGE + random.nextInt(KEY_RANGE);
+			if(random.nextBoolean()) {
+				tree.insert(k, "v" + k);
+				model.putIfAbsent(k, "v" + k);
+			}else {
+				tree.delete(k);
+				model.remove(k);
+			}
+			if(i % 1000 == 999) {
+				//the keys past KEY_RANGE go away and come back with one split and one join
+				AVLTree rest = tree.split(KEY_RANGE - 1);
+				if(!rest.empty()) {
+					int min = rest.min.getKey();
+					String info = rest.min();
+					rest.delete(min);
+					tree.join(rest.new AVLNode(min, info), rest);
+				}
+			}
+		}
+		for(Thread reader : readers) {
+			reader.join();
+		}
+		if(failure.get() != null) {
+			throw new AssertionError("reader failed", failure.get());
+		}
+		assertArrayEquals(model.keySet().stream().mapToInt(Integer::intValue).toArray(), tree.keysToArray(), "keys");
+		assertArrayEquals(model.values().toArray(new String[0]), tree.infoToArray(), "info");
+	}
+
+	@Test
+	public void concurrentSplitAndJoin() {
+		Random random = new Random(11);
+		TreeMap<Integer, String> model = new TreeMap<>();
+		AVLTree.ConcurrentAVLTree tree = new AVLTree.ConcurrentAVLTree(randomTree(random, 1000, model));
+		for(int round = 0; round < 40; round++) {
+			int x = random.nextInt(KEY_RANGE + 20) - 10;
+			//this tree keeps the keys <= x, x included if it is there
+			AVLTree above = tree.split(x);
+			assertValid(above, new TreeMap<>(model.tailMap(x, false)));
+			TreeMap<Integer, String> below = new TreeMap<>(model.headMap(x, true));
+			assertArrayEquals(below.keySet().stream().mapToInt(Integer::intValue).toArray(), tree.keysToArray(), "keys <= " + x);
+			assertEquals(below.size(), tree.size());
+			assertEquals(model.get(x), tree.search(x), "search " + x);
+			//join the keys > x back around a key between the two trees, if there is one free
+			int k = below.isEmpty() ? x : below.lastKey() + 1;
+			if(k > x && (above.empty() || k < above.min.getKey())) {
+				tree.join(above.new AVLNode(k, "v" + k), above);
+				model.put(k, "v" + k);
+			}else if(!above.empty()) {
+				int min = above.min.getKey();
+				String info = above.min();
+				above.delete(min);
+				tree.join(above.new AVLNode(min, info), above);
+			}
+			assertArrayEquals(model.keySet().stream().mapToInt(Integer::intValue).toArray(), tree.keysToArray(), "keys after join");
+			assertArrayEquals(model.values().toArray(new String[0]), tree.infoToArray(), "info after join");
+		}
+	}
+
+	//checks that version holds exactly the items of model
+	static void assertVersion(AVLTree.PersistentAVLTree version, TreeMap<Integer, String> model, String name) {
+		assertEquals(model.size(), version.size(), name + " size");
+		assertEquals(model.isEmpty(), version.empty(), name + " empty");
+		assertEquals(model.isEmpty() ? null : model.firstEntry().getValue(), version.min(), name + " min");
+		assertEquals(model.isEmpty() ? null : model.lastEntry().getValue(), version.max(), name + " max");
+		assertArrayEquals(model.keySet().stream().mapToInt(Integer::intValue).toArray(), version.keysToArray(), name + " keys");
+		assertArrayEquals(model.values().toArray(new String[0]), version.infoToArray(), name + " info");
+		for(int k = -1; k <= KEY_RANGE; k += 7) {
+			assertEquals(model.get(k), version.search(k), name + " search " + k);
+		}
+	}
+
+	@Test
+	public void persistentSnapshots() {
+		Random random = new Random(11);
+		List<AVLTree.PersistentAVLTree> versions = new ArrayList<>();
+		List<TreeMap<Integer, String>> models = new ArrayList<>();
+		AVLTree.PersistentAVLTree tree = AVLTree.PersistentAVLTree.emptyTree();
+		TreeMap<Integer, String> model = new TreeMap<>();
+		for(int round = 0; round < 30; round++) {
+			versions.add(tree);
+			models.add(new TreeMap<>(model));
+			for(int i = 0; i < 100; i++) {
+				int k = random.nextInt(KEY_RANGE);
+				if(random.nextInt(3) == 0) {
+					AVLTree.PersistentAVLTree next = tree.delete(k);
+					assertEquals(model.remove(k) == null, next == tree, "delete " + k + " returns the same version iff k is missing");
+					tree = next;
+				}else {
+					AVLTree.PersistentAVLTree next = tree.insert(k, "r" + round + "k" + k);
+					assertEquals(model.containsKey(k), next == tree, "insert " + k + " returns the same version iff k is there");
+					model.putIfAbsent(k, "r" + round + "k" + k);
+					tree = next;
+				}
+			}
+			//a split and a join of this version make new versions and leave it as it is
+			int x = random.nextInt(KEY_RANGE);
+			AVLTree.PersistentAVLTree[] halves = tree.split(x);
+			assertVersion(halves[0], new TreeMap<>(model.headMap(x)), "lower half");
+			assertVersion(halves[1], new TreeMap<>(model.tailMap(x, false)), "upper half");
+			AVLTree.PersistentAVLTree joined = halves[0].join(x, "x", halves[1]);
+			TreeMap<Integer, String> joinedModel = new TreeMap<>(model);
+			joinedModel.put(x, "x");
+			assertVersion(joined, joinedModel, "joined");
+			assertVersion(tree, model, "split version");
+			//every version kept so far still holds its items
+			for(int v = 0; v < versions.size(); v++) {
+				assertVersion(versions.get(v), models.get(v), "version " + v);
+			}
+		}
+		//the same through VersionedAVLTree, whose snapshots are the published versions
+		AVLTree.VersionedAVLTree versioned = new AVLTree.VersionedAVLTree();
+		List<AVLTree.PersistentAVLTree> snapshots = new ArrayList<>();
+		models.clear();
+		model.clear();
+		for(int round = 0; round < 20; round++) {
+			snapshots.add(versioned.snapshot());
+			models.add(new TreeMap<>(model));
+			for(int i = 0; i < 100; i++) {
+				int k = random.nextInt(KEY_RANGE);
+				if(random.nextInt(3) == 0) {
+					assertEquals(model.remove(k) != null, versioned.delete(k), "delete " + k);
+				}else {
+					assertEquals(!model.containsKey(k), versioned.insert(k, "v" + k), "insert " + k);
+					model.putIfAbsent(k, "v" + k);
+				}
+			}
+			int x = random.nextInt(KEY_RANGE);
+			versioned.update(version -> version.split(x)[0]);
+			model.tailMap(x, true).clear();
+			assertVersion(versioned.snapshot(), model, "current");
+		}
+		for(int v = 0; v < snapshots.size(); v++) {
+			assertVersion(snapshots.get(v), models.get(v), "snapshot " + v);
+		}
+	}
+
+	//checks that map holds exactly the items of model, also through rangeCount and rangeForEach
+	static void assertSharded(AVLTree.ShardedAVLTree map, TreeMap<Integer, String> model, Random random) {
+		assertEquals(model.size(), map.size(), "size");
+		assertEquals(model.size(), Arrays.stream(map.shardSizes()).sum(), "shard sizes");
+		assertArrayEquals(model.keySet().stream().mapToInt(Integer::intValue).toArray(), map.keysToArray(), "keysToArray");
+		assertArrayEquals(model.values().toArray(new String[0]), map.infoToArray(), "infoToArray");
+		for(Map.Entry<Integer, String> entry : model.entrySet()) {
+			assertEquals(entry.getValue(), map.search(entry.getKey()), "search " + entry.getKey());
+		}
+		for(int i = 0; i < 20; i++) {
+			int lo = random.nextInt(KEY_RANGE * 3) - KEY_RANGE;
+			int hi = lo + random.nextInt(KEY_RANGE);
+			assertEquals(model.subMap(lo, true, hi, true).size(), map.rangeCount(lo, hi), "rangeCount " + lo + ".." + hi);
+			List<Integer> keys = new ArrayList<>();
+			map.rangeForEach(lo, hi, (k, info) -> keys.add(k));
+			assertEquals(new ArrayList<>(model.subMap(lo, true, hi, true).keySet()), keys, "rangeForEach " + lo + ".." + hi);
+		}
+	}
+
+	@Test
+	public void shardedReshard() {
+		Random random = new Random(20);
+		TreeMap<Integer, String> model = new TreeMap<>();
+		AVLTree.ShardedAVLTree map = AVLTree.ShardedAVLTree.uniform(8, 0, KEY_RANGE - 1);
+		for(int round = 0; round < 60; round++) {
+			for(int i = 0; i < 200; i++) {
+				//keys below and above the uniform range go to the first and last shard
+				int k = random.nextInt(KEY_RANGE * 3) - KEY_RANGE;
+				if(random.nextInt(3) == 0) {
+					assertEquals(model.remove(k) == null ? -1 : 0, Math.min(0, map.delete(k)), "delete " + k);
+				}else {
+					assertEquals(model.containsKey(k) ? -1 : 0, Math.min(0, map.insert(k, "v" + k)), "insert " + k);
+					model.putIfAbsent(k, "v" + k);
+				}
+			}
+			int shards = map.shardCount();
+			switch(round % 3) {
+			case 0:
+				int index = random.nextInt(shards);
+				boolean split = map.splitShard(index);
+				assertEquals(map.shardSizes().length, shards + (split ? 1 : 0));
+				break;
+			case 1:
+				if(shards > 1) {
+					map.mergeShards(random.nextInt(shards - 1));
+					assertEquals(shards - 1, map.shardCount());
+				}
+				break;
+			default:
+				int maxShardSize = 20 + random.nextInt(400);
+				map.rebalance(maxShardSize);
+				int[] sizes = map.shardSizes();
+				for(int i = 0; i < sizes.length; i++) {
+					assertTrue(sizes[i] <= maxShardSize, "shard " + i + " of " + sizes[i] + " > " + maxShardSize);
+					if(i + 1 < sizes.length) {
+						assertTrue(sizes[i] + sizes[i + 1] > maxShardSize / 2, "shards " + i + " and " + (i + 1) + " left unmerged");
+					}
+				}
+				break;
+			}
+			assertSharded(map, model, random);
+		}
+		//down to one shard and back
+		while(map.shardCount() > 1) {
+			map.mergeShards(0);
+		}
+		assertSharded(map, model, random);
+		map.rebalance(50);
+		assertSharded(map, model, random);
+	}
+
+	@Test
+	public void shardedWritersDuringRebalance() throws InterruptedException {
+		AVLTree.ShardedAVLTree map = AVLTree.ShardedAVLTree.uniform(4, 0, KEY_RANGE - 1);
+		int writers = 3;
+		List<TreeMap<Integer, String>> models = new ArrayList<>();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread[] threads = new Thread[writers];
+		for(int w = 0; w < writers; w++) {
+			//writer w owns the keys k with k % writers == w, so it knows what search must find
+			int owner = w;
+			TreeMap<Integer, String> model = new TreeMap<>();
+			models.add(model);
+			Random random = new Random(w);
+			threads[w] = new Thread(() -> {
+				try {
+					for(int i = 0; i < 20000 && failure.get() == null; i++) {
+						int k = random.nextInt(KEY_RANGE / writers) * writers + owner;
+						if(random.nextInt(3) == 0) {
+							assertEquals(model.remove(k) == null ? -1 : 0, Math.min(0, map.delete(k)), "delete " + k);
+						}else {
+							assertEquals(model.containsKey(k) ? -1 : 0, Math.min(0, map.insert(k, "w" + owner)), "insert " + k);
+							model.putIfAbsent(k, "w" + owner);
+						}
+						assertEquals(model.get(k), map.search(k), "search " + k);
+					}
+				}catch(Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+			threads[w].start();
+		}
+		Random random = new Random(20);
+		int reshards = 0;
+		while(Arrays.stream(threads).anyMatch(Thread::isAlive)) {
+			reshards += map.rebalance(10 + random.nextInt(200));
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		if(failure.get() != null) {
+			throw new AssertionError("writer failed", failure.get());
+		}
+		assertTrue(reshards > 0, "no reshard ran next to the writers");
+		TreeMap<Integer, String> model = new TreeMap<>();
+		for(TreeMap<Integer, String> part : models) {
+			model.putAll(part);
+		}
+		assertSharded(map, model, random);
+	}
+
+	@Test
+	public void longKeys() {
+		Random random = new Random(13);
+		TreeMap<Long, String> model = new TreeMap<>();
+		AVLTree.LongAVLTree tree = new AVLTree.LongAVLTree();
+		//spread over the whole long range, with -1 and the extremes
+		long[] keys = new long[600];
+		for(int i = 0; i < keys.length; i++) {
+			keys[i] = (i < 3) ? new long[] {-1, Long.MIN_VALUE, Long.MAX_VALUE}[i] : random.nextLong() >> random.nextInt(60);
+		}
+		for(int i = 0; i < 5000; i++) {
+			long k = keys[random.nextInt(keys.length)];
+			if(random.nextInt(3) != 0) {
+				assertEquals(model.containsKey(k), tree.insert(k, "v" + i) == -1, "insert " + k);
+				model.putIfAbsent(k, "v" + i);
+			}else {
+				assertEquals(!model.containsKey(k), tree.delete(k) == -1, "delete " + k);
+				model.remove(k);
+			}
+			if(i % 50 == 0) {
+				assertValid(tree, model);
+			}
+		}
+		assertValid(tree, model);
+		for(long k : keys) {
+			assertEquals(model.get(k), tree.search(k), "search " + k);
+			assertEquals(model.headMap(k).size(), tree.rank(k), "rank " + k);
+			long hi = keys[random.nextInt(keys.length)];
+			assertEquals((k > hi) ? 0 : model.subMap(k, true, hi, true).size(), tree.rangeCount(k, hi), "rangeCount " + k + ".." + hi);
+		}
+		Long[] sorted = model.keySet().toArray(new Long[0]);
+		assertNull(tree.select(-1));
+		assertNull(tree.select(sorted.length));
+		for(int i = 0; i < sorted.length; i++) {
+			assertEquals((long) sorted[i], tree.select(i).getKey(), "select " + i);
+		}
+		//split at present and absent keys, and join the halves back around the split key
+		for(int round = 0; round < 30; round++) {
+			long x = (round % 2 == 0) ? sorted[random.nextInt(sorted.length)] : keys[random.nextInt(keys.length)];
+			String info = model.containsKey(x) ? model.get(x) : "joined";
+			AVLTree.LongAVLTree[] halves = tree.split(x);
+			TreeMap<Long, String> low = new TreeMap<>(model.headMap(x));
+			TreeMap<Long, String> high = new TreeMap<>(model.tailMap(x, false));
+			assertValid(halves[0], low);
+			assertValid(halves[1], high);
+			assertValid(tree, new TreeMap<>());
+			tree = (round % 3 == 0) ? halves[1] : halves[0];
+			tree.join(x, info, (round % 3 == 0) ? halves[0] : halves[1]);
+			model.put(x, info);
+			assertValid(tree, model);
+			sorted = model.keySet().toArray(new Long[0]);
+		}
+	}
+
+	@Test
+	public void comparatorKeys() {
+		Random random = new Random(113);
+		Comparator<String> order = Comparator.comparing(String::length).thenComparing(Comparator.reverseOrder());
+		TreeMap<String, Integer> model = new TreeMap<>(order);
+		AVLTree.ComparatorAVLTree<String, Integer> tree = new AVLTree.ComparatorAVLTree<>(order);
+		for(int i = 0; i < 5000; i++) {
+			String k = Integer.toString(random.nextInt(KEY_RANGE));
+			if(random.nextInt(3) != 0) {
+				assertEquals(model.containsKey(k), tree.insert(k, i) == -1, "insert " + k);
+				model.putIfAbsent(k, i);
+			}else {
+				assertEquals(!model.containsKey(k), tree.delete(k) == -1, "delete " + k);
+				model.remove(k);
+			}
+			if(i % 50 == 0) {
+				assertValid(tree, model);
+			}
+		}
+		assertValid(tree, model);
+		List<String> sorted = new ArrayList<>(model.keySet());
+		for(int i = 0; i < sorted.size(); i++) {
+			assertEquals(sorted.get(i), tree.select(i).getKey(), "select " + i);
+		}
+		for(int round = 0; round < 300; round++) {
+			String k = Integer.toString(random.nextInt(KEY_RANGE));
+			String hi = Integer.toString(random.nextInt(KEY_RANGE));
+			assertEquals(model.get(k), tree.search(k), "search " + k);
+			assertEquals(model.headMap(k).size(), tree.rank(k), "rank " + k);
+			assertEquals((order.compare(k, hi) > 0) ? 0 : model.subMap(k, true, hi, true).size(), tree.rangeCount(k, hi), "rangeCount " + k + ".." + hi);
+		}
+		for(int round = 0; round < 30; round++) {
+			String x = Integer.toString(random.nextInt(KEY_RANGE));
+			Integer info = model.containsKey(x) ? model.get(x) : -1;
+			AVLTree.ComparatorAVLTree<String, Integer>[] halves = tree.split(x);
+			TreeMap<String, Integer> low = new TreeMap<>(model.headMap(x));
+			TreeMap<String, Integer> high = new TreeMap<>(model.tailMap(x, false));
+			assertValid(halves[0], low);
+			assertValid(halves[1], high);
+			tree = (round % 3 == 0) ? halves[1] : halves[0];
+			tree.join(x, info, (round % 3 == 0) ? halves[0] : halves[1]);
+			model.put(x, info);
+			assertValid(tree, model);
+		}
+		AVLTree.ComparatorAVLTree<Integer, String> natural = AVLTree.ComparatorAVLTree.naturalOrder();
+		AVLTree.ComparatorAVLTree<Integer, String>[] empty = natural.split(5);
+		assertValid(empty[0], new TreeMap<>());
+		assertValid(empty[1], new TreeMap<>());
+	}
+
+	//checks a snapshot against model: items by index, search, rank, floor, ceiling and ranges
+	static void assertSnapshot(AVLTree.MappedSnapshot snapshot, TreeMap<Integer, String> model, int[] probes) {
+		assertEquals(model.size(), snapshot.size(), "size");
+		assertEquals(model.isEmpty(), snapshot.empty(), "empty");
+		int i = 0;
+		for(Map.Entry<Integer, String> entry : model.entrySet()) {
+			assertEquals(entry.getKey(), snapshot.keyAt(i), "keyAt " + i);
+			assertEquals(entry.getValue(), snapshot.infoAt(i), "infoAt " + i);
+			assertEquals(entry.getValue(), snapshot.search(entry.getKey()), "search " + entry.getKey());
+			i++;
+		}
+		for(int k : probes) {
+			assertEquals(model.get(k), snapshot.search(k), "search " + k);
+			assertEquals(model.headMap(k).size(), snapshot.rank(k), "rank " + k);
+			Integer floor = model.floorKey(k);
+			assertEquals((floor == null) ? -1 : model.headMap(floor).size(), snapshot.floor(k), "floor " + k);
+			Integer ceiling = model.ceilingKey(k);
+			assertEquals((ceiling == null) ? -1 : model.headMap(ceiling).size(), snapshot.ceiling(k), "ceiling " + k);
+		}
+		for(int a = 0; a < probes.length; a += 3) {
+			int lo = Math.min(probes[a], probes[(a + 7) % probes.length]);
+			int hi = Math.max(probes[a], probes[(a + 7) % probes.length]);
+			assertEquals(model.subMap(lo, true, hi, true).size(), snapshot.rangeCount(lo, hi), "rangeCount " + lo + ".." + hi);
+			List<Integer> keys = new ArrayList<>();
+			List<String> infos = new ArrayList<>();
+			snapshot.rangeForEach(lo, hi, (k, info) -> {
+				keys.add(k);
+				infos.add(info);
+			});
+			assertEquals(new ArrayList<>(model.subMap(lo, true, hi, true).keySet()), keys, "rangeForEach keys " + lo + ".." + hi);
+			assertEquals(new ArrayList<>(model.subMap(lo, true, hi, true).values()), infos, "rangeForEach info " + lo + ".." + hi);
+		}
+		assertEquals(model.size(), snapshot.rangeCount(Integer.MIN_VALUE, Integer.MAX_VALUE), "rangeCount of everything");
+		assertEquals(0, snapshot.rangeCount(1, 0), "rangeCount of an empty range");
+	}
+
+	@Test
+	public void mappedSnapshotRoundTrip(@TempDir Path directory) throws IOException {
+		Random random = new Random(17);
+		int[] extremes = {Integer.MIN_VALUE, Integer.MIN_VALUE + 1, -1, 0, 1, Integer.MAX_VALUE - 1, Integer.MAX_VALUE};
+		int[] probes = new int[extremes.length + 200];
+		System.arraycopy(extremes, 0, probes, 0, extremes.length);
+		for(int i = extremes.length; i < probes.length; i++) {
+			probes[i] = (i % 2 == 0) ? random.nextInt() : random.nextInt(KEY_RANGE * 2) - KEY_RANGE;
+		}
+		//an empty tree
+		Path empty = directory.resolve("empty.avlm");
+		new AVLTree().freeze(empty);
+		assertSnapshot(AVLTree.MappedSnapshot.open(empty), new TreeMap<>(), probes);
+		//the extreme keys, a dense and a sparse part, with the info of binaryRoundTrip
+		TreeMap<Integer, String> model = new TreeMap<>();
+		AVLTree tree = new AVLTree();
+		for(int k : new int[] {Integer.MIN_VALUE, -1, 0, Integer.MAX_VALUE}) {
+			tree.insert(k, INFOS[model.size() % INFOS.length]);
+			model.put(k, INFOS[model.size() % INFOS.length]);
+		}
+		for(int i = 0; i < 3000; i++) {
+			int k = (i % 2 == 0) ? random.nextInt() : random.nextInt(KEY_RANGE * 2) - KEY_RANGE;
+			String info = INFOS[random.nextInt(INFOS.length)];
+			if(tree.insert(k, info) != -1) {
+				model.put(k, info);
+			}
+		}
+		Path path = directory.resolve("tree.avlm");
+		tree.freeze(path);
+		assertSnapshot(AVLTree.MappedSnapshot.open(path), model, probes);
+		//a single item, and a file that is not a snapshot
+		Path one = directory.resolve("one.avlm");
+		AVLTree single = new AVLTree();
+		single.insert(Integer.MAX_VALUE, "\ud800");
+		single.freeze(one);
+		TreeMap<Integer, String> oneModel = new TreeMap<>();
+		oneModel.put(Integer.MAX_VALUE, "\ud800");
+		assertSnapshot(AVLTree.MappedSnapshot.open(one), oneModel, probes);
+		Path garbage = directory.resolve("garbage.avlm");
+		Files.write(garbage, new byte[] {1, 2, 3});
+		assertThrows(IOException.class, () -> AVLTree.MappedSnapshot.open(garbage));
+	}
+
+	/**
+	 * Checks search, rank, min, max and the arrays of a frozen copy of tree
+	 * against the tree itself and against model, on every key and on probes.
+	 */
+	static void assertFrozen(AVLTree tree, TreeMap<Integer, String> model, int[] probes) {
+		AVLTree.FrozenAVLTree frozen = tree.freeze();
+		String name = "frozen copy of " + model.size() + " items";
+		assertEquals(model.size(), frozen.size(), name + " size");
+		assertEquals(model.isEmpty(), frozen.empty(), name + " empty");
+		assertEquals(tree.min(), frozen.min(), name + " min");
+		assertEquals(tree.max(), frozen.max(), name + " max");
+		assertArrayEquals(tree.keysToArray(), frozen.keysToArray(), name + " keysToArray");
+		assertArrayEquals(tree.infoToArray(), frozen.infoToArray(), name + " infoToArray");
+		for(Map.Entry<Integer, String> entry : model.entrySet()) {
+			int k = entry.getKey();
+			assertEquals(entry.getValue(), frozen.search(k), name + " search " + k);
+			assertEquals(tree.rank(k), frozen.rank(k), name + " rank " + k);
+		}
+		for(int k : probes) {
+			assertEquals(model.get(k), frozen.search(k), name + " search " + k);
+			assertEquals(model.headMap(k).size(), frozen.rank(k), name + " rank " + k);
+			assertEquals(tree.rank(k), frozen.rank(k), name + " rank " + k);
+		}
+	}
+
+	@Test
+	public void frozenSearchAndRank() {
+		Random random = new Random(18);
+		int[] extremes = {Integer.MIN_VALUE, Integer.MIN_VALUE + 1, -1, 0, 1, Integer.MAX_VALUE - 1, Integer.MAX_VALUE};
+		int[] probes = new int[extremes.length + 300];
+		System.arraycopy(extremes, 0, probes, 0, extremes.length);
+		for(int i = extremes.length; i < probes.length; i++) {
+			probes[i] = (i % 2 == 0) ? random.nextInt() : random.nextInt(KEY_RANGE * 2) - KEY_RANGE;
+		}
+		//every size up to 70 walks the last level of the layout through full, partial and single positions
+		for(int count : new int[] {0, 1, 2, 3, 4, 7, 8, 15, 16, 31, 32, 63, 64, 70, 1023, 1024, 1025, 5000}) {
+			TreeMap<Integer, String> model = new TreeMap<>();
+			AVLTree tree = new AVLTree();
+			while(model.size() < count) {
+				int k = (model.size() < extremes.length) ? extremes[model.size()]
+						: ((random.nextBoolean()) ? random.nextInt() : random.nextInt(KEY_RANGE * 2) - KEY_RANGE);
+				String info = INFOS[random.nextInt(INFOS.length)];
+				if(tree.insert(k, info) != -1) {
+					model.put(k, info);
+				}
+			}
+			assertFrozen(tree, model, probes);
+		}
+		//a copy stays as it was when the tree changes afterwards
+		TreeMap<Integer, String> model = new TreeMap<>();
+		AVLTree tree = randomTree(random, 500, model);
+		AVLTree.FrozenAVLTree frozen = tree.freeze();
+		int[] keys = tree.keysToArray();
+		for(int k : keys) {
+			tree.delete(k);
+		}
+		assertArrayEquals(keys, frozen.keysToArray(), "frozen copy after the tree was emptied");
+		assertEquals(model.firstEntry().getValue(), frozen.min(), "frozen min after the tree was emptied");
+	}
+
+	/**
+	 * Splits spliterator depth more times, checking that every part reports its
+	 * exact size, and appends the keys of the parts in order to keys.
+	 */
+	private static void collectSplits(Spliterator<AVLTree.IAVLNode> spliterator, int depth, List<Integer> keys) {
+		long size = spliterator.estimateSize();
+		assertEquals(size, spliterator.getExactSizeIfKnown(), "exact size");
+		Spliterator<AVLTree.IAVLNode> prefix = (depth == 0) ? null : spliterator.trySplit();
+		if(prefix == null) {
+			//only a part down to one subtree node, maybe after its first node, stops splitting
+			assertTrue(depth == 0 || size <= 2, "a part of " + size + " nodes that does not split");
+			int before = keys.size();
+			//advance one node, check the estimate counts down, and split what is left if it still splits
+			if(spliterator.tryAdvance(node -> keys.add(node.getKey()))) {
+				assertEquals(size - 1, spliterator.estimateSize(), "estimate after one node");
+				Spliterator<AVLTree.IAVLNode> rest = spliterator.trySplit();
+				if(rest != null) {
+					assertEquals(size - 1, rest.estimateSize() + spliterator.estimateSize(), "sizes after one node");
+					rest.forEachRemaining(node -> keys.add(node.getKey()));
+				}
+			}
+			spliterator.forEachRemaining(node -> keys.add(node.getKey()));
+			assertEquals(size, keys.size() - before, "nodes of a part");
+			assertEquals(0, spliterator.estimateSize(), "estimate of a finished part");
+			return;
+		}
+		assertEquals(size, prefix.estimateSize() + spliterator.estimateSize(), "sizes of the two parts");
+		assertTrue(spliterator.hasCharacteristics(Spliterator.SUBSIZED), "SUBSIZED part");
+		collectSplits(prefix, depth - 1, keys);
+		collectSplits(spliterator, depth - 1, keys);
+	}
+
+	@Test
+	public void spliteratorSplits() {
+		Random random = new Random(7);
+		for(int count : new int[] {0, 1, 2, 3, 10, 100, 1000}) {
+			TreeMap<Integer, String> model = new TreeMap<>();
+			AVLTree tree = randomTree(random, count, model);
+			List<Integer> expected = new ArrayList<>(model.keySet());
+			for(int depth = 0; depth <= 12; depth += 3) {
+				List<Integer> keys = new ArrayList<>();
+				collectSplits(tree.spliterator(), depth, keys);
+				assertEquals(expected, keys, model.size() + " nodes split " + depth + " deep");
+			}
+			List<Integer> iterated = new ArrayList<>();
+			for(AVLTree.IAVLNode node : tree) {
+				iterated.add(node.getKey());
+			}
+			assertEquals(expected, iterated, "iterator of " + model.size() + " nodes");
+			List<Integer> parallel = StreamSupport.stream(tree.spliterator(), true)
+					.map(AVLTree.IAVLNode::getKey).collect(Collectors.toList());
+			assertEquals(expected, parallel, "parallel stream of " + model.size() + " nodes");
+		}
+	}
+
+	@Test
+	public void fromSortedChecksItsInput() {
+		Random random = new Random(8);
+		for(int count : new int[] {0, 1, 2, 3, 7, 8, 100, 1000}) {
+			TreeMap<Integer, String> model = new TreeMap<>();
+			while(model.size() < count) {
+				model.put(random.nextInt(), INFOS[random.nextInt(INFOS.length)]);
+			}
+			int[] keys = model.keySet().stream().mapToInt(Integer::intValue).toArray();
+			String[] values = model.values().toArray(new String[0]);
+			AVLTree tree = AVLTree.fromSorted(keys, values);
+			assertValid(tree, model);
+			assertValidAugmented(AVLTree.fromSorted(keys, values, SUM), model);
+			if(count < 2) {
+				continue;
+			}
+			//a duplicate, a swapped pair and a shorter values array each throw, anywhere in the input
+			int i = 1 + random.nextInt(count - 1);
+			int[] duplicate = keys.clone();
+			duplicate[i] = duplicate[i - 1];
+			assertThrows(IllegalArgumentException.class, () -> AVLTree.fromSorted(duplicate, values), "duplicate at " + i);
+			int[] swapped = keys.clone();
+			swapped[i] = keys[i - 1];
+			swapped[i - 1] = keys[i];
+			assertThrows(IllegalArgumentException.class, () -> AVLTree.fromSorted(swapped, values), "swapped at " + i);
+			assertThrows(IllegalArgumentException.class, () -> AVLTree.fromSorted(swapped, values, SUM), "swapped at " + i);
+			String[] shorter = Arrays.copyOf(values, count - 1);
+			assertThrows(IllegalArgumentException.class, () -> AVLTree.fromSorted(keys, shorter), "values shorter by one");
+		}
+		assertThrows(IllegalArgumentException.class, () -> AVLTree.fromSorted(new int[0], new String[1]), "values for no keys");
+		assertThrows(IllegalArgumentException.class,
+				() -> AVLTree.fromSorted(new int[] {Integer.MAX_VALUE, Integer.MIN_VALUE}, new String[2]), "extreme keys out of order");
+		TreeMap<Integer, String> extremes = new TreeMap<>();
+		extremes.put(Integer.MIN_VALUE, null);
+		extremes.put(Integer.MAX_VALUE, "");
+		assertValid(AVLTree.fromSorted(new int[] {Integer.MIN_VALUE, Integer.MAX_VALUE}, new String[] {null, ""}), extremes);
+	}
+
+	/**
+	 * Checks that a finger search from wherever the finger was left finds every
+	 * key of model, and that absent keys are not found.
+	 */
+	private static void assertFingerFinds(AVLTree tree, TreeMap<Integer, String> model, Random random) {
+		for(int j = 0; j < 20 && !model.isEmpty(); j++) {
+			Integer ceiling = model.ceilingKey(random.nextInt(KEY_RANGE));
+			int k = (ceiling != null) ? ceiling : model.lastKey();
+			assertEquals(k, tree.fingerPosition(k).getKey(), "finger position of " + k);
+			assertEquals(model.get(k), tree.search(k), "search " + k);
+			int absent = random.nextInt(KEY_RANGE + 20) - 10;
+			assertEquals(model.get(absent), tree.search(absent), "search " + absent);
+		}
+	}
+
+	@Test
+	public void fingerAfterDelete() {
+		Random random = new Random(14);
+		for(boolean relaxed : new boolean[] {false, true}) {
+			TreeMap<Integer, String> model = new TreeMap<>();
+			AVLTree tree = randomTree(random, 1500, model);
+			tree.setRelaxed(relaxed);
+			for(int i = 0; i < 600; i++) {
+				//put the finger on a node, then delete that node, a neighbour or the min or max
+				int k = model.keySet().toArray(new Integer[0])[random.nextInt(model.size())];
+				assertEquals(model.get(k), tree.search(k), "search " + k);
+				Integer victim;
+				switch(random.nextInt(4)) {
+				case 0:
+					victim = k;
+					break;
+				case 1:
+					victim = (model.lowerKey(k) != null) ? model.lowerKey(k) : k;
+					break;
+				case 2:
+					victim = (model.higherKey(k) != null) ? model.higherKey(k) : k;
+					break;
+				default:
+					victim = random.nextBoolean() ? model.firstKey() : model.lastKey();
+				}
+				assertTrue(tree.delete(victim) >= 0, "delete " + victim);
+				model.remove(victim);
+				//the next operations start from wherever the finger was left
+				assertNull(tree.search(victim), "search deleted " + victim);
+				if(random.nextInt(3) == 0) {
+					int back = victim + random.nextInt(3) - 1;
+					if(tree.insert(back, "w" + back) != -1) {
+						model.put(back, "w" + back);
+					}
+				}
+				if(i % 100 == 0) {
+					assertFingerFinds(tree, model, random);
+					if(relaxed) {
+						tree.rebalance(Integer.MAX_VALUE);
+					}
+					assertValid(tree, model);
+				}
+			}
+			//the bulk deletes drop the finger too
+			tree.search(model.firstKey());
+			tree.deleteRange(model.firstKey(), model.firstKey() + KEY_RANGE / 4);
+			model.subMap(model.firstKey(), true, model.firstKey() + KEY_RANGE / 4, true).clear();
+			assertFingerFinds(tree, model, random);
+			int[] some = model.keySet().stream().mapToInt(Integer::intValue).filter(key -> key % 3 == 0).toArray();
+			tree.search(some[some.length / 2]);
+			tree.deleteAll(some);
+			for(int key : some) {
+				model.remove(key);
+			}
+			assertFingerFinds(tree, model, random);
+			tree.rebalance(Integer.MAX_VALUE);
+			assertValid(tree, model);
+		}
+	}
+
+	@Test
+	public void treeMetricsCounters() throws Exception {
+		AVLTree.TreeMetrics metrics = new AVLTree.TreeMetrics();
+		AVLTree tree = new AVLTree();
+		tree.setMetrics(metrics);
+		//ascending keys 1..7 rotate four times and end in the perfect tree of height 2
+		for(int k = 1; k <= 7; k++) {
+			tree.insert(k, "v" + k);
+		}
+		tree.insert(4, "again");
+		assertEquals(8, metrics.count(AVLTree.TreeMetrics.INSERT), "inserts, the duplicate too");
+		assertEquals(4, metrics.getRotations(), "rotations");
+		assertTrue(metrics.getHeightChanges() > 0, "height changes");
+		assertEquals(2, metrics.getHeight(), "height");
+		assertEquals(7, metrics.getSize(), "size");
+		assertEquals(3, metrics.getHeightBound(), "AVL height bound of 7 nodes, the size of the sparsest tree of height 3");
+		//every key found once: depth 0 once, 1 twice, 2 four times, plus the depths of the 7 new nodes
+		long[] inserted = metrics.depthHistogram();
+		for(int k = 1; k <= 7; k++) {
+			tree.search(k);
+		}
+		tree.search(100);
+		long[] depths = metrics.depthHistogram();
+		assertEquals(1, depths[0] - inserted[0], "searches ending at depth 0");
+		assertEquals(2, depths[1] - inserted[1], "searches ending at depth 1");
+		assertEquals(5, depths[2] - inserted[2], "searches ending at depth 2, the miss at 7 too");
+		assertEquals(8, metrics.count(AVLTree.TreeMetrics.SEARCH), "searches");
+		tree.delete(1);
+		tree.delete(1);
+		assertEquals(2, metrics.count(AVLTree.TreeMetrics.DELETE), "deletes, the miss too");
+		assertEquals(6, metrics.getSize(), "size after the delete");
+		//a split costs one join per node on the path, a join costs the height difference + 1
+		AVLTree[] halves = tree.split(4);
+		assertEquals(1, metrics.count(AVLTree.TreeMetrics.SPLIT), "splits");
+		assertEquals(0, metrics.count(AVLTree.TreeMetrics.JOIN), "joins inside a split");
+		assertEquals(1, metrics.meanCost(AVLTree.TreeMetrics.SPLIT), "joins of a split at the root");
+		assertSame(metrics, halves[0].getMetrics());
+		assertSame(metrics, halves[1].getMetrics());
+		int cost = halves[0].join(halves[0].new AVLNode(4, "v4"), halves[1]);
+		assertEquals(1, metrics.count(AVLTree.TreeMetrics.JOIN), "joins");
+		assertEquals(cost, metrics.meanCost(AVLTree.TreeMetrics.JOIN), "join cost");
+		assertEquals(6, metrics.getSize(), "size after the join");
+		//every operation lands in exactly one latency bucket, and the percentiles grow with p
+		String[] operations = metrics.getOperations();
+		long[] counts = metrics.getCounts();
+		assertEquals(Arrays.asList("search", "insert", "delete", "split", "join"), Arrays.asList(operations));
+		for(int op = 0; op < operations.length; op++) {
+			assertEquals(counts[op], Arrays.stream(metrics.latencyHistogram(op)).sum(), operations[op] + " latency histogram");
+			assertTrue(metrics.latencyPercentile(op, 0.5) <= metrics.latencyPercentile(op, 0.99), operations[op] + " percentiles");
+			assertTrue(metrics.meanNanos(op) >= 0, operations[op] + " mean latency");
+		}
+		assertArrayEquals(new long[] {8, 8, 2, 1, 1}, counts, "counts");
+		//a second tree adds to the same counters, and reset clears them all
+		AVLTree other = new AVLTree();
+		other.setMetrics(metrics);
+		other.insert(1, "w1");
+		assertEquals(9, metrics.count(AVLTree.TreeMetrics.INSERT), "inserts of both trees");
+		assertEquals(1, metrics.getSize(), "size of the tree last used");
+		ObjectName name = metrics.registerMBean("AVLTreeTest:type=AVLTree,name=treeMetricsCounters");
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertArrayEquals(metrics.getCounts(), (long[]) server.getAttribute(name, "Counts"), "counts over JMX");
+			assertEquals(metrics.getRotations(), server.getAttribute(name, "Rotations"), "rotations over JMX");
+			server.invoke(name, "reset", null, null);
+		}finally {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		}
+		assertArrayEquals(new long[5], metrics.getCounts(), "counts after reset");
+		assertEquals(0, metrics.getRotations(), "rotations after reset");
+		assertEquals(0, metrics.getHeightChanges(), "height changes after reset");
+		assertEquals(0, metrics.getMeanDepth(), "mean depth after reset");
+		assertEquals(0, metrics.latencyPercentile(AVLTree.TreeMetrics.SEARCH, 0.99), "p99 after reset");
+	}
+
+	@Test
+	public void exportIntoSmallBuffers() {
+		Random random = new Random(24);
+		TreeMap<Integer, String> model = new TreeMap<>();
+		AVLTree tree = new AVLTree();
+		for(int k : new int[] {Integer.MIN_VALUE, -1, 0, Integer.MAX_VALUE}) {
+			tree.insert(k, INFOS[model.size() % INFOS.length]);
+			model.put(k, INFOS[model.size() % INFOS.length]);
+		}
+		for(int i = 0; i < 500; i++) {
+			int k = random.nextInt(KEY_RANGE * 2) - KEY_RANGE;
+			String info = INFOS[random.nextInt(INFOS.length)];
+			if(tree.insert(k, info) != -1) {
+				model.put(k, info);
+			}
+		}
+		int[][] ranges = {{Integer.MIN_VALUE, Integer.MAX_VALUE}, {-KEY_RANGE / 2, KEY_RANGE / 3}, {5, 5}, {1, -1},
+				{Integer.MAX_VALUE, Integer.MAX_VALUE}, {KEY_RANGE, Integer.MAX_VALUE}};
+		for(int[] range : ranges) {
+			int lo = range[0];
+			int hi = range[1];
+			String name = lo + ".." + hi;
+			Map<Integer, String> inRange = (lo <= hi) ? model.subMap(lo, true, hi, true) : new TreeMap<>();
+			List<Integer> expectedKeys = new ArrayList<>(inRange.keySet());
+			List<String> expectedInfo = new ArrayList<>(inRange.values());
+			//arrays of room 7 at offset 3, resumed after the last key copied; the slots around stay untouched
+			List<Integer> keys = new ArrayList<>();
+			List<String> infos = new ArrayList<>();
+			for(int next = lo; ; ) {
+				int[] keyChunk = new int[10];
+				String[] infoChunk = new String[11];
+				Arrays.fill(keyChunk, 42);
+				Arrays.fill(infoChunk, "untouched");
+				int copied = tree.export(next, hi, keyChunk, infoChunk, 3);
+				for(int j = 0; j < keyChunk.length; j++) {
+					if(j < 3 || j >= 3 + copied) {
+						assertEquals(42, keyChunk[j], name + " key slot " + j + " outside the copy");
+						assertEquals("untouched", infoChunk[j], name + " info slot " + j + " outside the copy");
+					}else {
+						keys.add(keyChunk[j]);
+						infos.add(infoChunk[j]);
+					}
+				}
+				assertEquals("untouched", infoChunk[10], name + " info slot past the key room");
+				if(copied < 7 || keyChunk[9] == hi) {
+					break;
+				}
+				next = keyChunk[9] + 1;
+			}
+			assertEquals(expectedKeys, keys, name + " keys through arrays");
+			assertEquals(expectedInfo, infos, name + " info through arrays");
+			//either array alone, and no room at all
+			int[] allKeys = new int[expectedKeys.size() + 1];
+			assertEquals(expectedKeys.size(), tree.export(lo, hi, allKeys, null, 1), name + " keys only");
+			String[] allInfo = new String[expectedKeys.size()];
+			assertEquals(expectedKeys.size(), tree.export(lo, hi, null, allInfo, 0), name + " info only");
+			assertEquals(expectedInfo, Arrays.asList(allInfo), name + " info only");
+			assertEquals(0, tree.export(lo, hi, new int[4], new String[4], 4), name + " no room after the offset");
+			//an IntBuffer of room 5 that starts at position 2, on and off the heap
+			for(IntBuffer chunk : new IntBuffer[] {IntBuffer.allocate(7), ByteBuffer.allocateDirect(28).asIntBuffer()}) {
+				keys.clear();
+				for(int next = lo; ; ) {
+					chunk.clear().position(2);
+					int put = tree.export(next, hi, chunk);
+					assertEquals(2 + put, chunk.position(), name + " IntBuffer position");
+					for(int j = 2; j < 2 + put; j++) {
+						keys.add(chunk.get(j));
+					}
+					if(chunk.hasRemaining() || chunk.get(6) == hi) {
+						break;
+					}
+					next = chunk.get(6) + 1;
+				}
+				assertEquals(expectedKeys, keys, name + " keys through " + chunk.getClass().getSimpleName());
+			}
+			//a ByteBuffer of 48 bytes in both byte orders, that never gets a partial item
+			for(ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+				ByteBuffer chunk = ByteBuffer.allocate(48).order(order);
+				keys.clear();
+				infos.clear();
+				for(int next = lo; ; ) {
+					chunk.clear();
+					int put = tree.export(next, hi, chunk);
+					int position = 0;
+					int last = next;
+					for(int j = 0; j < put; j++) {
+						last = chunk.getInt(position);
+						int length = chunk.getInt(position + 4);
+						keys.add(last);
+						infos.add((length == -1) ? null : AVLTree.getUtf8(chunk, position + 8, length));
+						position += 8 + Math.max(length, 0);
+					}
+					assertEquals(position, chunk.position(), name + " bytes of whole items only");
+					if(put == 0 || last == hi || keys.size() == expectedKeys.size()) {
+						break;
+					}
+					next = last + 1;
+				}
+				assertEquals(expectedKeys, keys, name + " keys through " + order);
+				assertEquals(expectedInfo, infos, name + " info through " + order);
+			}
+		}
+		//an item larger than the buffer is not started
+		AVLTree wide = new AVLTree();
+		wide.insert(1, "é中😀".repeat(10));
+		ByteBuffer small = ByteBuffer.allocate(20);
+		assertEquals(0, wide.export(0, 2, small), "an item that does not fit");
+		assertEquals(0, small.position(), "position after an item that does not fit");
+	}
+
+	@Test
+	public void traceRoundTrip(@TempDir Path directory) throws IOException {
+		Random random = new Random(25);
+		Path path = directory.resolve("trace.avlr");
+		TreeMap<Integer, String> loaded = new TreeMap<>();
+		AVLTree tree = randomTree(random, 300, loaded);
+		AVLTree.TraceRecorder recorder = AVLTree.TraceRecorder.create(path);
+		tree.setRecorder(recorder);
+		tree.insert(-5, "é中😀"); // 9 bytes in UTF-8, 4 chars
+		tree.search(-5);
+		tree.delete(7);
+		int[] batch = new int[100];
+		String[] values = new String[batch.length];
+		for(int i = 0; i < batch.length; i++) {
+			batch[i] = random.nextInt(KEY_RANGE * 2);
+			values[i] = "b" + i;
+		}
+		tree.insertAll(batch, values);
+		tree.deleteAll(Arrays.copyOf(batch, 30));
+		tree.deleteRange(100, 200);
+		tree.extractRange(1500, 1700);
+		tree.union(randomTree(random, 200, new TreeMap<>(), "u", KEY_RANGE * 3), null);
+		tree.difference(randomTree(random, 200, new TreeMap<>(), "d", KEY_RANGE * 3));
+		tree.intersection(randomTree(random, 2000, new TreeMap<>(), "i", KEY_RANGE * 3), null);
+		//the recorder follows the larger half: here the keys above, and the lower half comes back with a join
+		int[] keys = tree.keysToArray();
+		int x = keys[keys.length / 4];
+		AVLTree[] halves = tree.split(x);
+		assertSame(recorder, halves[1].getRecorder());
+		assertNull(halves[0].getRecorder());
+		halves[0].insert(x - KEY_RANGE * 4, "lost"); // not in the trace, the tree is joined in with its items
+		tree = halves[1];
+		tree.insert(KEY_RANGE * 5, "after");
+		tree.join(tree.new AVLNode(x, "j"), halves[0]);
+		//here the keys below, and the keys above x are gone
+		keys = tree.keysToArray();
+		halves = tree.split(keys[keys.length * 3 / 4]);
+		assertSame(recorder, halves[0].getRecorder());
+		tree = halves[0];
+		//a join of a tree without a recorder on the other side, and of this one into a tree without one
+		AVLTree above = AVLTree.fromSorted(new int[] {KEY_RANGE * 7, KEY_RANGE * 8}, new String[] {"a", null});
+		tree.join(tree.new AVLNode(KEY_RANGE * 6, "m"), above);
+		AVLTree below = AVLTree.fromSorted(new int[] {-KEY_RANGE * 9}, new String[] {"b"});
+		below.join(below.new AVLNode(-KEY_RANGE * 8, "m"), tree);
+		assertSame(recorder, below.getRecorder());
+		tree = below;
+		recorder.close();
+
+		AVLTree.Trace trace = AVLTree.Trace.read(path);
+		for(int op : new int[] {AVLTree.TraceRecorder.INSERT_ALL, AVLTree.TraceRecorder.DELETE_ALL, AVLTree.TraceRecorder.DELETE_RANGE,
+				AVLTree.TraceRecorder.EXTRACT_RANGE, AVLTree.TraceRecorder.UNION, AVLTree.TraceRecorder.INTERSECTION, AVLTree.TraceRecorder.DIFFERENCE}) {
+			assertEquals(1, trace.counts[op], AVLTree.TraceRecorder.NAMES[op]);
+		}
+		assertEquals(2, trace.counts[AVLTree.TraceRecorder.SPLIT], "split");
+		assertEquals(3, trace.counts[AVLTree.TraceRecorder.JOIN], "join");
+		//replayed key by key, as an engine without the batch operations does, the trace ends at the same keys
+		TreeMap<Integer, String> replayed = new TreeMap<>();
+		for(int i = 0; i < trace.length; i++) {
+			switch(trace.ops[i]) {
+			case AVLTree.TraceRecorder.LOAD:
+			case AVLTree.TraceRecorder.INSERT:
+				replayed.putIfAbsent(trace.keys[i], trace.values[i]);
+				if(trace.keys[i] == -5) {
+					assertEquals(9, trace.values[i].length(), "a value as long as the info in bytes");
+				}
+				break;
+			case AVLTree.TraceRecorder.DELETE:
+				replayed.remove(trace.keys[i]);
+				break;
+			case AVLTree.TraceRecorder.INSERT_ALL:
+			case AVLTree.TraceRecorder.UNION:
+				for(int j = 0; j < trace.items[i].length; j++) {
+					replayed.putIfAbsent(trace.items[i][j], trace.itemValues[i][j]);
+				}
+				break;
+			case AVLTree.TraceRecorder.JOIN:
+				replayed.put(trace.keys[i], trace.values[i]);
+				for(int j = 0; j < trace.items[i].length; j++) {
+					replayed.put(trace.items[i][j], trace.itemValues[i][j]);
+				}
+				break;
+			case AVLTree.TraceRecorder.SPLIT:
+				Map<Integer, String> dropped = (trace.highs[i] == 1) ? replayed.headMap(trace.keys[i], true) : replayed.tailMap(trace.keys[i], true);
+				assertArrayEquals(dropped.keySet().stream().mapToInt(Integer::intValue).toArray(), trace.items[i], "keys a split drops");
+				dropped.clear();
+				break;
+			case AVLTree.TraceRecorder.DELETE_RANGE:
+			case AVLTree.TraceRecorder.EXTRACT_RANGE:
+				assertEquals(replayed.subMap(trace.keys[i], true, trace.highs[i], true).keySet().size(), trace.items[i].length);
+				//fall through
+			case AVLTree.TraceRecorder.DELETE_ALL:
+			case AVLTree.TraceRecorder.DIFFERENCE:
+			case AVLTree.TraceRecorder.INTERSECTION:
+				for(int k : trace.items[i]) {
+					replayed.remove(k);
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		assertArrayEquals(tree.keysToArray(), replayed.keySet().stream().mapToInt(Integer::intValue).toArray());
+		//and the values are as long as the recorded info, null where the info was null
+		String[] info = tree.infoToArray();
+		String[] replayedValues = replayed.values().toArray(new String[0]);
+		for(int i = 0; i < info.length; i++) {
+			assertEquals((info[i] == null) ? null : AVLTree.utf8Length(info[i]),
+					(replayedValues[i] == null) ? null : replayedValues[i].length(), "value " + i);
+		}
+	}
+}